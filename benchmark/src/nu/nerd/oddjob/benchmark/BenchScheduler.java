@@ -0,0 +1,81 @@
+package nu.nerd.oddjob.benchmark;
+
+import java.util.HashSet;
+import java.util.UUID;
+
+import nu.nerd.oddjob.SimulatedClock;
+import nu.nerd.oddjob.Task;
+import nu.nerd.oddjob.TaskScheduler;
+
+// ----------------------------------------------------------------------------
+/**
+ * A {@link TaskScheduler} with a {@link SimulatedClock} and a set of online
+ * players, so that it can run without a server.
+ * 
+ * Permission checks always pass. Everything else, including metrics, the
+ * audit log and task execution, goes through the real scheduler code.
+ */
+public class BenchScheduler extends TaskScheduler {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     */
+    public BenchScheduler() {
+        setClock(_clock);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the current time.
+     * 
+     * @param now the time in milliseconds since Epoch.
+     */
+    public void setTime(long now) {
+        _clock.setMillis(now);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set whether a player is online.
+     * 
+     * @param uuid the player's UUID.
+     * @param online true if the player is online.
+     */
+    public void setOnline(UUID uuid, boolean online) {
+        if (online) {
+            _online.add(uuid);
+        } else {
+            _online.remove(uuid);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.TaskScheduler#isOnlineSatisfied(nu.nerd.oddjob.Task)
+     */
+    @Override
+    protected boolean isOnlineSatisfied(Task task) {
+        return !task.getTaskType().isOnline() ||
+               task.getOfflinePlayer() == null ||
+               _online.contains(task.getOfflinePlayer().getUniqueId());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.TaskScheduler#isPermissionSatisfied(nu.nerd.oddjob.Task)
+     */
+    @Override
+    protected boolean isPermissionSatisfied(Task task) {
+        return true;
+    }
+
+    /**
+     * The simulated clock.
+     */
+    private final SimulatedClock _clock = new SimulatedClock(System.currentTimeMillis());
+
+    /**
+     * The UUIDs of online players.
+     */
+    private final HashSet<UUID> _online = new HashSet<>();
+} // class BenchScheduler
@@ -0,0 +1,41 @@
+package nu.nerd.oddjob.benchmark;
+
+import org.bukkit.OfflinePlayer;
+
+import nu.nerd.oddjob.Task;
+import nu.nerd.oddjob.TaskType;
+
+// ----------------------------------------------------------------------------
+/**
+ * A {@link Task} that refers to its {@link TaskType} directly, rather than
+ * looking it up in the plugin, so that it can execute without a server.
+ */
+public class BenchTask extends Task {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     * 
+     * @param id the unique ID of this task instance.
+     * @param taskType the task type.
+     * @param player the target player (can be null).
+     * @param time the time at which this task is due to execute.
+     */
+    public BenchTask(String id, TaskType taskType, OfflinePlayer player, long time) {
+        super(id, taskType.getId(), player, time);
+        _taskType = taskType;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.Task#getTaskType()
+     */
+    @Override
+    public TaskType getTaskType() {
+        return _taskType;
+    }
+
+    /**
+     * The task type.
+     */
+    private final TaskType _taskType;
+} // class BenchTask
@@ -0,0 +1,142 @@
+package nu.nerd.oddjob.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nu.nerd.oddjob.OddJobService;
+import nu.nerd.oddjob.harness.HarnessServer;
+
+// ----------------------------------------------------------------------------
+/**
+ * Compares scheduling a task through {@link OddJobService} with dispatching
+ * the equivalent {@code /task run} command line, as other plugins did before
+ * the service existed.
+ * 
+ * Both benchmarks reschedule a fixed set of task IDs, so the number of tasks
+ * stays constant. The plugin runs in the {@link HarnessServer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ServiceVsCommandBenchmark {
+    // ------------------------------------------------------------------------
+    /**
+     * Start the plugin and precompute the arguments.
+     * 
+     * @throws Exception on error.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File dataFolder = Files.createTempDirectory("oddjob-bench").toFile();
+        _server = HarnessServer.get();
+        _server.startPlugin(dataFolder, "  unvote:\n    console-commands:\n    - lp user %uuid% parent remove voter\n");
+        _service = Bukkit.getServicesManager().load(OddJobService.class);
+
+        long seconds = System.currentTimeMillis() / 1000 + 3600;
+        for (int i = 0; i < ARGUMENTS; ++i) {
+            Player player = _server.getOrCreatePlayer("Player" + (i % PLAYERS));
+            _ids[i] = "unvote-" + player.getName() + "-" + (i / PLAYERS);
+            _uuids[i] = player.getUniqueId();
+            _times[i] = (seconds + i) * 1000;
+            _commands[i] = "task run " + _ids[i] + " unvote " + player.getName() + " @" + (seconds + i);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop the plugin.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _server.stopPlugin();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule a task through the service.
+     * 
+     * @return true if scheduled.
+     */
+    @Benchmark
+    public boolean service() {
+        int i = _next++ & (ARGUMENTS - 1);
+        return _service.schedule(_ids[i], "unvote", _uuids[i], _times[i]);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule a task by dispatching {@code /task run} as the console.
+     * 
+     * @return true if the command was handled.
+     */
+    @Benchmark
+    public boolean command() {
+        int i = _next++ & (ARGUMENTS - 1);
+        return Bukkit.dispatchCommand(_server.getConsole(), _commands[i]);
+    }
+
+    /**
+     * The number of precomputed arguments; a power of two.
+     */
+    private static final int ARGUMENTS = 1 << 12;
+
+    /**
+     * The number of players.
+     */
+    private static final int PLAYERS = 1000;
+
+    /**
+     * The harness.
+     */
+    private HarnessServer _server;
+
+    /**
+     * The service.
+     */
+    private OddJobService _service;
+
+    /**
+     * Task IDs.
+     */
+    private final String[] _ids = new String[ARGUMENTS];
+
+    /**
+     * Player UUIDs.
+     */
+    private final UUID[] _uuids = new UUID[ARGUMENTS];
+
+    /**
+     * Task times.
+     */
+    private final long[] _times = new long[ARGUMENTS];
+
+    /**
+     * Equivalent {@code /task run} command lines.
+     */
+    private final String[] _commands = new String[ARGUMENTS];
+
+    /**
+     * The index of the next precomputed argument.
+     */
+    private int _next;
+} // class ServiceVsCommandBenchmark
@@ -0,0 +1,73 @@
+package nu.nerd.oddjob.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+import org.bukkit.entity.Player;
+
+// ----------------------------------------------------------------------------
+/**
+ * Creates stub {@link Player} instances, which are also
+ * {@link org.bukkit.OfflinePlayer}s, for benchmarks that run without a
+ * server.
+ */
+public class StubPlayers {
+    // ------------------------------------------------------------------------
+    /**
+     * Return a stub player that only knows its UUID and name.
+     * 
+     * All other methods return null, false or zero.
+     * 
+     * @param uuid the UUID.
+     * @param name the name.
+     * @return the stub player.
+     */
+    public static Player create(UUID uuid, String name) {
+        return (Player) Proxy.newProxyInstance(StubPlayers.class.getClassLoader(), new Class<?>[] { Player.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "getUniqueId":
+                    return uuid;
+                case "getName":
+                case "getDisplayName":
+                case "toString":
+                    return name;
+                case "hashCode":
+                    return uuid.hashCode();
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return defaultValue(method.getReturnType());
+                }
+            });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the default value of a method's return type: null, false or
+     * zero.
+     * 
+     * @param type the return type.
+     * @return the default value.
+     */
+    public static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0.0f;
+        } else if (type == double.class) {
+            return 0.0;
+        }
+        return null;
+    }
+} // class StubPlayers
@@ -0,0 +1,160 @@
+package nu.nerd.oddjob.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitScheduler;
+
+// ----------------------------------------------------------------------------
+/**
+ * A stub {@link Server}, installed as the Bukkit singleton, that accepts and
+ * counts commands and broadcasts without doing anything.
+ * 
+ * Online players are looked up in a map maintained by the caller. Scheduled
+ * tasks are discarded. Methods not otherwise handled return null, false or
+ * zero.
+ */
+public class StubServer implements InvocationHandler {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the stub server, installing it as the Bukkit server on first
+     * use.
+     * 
+     * @return the stub server.
+     */
+    public static synchronized StubServer get() {
+        if (_instance == null) {
+            _instance = new StubServer();
+            Bukkit.setServer((Server) Proxy.newProxyInstance(StubServer.class.getClassLoader(),
+                                                             new Class<?>[] { Server.class }, _instance));
+        }
+        return _instance;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set whether a player is online.
+     * 
+     * @param player the player.
+     * @param online true if the player is online.
+     */
+    public void setOnline(Player player, boolean online) {
+        if (online) {
+            _online.put(player.getUniqueId(), player);
+        } else {
+            _online.remove(player.getUniqueId());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of commands dispatched.
+     * 
+     * @return the number of commands dispatched.
+     */
+    public long getCommandCount() {
+        return _commands;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of broadcasts sent.
+     * 
+     * @return the number of broadcasts sent.
+     */
+    public long getBroadcastCount() {
+        return _broadcasts;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+     *      java.lang.reflect.Method, java.lang.Object[])
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "getName":
+        case "getVersion":
+        case "getBukkitVersion":
+            return "StubServer";
+        case "getLogger":
+            return _logger;
+        case "getScheduler":
+            return _scheduler;
+        case "getConsoleSender":
+            return _console;
+        case "dispatchCommand":
+            ++_commands;
+            return true;
+        case "broadcast":
+        case "broadcastMessage":
+            ++_broadcasts;
+            return 0;
+        case "getPlayer":
+            return (args[0] instanceof UUID) ? _online.get(args[0]) : null;
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "equals":
+            return proxy == args[0];
+        default:
+            return StubPlayers.defaultValue(method.getReturnType());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a proxy for an interface whose methods all return null, false or
+     * zero.
+     * 
+     * @param type the interface.
+     * @return the proxy.
+     */
+    private static <T> T nullProxy(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(StubServer.class.getClassLoader(), new Class<?>[] { type },
+            (proxy, method, args) -> StubPlayers.defaultValue(method.getReturnType())));
+    }
+
+    /**
+     * The singleton.
+     */
+    private static StubServer _instance;
+
+    /**
+     * The server logger.
+     */
+    private final Logger _logger = Logger.getLogger("StubServer");
+
+    /**
+     * A scheduler that discards tasks.
+     */
+    private final BukkitScheduler _scheduler = nullProxy(BukkitScheduler.class);
+
+    /**
+     * The console command sender.
+     */
+    private final ConsoleCommandSender _console = nullProxy(ConsoleCommandSender.class);
+
+    /**
+     * Online players by UUID.
+     */
+    private final HashMap<UUID, Player> _online = new HashMap<>();
+
+    /**
+     * The number of commands dispatched.
+     */
+    private long _commands;
+
+    /**
+     * The number of broadcasts sent.
+     */
+    private long _broadcasts;
+} // class StubServer
@@ -0,0 +1,84 @@
+package nu.nerd.oddjob.benchmark;
+
+import nu.nerd.oddjob.Task;
+import nu.nerd.oddjob.TaskType;
+
+// ----------------------------------------------------------------------------
+/**
+ * A {@link TaskType} that does nothing when executed, other than counting
+ * executions.
+ */
+public class StubTaskType extends TaskType {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     * 
+     * @param id the task type ID.
+     * @param online true if the target player must be online.
+     */
+    public StubTaskType(String id, boolean online) {
+        _id = id;
+        _online = online;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.TaskType#execute(nu.nerd.oddjob.Task, long)
+     */
+    @Override
+    public void execute(Task task, long drain) {
+        ++_executions;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.TaskType#getId()
+     */
+    @Override
+    public String getId() {
+        return _id;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.TaskType#getPermission()
+     */
+    @Override
+    public String getPermission() {
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.TaskType#isOnline()
+     */
+    @Override
+    public boolean isOnline() {
+        return _online;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of times a task of this type has been executed.
+     * 
+     * @return the number of executions.
+     */
+    public long getExecutions() {
+        return _executions;
+    }
+
+    /**
+     * The task type ID.
+     */
+    private final String _id;
+
+    /**
+     * True if the target player must be online.
+     */
+    private final boolean _online;
+
+    /**
+     * The number of executions.
+     */
+    private long _executions;
+} // class StubTaskType
@@ -0,0 +1,197 @@
+package nu.nerd.oddjob.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of {@link nu.nerd.oddjob.TaskScheduler} operations that change
+ * the scheduler's state, so that each measurement iteration starts from a
+ * freshly scheduled workload.
+ * 
+ * The score of each iteration is the time taken by one batch of operations:
+ * {@value #BATCH} calls of {@link #scheduleTask()} or {@link #cancelTask()},
+ * one call of {@link #runPendingTasks()} that executes up to {@value #DUE}
+ * due tasks, or {@value #OVERDUE_PLAYERS} calls of
+ * {@link #executeOverdueTasksFor()}, each for a player with
+ * {@value #OVERDUE_TASKS} overdue tasks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class TaskSchedulerBatchBenchmark {
+    /**
+     * The number of scheduled tasks.
+     */
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int size;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule the workload, plus overdue tasks for some offline players, and
+     * precompute the arguments of the benchmarked operations.
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        _workload = new Workload(size, System.currentTimeMillis(), 1);
+        _scheduler = new BenchScheduler();
+        _scheduler.setTime(_workload.getNow());
+        _workload.scheduleAll(_scheduler);
+        _next = 0;
+
+        BenchTask[] tasks = _workload.getTasks();
+        Player[] players = _workload.getPlayers();
+        _newTasks = new BenchTask[BATCH];
+        _cancelIds = new String[BATCH];
+        for (int i = 0; i < BATCH; ++i) {
+            BenchTask task = tasks[_workload.getRandom().nextInt(size)];
+            _newTasks[i] = new BenchTask("extra-" + i, task.getTaskType(), task.getOfflinePlayer(),
+                                         _workload.randomTime());
+            _cancelIds[i] = tasks[_workload.getRandom().nextInt(size)].getId();
+        }
+
+        long[] times = new long[size];
+        for (int i = 0; i < size; ++i) {
+            times[i] = tasks[i].getTime();
+        }
+        Arrays.sort(times);
+        _drainTime = times[Math.min(DUE, size) - 1];
+
+        _overduePlayers = new Player[Math.min(OVERDUE_PLAYERS, players.length)];
+        StubTaskType online = Workload.TASK_TYPES[0];
+        for (int i = 0; i < _overduePlayers.length; ++i) {
+            Player player = players[i];
+            _overduePlayers[i] = player;
+            for (int j = 0; j < OVERDUE_TASKS; ++j) {
+                _scheduler.scheduleTask(new BenchTask("overdue-" + player.getName() + "-" + j, online, player,
+                                                      _workload.getNow() - Workload.HOUR + j));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule a task with a new ID.
+     */
+    @Benchmark
+    @Warmup(batchSize = BATCH)
+    @Measurement(batchSize = BATCH)
+    public void scheduleTask() {
+        _scheduler.scheduleTask(_newTasks[_next++ % BATCH]);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel a randomly chosen task.
+     * 
+     * @return true if the task was cancelled (false if already cancelled).
+     */
+    @Benchmark
+    @Warmup(batchSize = BATCH)
+    @Measurement(batchSize = BATCH)
+    public boolean cancelTask() {
+        return _scheduler.cancelTask(_cancelIds[_next++ % BATCH]);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run the pending tasks at a time when the earliest {@value #DUE} tasks
+     * are due.
+     * 
+     * Tasks that need their player online become overdue rather than
+     * executing.
+     * 
+     * @return the number of remaining tasks.
+     */
+    @Benchmark
+    public int runPendingTasks() {
+        _scheduler.setTime(_drainTime);
+        _scheduler.runPendingTasks();
+        return _scheduler.getTaskCount();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Bring a player with overdue tasks online and execute those tasks.
+     */
+    @Benchmark
+    @Warmup(batchSize = OVERDUE_PLAYERS)
+    @Measurement(batchSize = OVERDUE_PLAYERS)
+    public void executeOverdueTasksFor() {
+        Player player = _overduePlayers[_next++ % _overduePlayers.length];
+        _scheduler.setOnline(player.getUniqueId(), true);
+        _scheduler.executeOverdueTasksFor(player);
+    }
+
+    /**
+     * The number of tasks scheduled or cancelled in one batch.
+     */
+    private static final int BATCH = 1000;
+
+    /**
+     * The number of tasks due when {@link #runPendingTasks()} is called.
+     */
+    private static final int DUE = 1000;
+
+    /**
+     * The number of players with overdue tasks.
+     */
+    private static final int OVERDUE_PLAYERS = 100;
+
+    /**
+     * The number of overdue tasks for each player with overdue tasks.
+     */
+    private static final int OVERDUE_TASKS = 10;
+
+    /**
+     * The workload.
+     */
+    private Workload _workload;
+
+    /**
+     * The scheduler.
+     */
+    private BenchScheduler _scheduler;
+
+    /**
+     * Tasks that are not in the workload.
+     */
+    private BenchTask[] _newTasks;
+
+    /**
+     * IDs of randomly chosen tasks in the workload.
+     */
+    private String[] _cancelIds;
+
+    /**
+     * The time at which the earliest {@link #DUE} tasks are due.
+     */
+    private long _drainTime;
+
+    /**
+     * Players with overdue tasks.
+     */
+    private Player[] _overduePlayers;
+
+    /**
+     * The index of the next precomputed argument.
+     */
+    private int _next;
+} // class TaskSchedulerBatchBenchmark
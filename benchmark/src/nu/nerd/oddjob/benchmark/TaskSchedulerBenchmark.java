@@ -0,0 +1,127 @@
+package nu.nerd.oddjob.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ----------------------------------------------------------------------------
+/**
+ * Steady state benchmarks of {@link nu.nerd.oddjob.TaskScheduler} operations
+ * that leave the number of tasks unchanged, reporting throughput and the
+ * latency distribution.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class TaskSchedulerBenchmark {
+    /**
+     * The number of scheduled tasks.
+     */
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int size;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule the workload and precompute the arguments of the benchmarked
+     * operations.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        _workload = new Workload(size, System.currentTimeMillis(), 1);
+        _scheduler = new BenchScheduler();
+        _scheduler.setTime(_workload.getNow());
+        _workload.scheduleAll(_scheduler);
+
+        _tasks = _workload.getTasks();
+        _times = new long[ARGUMENTS];
+        _newIds = new String[ARGUMENTS];
+        _order = new int[ARGUMENTS];
+        for (int i = 0; i < ARGUMENTS; ++i) {
+            _times[i] = _workload.randomTime();
+            _newIds[i] = "extra-" + i;
+            _order[i] = _workload.getRandom().nextInt(size);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule a task with the same ID as an existing task, at a new time.
+     * 
+     * @return true if the rescheduled task is pending.
+     */
+    @Benchmark
+    public boolean reschedule() {
+        int i = _next++ & (ARGUMENTS - 1);
+        BenchTask task = _tasks[_order[i]];
+        _scheduler.scheduleTask(new BenchTask(task.getId(), task.getTaskType(), task.getOfflinePlayer(), _times[i]));
+        return _scheduler.getTask(task.getId()) != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule a task with a new ID and then cancel it.
+     * 
+     * @return true if the task was cancelled.
+     */
+    @Benchmark
+    public boolean scheduleAndCancel() {
+        int i = _next++ & (ARGUMENTS - 1);
+        BenchTask task = _tasks[_order[i]];
+        _scheduler.scheduleTask(new BenchTask(_newIds[i], task.getTaskType(), task.getOfflinePlayer(), _times[i]));
+        return _scheduler.cancelTask(_newIds[i]);
+    }
+
+    /**
+     * The number of precomputed arguments; a power of two.
+     */
+    private static final int ARGUMENTS = 1 << 14;
+
+    /**
+     * The workload.
+     */
+    private Workload _workload;
+
+    /**
+     * The scheduler.
+     */
+    private BenchScheduler _scheduler;
+
+    /**
+     * The tasks of the workload.
+     */
+    private BenchTask[] _tasks;
+
+    /**
+     * Random task times.
+     */
+    private long[] _times;
+
+    /**
+     * IDs of tasks that are not in the workload.
+     */
+    private String[] _newIds;
+
+    /**
+     * Random indices into {@link #_tasks}.
+     */
+    private int[] _order;
+
+    /**
+     * The index of the next precomputed argument.
+     */
+    private int _next;
+} // class TaskSchedulerBenchmark
@@ -0,0 +1,261 @@
+package nu.nerd.oddjob.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import nu.nerd.oddjob.OddJob;
+import nu.nerd.oddjob.Task;
+import nu.nerd.oddjob.TaskType;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of {@link TaskType} variable substitution and execution, for
+ * task types with varying numbers of lines, variables per line and colour
+ * codes.
+ * 
+ * Only the public API of {@link TaskType} is measured. Each benchmark
+ * processes every line of the task type once, so run with {@code -prof gc} to
+ * see the allocation per task execution.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TaskTypeBenchmark {
+    /**
+     * The number of console commands in the task type.
+     */
+    @Param({ "1", "5" })
+    public int lines;
+
+    /**
+     * The number of variable references in each line.
+     */
+    @Param({ "0", "2", "6" })
+    public int variables;
+
+    /**
+     * True if each line contains alternate colour codes.
+     */
+    @Param({ "false", "true" })
+    public boolean colours;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the task type and create a task for an online player.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        // TaskType.execute() takes the current time from the plugin's
+        // scheduler, so provide a plugin instance without enabling it.
+        StubServer server = StubServer.get();
+        if (OddJob.PLUGIN == null) {
+            File dataFolder = new File(System.getProperty("java.io.tmpdir"), "oddjob-benchmark");
+            OddJob.PLUGIN = new OddJob(new JavaPluginLoader(Bukkit.getServer()),
+                                       new PluginDescriptionFile("OddJob", "benchmark", OddJob.class.getName()),
+                                       dataFolder, new File(dataFolder, "OddJob.jar")) {
+            };
+        }
+
+        _lines = new ArrayList<>();
+        for (int i = 0; i < lines; ++i) {
+            _lines.add(buildLine(i));
+        }
+
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("bench.online", true);
+        config.set("bench.console-commands", _lines);
+        ConfigurationSection section = config.getConfigurationSection("bench");
+        _taskType = new TaskType();
+        _taskType.load(section, Logger.getLogger("TaskTypeBenchmark"));
+
+        Player player = StubPlayers.create(UUID.randomUUID(), "BenchPlayer");
+        server.setOnline(player, true);
+        _task = new BenchTask("vote-reward-BenchPlayer-pmc", _taskType, player, System.currentTimeMillis());
+        _playerName = _task.getPlayerName();
+        _replacements = TaskType.getReplacements(_task, _playerName, System.currentTimeMillis());
+        _replacementArray = new String[_replacements.size() * 2];
+        int i = 0;
+        for (String variable : VARIABLES) {
+            _replacementArray[i++] = variable;
+            _replacementArray[i++] = _replacements.get(variable);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Build the map of variable values for the task, as is done once per
+     * task execution.
+     * 
+     * @return the map, consumed by JMH.
+     */
+    @Benchmark
+    public HashMap<String, String> getReplacements() {
+        return TaskType.getReplacements(_task, _playerName, System.currentTimeMillis());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replace variables in every line using the map of variable values.
+     * 
+     * @param blackhole consumes results.
+     */
+    @Benchmark
+    public void replaceMap(Blackhole blackhole) {
+        for (int i = 0; i < _lines.size(); ++i) {
+            blackhole.consume(TaskType.replace(_lines.get(i), _replacements));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replace variables in every line using an array of alternating variable
+     * names and values.
+     * 
+     * @param blackhole consumes results.
+     */
+    @Benchmark
+    public void replaceArray(Blackhole blackhole) {
+        for (int i = 0; i < _lines.size(); ++i) {
+            blackhole.consume(TaskType.replace(_lines.get(i), _replacementArray));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Highlight the variables in every line, as for {@code /task describe}.
+     * 
+     * @param blackhole consumes results.
+     */
+    @Benchmark
+    public void replaceDescription(Blackhole blackhole) {
+        for (int i = 0; i < _lines.size(); ++i) {
+            blackhole.consume(TaskType.replaceDescription(_lines.get(i)));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Prepare every line as a command, as {@link TaskType#execute(Task)}
+     * does: drop the leading '/' and replace variables.
+     * 
+     * @param blackhole consumes results.
+     */
+    @Benchmark
+    public void prepareCommand(Blackhole blackhole) {
+        for (int i = 0; i < _lines.size(); ++i) {
+            blackhole.consume(TaskType.prepareCommand(_lines.get(i), _replacements));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Prepare every line as a message, as {@link TaskType#execute(Task)}
+     * does: replace variables and translate colour codes.
+     * 
+     * @param blackhole consumes results.
+     */
+    @Benchmark
+    public void prepareMessage(Blackhole blackhole) {
+        for (int i = 0; i < _lines.size(); ++i) {
+            blackhole.consume(TaskType.prepareMessage(_lines.get(i), _replacements));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Execute the task, dispatching every line as a console command to the
+     * stub server.
+     */
+    @Benchmark
+    public void execute() {
+        _taskType.execute(_task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Build one line of the task type.
+     * 
+     * @param line the line number.
+     * @return the line.
+     */
+    private String buildLine(int line) {
+        StringBuilder s = new StringBuilder("/say ");
+        if (colours) {
+            s.append("&6");
+        }
+        s.append("Thanks ");
+        for (int v = 0; v < variables; ++v) {
+            if (colours) {
+                s.append((v % 2 == 0) ? "&e" : "&a");
+            }
+            s.append('%').append(VARIABLES[(line + v) % VARIABLES.length]).append("% ");
+        }
+        if (colours) {
+            s.append("&f");
+        }
+        return s.append("for voting!").toString();
+    }
+
+    /**
+     * The names of the variables that can be replaced.
+     */
+    private static final String[] VARIABLES = { "player", "uuid", "id", "type", "seconds", "ms", "now-seconds", "now-ms" };
+
+    /**
+     * The lines of the task type.
+     */
+    private List<String> _lines;
+
+    /**
+     * The task type.
+     */
+    private TaskType _taskType;
+
+    /**
+     * The task.
+     */
+    private Task _task;
+
+    /**
+     * The name of the task's target player.
+     */
+    private String _playerName;
+
+    /**
+     * The variable values of the task.
+     */
+    private HashMap<String, String> _replacements;
+
+    /**
+     * Alternating variable names and values of the task.
+     */
+    private String[] _replacementArray;
+} // class TaskTypeBenchmark
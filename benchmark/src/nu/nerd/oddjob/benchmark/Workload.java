@@ -0,0 +1,148 @@
+package nu.nerd.oddjob.benchmark;
+
+import java.util.Random;
+import java.util.UUID;
+
+import org.bukkit.entity.Player;
+
+import nu.nerd.oddjob.TaskScheduler;
+
+// ----------------------------------------------------------------------------
+/**
+ * Generates a reproducible set of tasks resembling those scheduled by vote
+ * listeners on a busy server.
+ * 
+ * Each player has one task of each type per vote site, with IDs of the form
+ * {@code <type>-<player>-<site>}. Most tasks fall due uniformly over the next
+ * 24 hours; the rest fall due within the next hour. Half of the task types
+ * require the player to be online.
+ */
+public class Workload {
+    /**
+     * The vote sites, used in task IDs.
+     */
+    public static final String[] SITES = { "pmc", "mcsl", "mcmp", "tmc" };
+
+    /**
+     * The task types; tasks of the first require the player to be online.
+     */
+    public static final StubTaskType[] TASK_TYPES = {
+        new StubTaskType("vote-reward", true),
+        new StubTaskType("unvote", false)
+    };
+
+    /**
+     * Milliseconds in an hour.
+     */
+    public static final long HOUR = 60 * 60 * 1000L;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     * 
+     * @param size the number of tasks.
+     * @param now the current time, in milliseconds since Epoch.
+     * @param seed the random number seed.
+     */
+    public Workload(int size, long now, long seed) {
+        _now = now;
+        _random = new Random(seed);
+        int tasksPerPlayer = SITES.length * TASK_TYPES.length;
+        _players = new Player[(size + tasksPerPlayer - 1) / tasksPerPlayer];
+        for (int i = 0; i < _players.length; ++i) {
+            _players[i] = StubPlayers.create(new UUID(_random.nextLong(), _random.nextLong()), "Player" + i);
+        }
+
+        _tasks = new BenchTask[size];
+        for (int i = 0; i < size; ++i) {
+            Player player = _players[i / tasksPerPlayer];
+            StubTaskType taskType = TASK_TYPES[i % TASK_TYPES.length];
+            String site = SITES[(i / TASK_TYPES.length) % SITES.length];
+            _tasks[i] = new BenchTask(taskType.getId() + "-" + player.getName() + "-" + site,
+                                      taskType, player, randomTime());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a random future task time from the workload's distribution.
+     * 
+     * @return the time in milliseconds since Epoch.
+     */
+    public long randomTime() {
+        long range = (_random.nextInt(5) == 0) ? HOUR : 24 * HOUR;
+        return _now + 60_000 + (long) (_random.nextDouble() * range);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule all of the tasks.
+     * 
+     * @param scheduler the scheduler.
+     */
+    public void scheduleAll(TaskScheduler scheduler) {
+        for (BenchTask task : _tasks) {
+            scheduler.scheduleTask(task);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the random number generator, for further reproducible choices.
+     * 
+     * @return the random number generator.
+     */
+    public Random getRandom() {
+        return _random;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the current time used to generate task times.
+     * 
+     * @return the time in milliseconds since Epoch.
+     */
+    public long getNow() {
+        return _now;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the players.
+     * 
+     * @return the players.
+     */
+    public Player[] getPlayers() {
+        return _players;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the tasks.
+     * 
+     * @return the tasks.
+     */
+    public BenchTask[] getTasks() {
+        return _tasks;
+    }
+
+    /**
+     * The current time.
+     */
+    private final long _now;
+
+    /**
+     * The random number generator.
+     */
+    private final Random _random;
+
+    /**
+     * The players.
+     */
+    private final Player[] _players;
+
+    /**
+     * The tasks.
+     */
+    private final BenchTask[] _tasks;
+} // class Workload
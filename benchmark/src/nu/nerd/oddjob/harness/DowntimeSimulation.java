@@ -0,0 +1,174 @@
+package nu.nerd.oddjob.harness;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.bukkit.OfflinePlayer;
+
+import nu.nerd.oddjob.OddJob;
+import nu.nerd.oddjob.SimulatedClock;
+import nu.nerd.oddjob.Task;
+import nu.nerd.oddjob.TaskScheduler;
+import nu.nerd.oddjob.metrics.Histogram;
+import nu.nerd.oddjob.metrics.SchedulerMetrics;
+
+// ----------------------------------------------------------------------------
+/**
+ * Fast-forwards OddJob through weeks of scheduling and a long server downtime
+ * in the {@link HarnessServer}, using a {@link SimulatedClock}.
+ * 
+ * The simulation schedules tasks due uniformly over a number of days. It then
+ * runs the server for the first part of that period, advancing the clock by a
+ * fixed step each tick, so that a day passes in a fraction of a second. Next,
+ * it stops the plugin, saving the remaining tasks, skips the clock to the end
+ * of the period to simulate the downtime, and starts the plugin again, which
+ * executes every task that fell due while the server was down. The queue run
+ * time and lateness of each phase are reported.
+ * 
+ * Usage:
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar nu.nerd.oddjob.harness.DowntimeSimulation
+ *     [--tasks N] [--days D] [--uptime-days U] [--step-seconds S] [--data DIR]
+ * </pre>
+ */
+public class DowntimeSimulation {
+    // ------------------------------------------------------------------------
+    /**
+     * Program entry point.
+     * 
+     * @param args command line arguments.
+     * @throws Exception on error.
+     */
+    public static void main(String[] args) throws Exception {
+        DowntimeSimulation simulation = new DowntimeSimulation();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+            case "--tasks":
+                simulation._tasks = Integer.parseInt(args[i + 1]);
+                break;
+            case "--days":
+                simulation._days = Double.parseDouble(args[i + 1]);
+                break;
+            case "--uptime-days":
+                simulation._uptimeDays = Double.parseDouble(args[i + 1]);
+                break;
+            case "--step-seconds":
+                simulation._stepSeconds = Integer.parseInt(args[i + 1]);
+                break;
+            case "--data":
+                simulation._dataFolder = new File(args[i + 1]);
+                break;
+            default:
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(1);
+            }
+        }
+        simulation.run();
+        System.exit(0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run the simulation.
+     * 
+     * @throws Exception on error.
+     */
+    public void run() throws Exception {
+        if (_dataFolder == null) {
+            _dataFolder = Files.createTempDirectory("oddjob-downtime").toFile();
+        }
+        new File(_dataFolder, "tasks.yml").delete();
+        SimulatedClock clock = new SimulatedClock(System.currentTimeMillis());
+        HarnessServer server = HarnessServer.get();
+        server.setClock(clock);
+        OddJob plugin = server.startPlugin(_dataFolder, LoadSimulation.TASK_TYPES);
+        TaskScheduler scheduler = plugin.getTaskScheduler();
+        SchedulerMetrics metrics = OddJob.METRICS;
+
+        // Tasks that do not require their player to be online, so that all
+        // of them run when they fall due.
+        Random random = new Random(1);
+        int playerCount = Math.max(1, _tasks / 4);
+        long start = clock.millis();
+        long periodMillis = (long) (_days * DAY_MILLIS);
+        ArrayList<Task> tasks = new ArrayList<>(_tasks);
+        for (int i = 0; i < _tasks; ++i) {
+            OfflinePlayer player = server.getOrCreatePlayer("Player" + random.nextInt(playerCount));
+            tasks.add(new Task("unvote-" + i, "unvote", player, start + 1 + (long) (random.nextDouble() * periodMillis)));
+        }
+        long nanos = System.nanoTime();
+        scheduler.scheduleAll(tasks);
+        LoadSimulation.reportRate("Schedule", _tasks, System.nanoTime() - nanos);
+        tasks = null;
+
+        // Uptime: one clock step per tick.
+        long uptimeMillis = (long) (Math.min(_uptimeDays, _days) * DAY_MILLIS);
+        long stepMillis = _stepSeconds * 1000L;
+        Histogram drainBefore = metrics.getDrainMicros();
+        Histogram latenessBefore = metrics.getLateness();
+        long executedBefore = metrics.getTasksExecuted();
+        long ticks = 0;
+        nanos = System.nanoTime();
+        while (clock.millis() - start < uptimeMillis) {
+            clock.advance(stepMillis);
+            server.tick();
+            ++ticks;
+        }
+        long uptimeNanos = System.nanoTime() - nanos;
+        LoadSimulation.report("Uptime", String.format("%.1f days in %d ticks of %d s, %d ms wall time",
+                                                      uptimeMillis / (double) DAY_MILLIS, ticks, _stepSeconds,
+                                                      uptimeNanos / 1_000_000));
+        LoadSimulation.report("Executed", Long.toString(metrics.getTasksExecuted() - executedBefore));
+        LoadSimulation.reportHistogram("Queue run time", metrics.getDrainMicros().since(drainBefore), "us");
+        LoadSimulation.reportHistogram("Lateness", metrics.getLateness().since(latenessBefore), "ms");
+
+        // Downtime: save, skip to the end of the period and restart.
+        int remaining = scheduler.getTaskCount();
+        server.stopPlugin();
+        clock.setMillis(start + periodMillis + 1);
+        latenessBefore = metrics.getLateness();
+        executedBefore = metrics.getTasksExecuted();
+        nanos = System.nanoTime();
+        plugin = server.startPlugin(_dataFolder, LoadSimulation.TASK_TYPES);
+        long restartNanos = System.nanoTime() - nanos;
+        LoadSimulation.report("Downtime", String.format("%.1f days, %d tasks saved",
+                                                        (periodMillis - uptimeMillis) / (double) DAY_MILLIS, remaining));
+        LoadSimulation.reportRate("Restart and catch up", (int) (metrics.getTasksExecuted() - executedBefore), restartNanos);
+        LoadSimulation.reportHistogram("Lateness", metrics.getLateness().since(latenessBefore), "ms");
+        LoadSimulation.report("Tasks left", Integer.toString(plugin.getTaskScheduler().getTaskCount()));
+        server.stopPlugin();
+    }
+
+    /**
+     * The number of milliseconds in a day.
+     */
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * The number of tasks.
+     */
+    private int _tasks = 100_000;
+
+    /**
+     * Tasks fall due uniformly over this many days.
+     */
+    private double _days = 30;
+
+    /**
+     * The number of days the server runs before going down.
+     */
+    private double _uptimeDays = 7;
+
+    /**
+     * The number of simulated seconds per tick while the server is up.
+     */
+    private int _stepSeconds = 60;
+
+    /**
+     * The plugin data folder.
+     */
+    private File _dataFolder;
+} // class DowntimeSimulation
@@ -0,0 +1,194 @@
+package nu.nerd.oddjob.harness;
+
+import org.bukkit.OfflinePlayer;
+
+import net.milkbowl.vault.permission.Permission;
+
+// ----------------------------------------------------------------------------
+/**
+ * A Vault {@link Permission} provider that grants every player permission
+ * check, and has no groups.
+ */
+public class HarnessPermission extends Permission {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of permission checks made of players.
+     * 
+     * @return the number of checks.
+     */
+    public long getCheckCount() {
+        return _checks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#playerHas(java.lang.String,
+     *      org.bukkit.OfflinePlayer, java.lang.String)
+     */
+    @Override
+    public boolean playerHas(String world, OfflinePlayer player, String permission) {
+        ++_checks;
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#getName()
+     */
+    @Override
+    public String getName() {
+        return "Harness";
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#isEnabled()
+     */
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#hasSuperPermsCompat()
+     */
+    @Override
+    public boolean hasSuperPermsCompat() {
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#playerHas(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean playerHas(String world, String player, String permission) {
+        ++_checks;
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#playerAdd(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean playerAdd(String world, String player, String permission) {
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#playerRemove(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean playerRemove(String world, String player, String permission) {
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#groupHas(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean groupHas(String world, String group, String permission) {
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#groupAdd(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean groupAdd(String world, String group, String permission) {
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#groupRemove(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean groupRemove(String world, String group, String permission) {
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#playerInGroup(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean playerInGroup(String world, String player, String group) {
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#playerAddGroup(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean playerAddGroup(String world, String player, String group) {
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#playerRemoveGroup(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean playerRemoveGroup(String world, String player, String group) {
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#getPlayerGroups(java.lang.String,
+     *      java.lang.String)
+     */
+    @Override
+    public String[] getPlayerGroups(String world, String player) {
+        return new String[0];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#getPrimaryGroup(java.lang.String,
+     *      java.lang.String)
+     */
+    @Override
+    public String getPrimaryGroup(String world, String player) {
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#getGroups()
+     */
+    @Override
+    public String[] getGroups() {
+        return new String[0];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see net.milkbowl.vault.permission.Permission#hasGroupSupport()
+     */
+    @Override
+    public boolean hasGroupSupport() {
+        return false;
+    }
+
+    /**
+     * The number of permission checks.
+     */
+    private long _checks;
+} // class HarnessPermission
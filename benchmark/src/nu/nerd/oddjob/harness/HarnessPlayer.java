@@ -0,0 +1,122 @@
+package nu.nerd.oddjob.harness;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+import org.bukkit.entity.Player;
+
+import nu.nerd.oddjob.benchmark.StubPlayers;
+
+// ----------------------------------------------------------------------------
+/**
+ * A simulated player, which serves as both the {@link Player} and the
+ * {@link org.bukkit.OfflinePlayer}.
+ * 
+ * Simulated players have every permission, count the messages sent to them
+ * and run their commands through the {@link HarnessServer}.
+ */
+public class HarnessPlayer implements InvocationHandler {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     * 
+     * @param server the server.
+     * @param uuid the player's UUID.
+     * @param name the player's name.
+     */
+    HarnessPlayer(HarnessServer server, UUID uuid, String name) {
+        _server = server;
+        _uuid = uuid;
+        _name = name;
+        _proxy = (Player) Proxy.newProxyInstance(HarnessPlayer.class.getClassLoader(),
+                                                 new Class<?>[] { Player.class }, this);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link Player} proxy.
+     * 
+     * @return the player.
+     */
+    public Player getProxy() {
+        return _proxy;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of messages sent to this player.
+     * 
+     * @return the number of messages.
+     */
+    public long getMessageCount() {
+        return _messages;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+     *      java.lang.reflect.Method, java.lang.Object[])
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "getUniqueId":
+            return _uuid;
+        case "getName":
+        case "getDisplayName":
+        case "getPlayerListName":
+        case "toString":
+            return _name;
+        case "isOnline":
+            return _server.isOnline(_uuid);
+        case "getPlayer":
+            return _server.isOnline(_uuid) ? _proxy : null;
+        case "hasPlayedBefore":
+        case "hasPermission":
+        case "isPermissionSet":
+        case "isOp":
+            return true;
+        case "sendMessage":
+        case "sendRawMessage":
+            ++_messages;
+            return null;
+        case "performCommand":
+            return _server.dispatchCommand(_proxy, (String) args[0]);
+        case "getServer":
+            return _server.getProxy();
+        case "hashCode":
+            return _uuid.hashCode();
+        case "equals":
+            return proxy == args[0];
+        default:
+            return StubPlayers.defaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     * The server.
+     */
+    private final HarnessServer _server;
+
+    /**
+     * The player's UUID.
+     */
+    private final UUID _uuid;
+
+    /**
+     * The player's name.
+     */
+    private final String _name;
+
+    /**
+     * The player proxy.
+     */
+    private final Player _proxy;
+
+    /**
+     * The number of messages sent to the player.
+     */
+    private long _messages;
+} // class HarnessPlayer
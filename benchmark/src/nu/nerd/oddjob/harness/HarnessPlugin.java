@@ -0,0 +1,37 @@
+package nu.nerd.oddjob.harness;
+
+import java.io.File;
+
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import nu.nerd.oddjob.OddJob;
+
+// ----------------------------------------------------------------------------
+/**
+ * An {@link OddJob} instance created outside of a server's plugin loader, with
+ * enable and disable exposed to the harness.
+ */
+public class HarnessPlugin extends OddJob {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     * 
+     * @param loader the plugin loader.
+     * @param dataFolder the plugin's data folder.
+     */
+    HarnessPlugin(JavaPluginLoader loader, File dataFolder) {
+        super(loader, new PluginDescriptionFile("OddJob", "harness", OddJob.class.getName()),
+              dataFolder, new File(dataFolder, "OddJob.jar"));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Enable or disable the plugin.
+     * 
+     * @param enabled true to enable.
+     */
+    void enable(boolean enabled) {
+        setEnabled(enabled);
+    }
+} // class HarnessPlugin
@@ -0,0 +1,269 @@
+package nu.nerd.oddjob.harness;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import nu.nerd.oddjob.benchmark.StubPlayers;
+
+// ----------------------------------------------------------------------------
+/**
+ * A {@link BukkitScheduler} whose synchronous tasks run when the harness
+ * advances the tick count, and whose asynchronous tasks run on a thread pool.
+ * 
+ * Synchronous tasks may be scheduled from any thread, as on a real server.
+ */
+public class HarnessScheduler implements InvocationHandler {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link BukkitScheduler} proxy.
+     * 
+     * @return the scheduler.
+     */
+    public BukkitScheduler getProxy() {
+        return _proxy;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the current tick number.
+     * 
+     * @return the number of ticks run.
+     */
+    public synchronized long getTick() {
+        return _tick;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Advance by one tick, running all synchronous tasks that are due.
+     * 
+     * @return the number of tasks run.
+     */
+    public int tick() {
+        ArrayList<ScheduledTask> due = new ArrayList<>();
+        synchronized (this) {
+            ++_tick;
+            while (!_queue.isEmpty() && _queue.peek()._tick <= _tick) {
+                due.add(_queue.poll());
+            }
+        }
+        for (ScheduledTask task : due) {
+            if (!task._cancelled) {
+                task._runnable.run();
+            }
+        }
+        return due.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Wait for all asynchronous tasks submitted so far to finish.
+     */
+    public void awaitAsync() {
+        ArrayList<Future<?>> futures;
+        synchronized (this) {
+            futures = new ArrayList<>(_async);
+            _async.clear();
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                ex.getCause().printStackTrace();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard all scheduled tasks.
+     */
+    public synchronized void reset() {
+        _queue.clear();
+        _tick = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+     *      java.lang.reflect.Method, java.lang.Object[])
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "runTask":
+            return schedule((Runnable) args[1], 1);
+        case "runTaskLater":
+            return schedule((Runnable) args[1], Math.max(1, (Long) args[2]));
+        case "runTaskAsynchronously":
+            submitAsync((Runnable) args[1]);
+            return null;
+        case "cancelTasks":
+            cancelTasks((Plugin) args[0]);
+            return null;
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "equals":
+            return proxy == args[0];
+        default:
+            return StubPlayers.defaultValue(method.getReturnType());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule a synchronous task.
+     * 
+     * @param runnable the task.
+     * @param delay the delay in ticks.
+     * @return the {@link BukkitTask} handle.
+     */
+    private synchronized BukkitTask schedule(Runnable runnable, long delay) {
+        ScheduledTask task = new ScheduledTask(++_nextId, _tick + delay, runnable);
+        _queue.add(task);
+        return task._handle;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Submit an asynchronous task.
+     * 
+     * @param runnable the task.
+     */
+    private synchronized void submitAsync(Runnable runnable) {
+        _async.add(_pool.submit(runnable));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel all synchronous tasks; there is only one plugin.
+     * 
+     * @param plugin the plugin.
+     */
+    private synchronized void cancelTasks(Plugin plugin) {
+        for (Iterator<ScheduledTask> it = _queue.iterator(); it.hasNext();) {
+            it.next()._cancelled = true;
+            it.remove();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A scheduled synchronous task.
+     */
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+        /**
+         * Constructor.
+         * 
+         * @param id the task ID, in order of scheduling.
+         * @param tick the tick when the task runs.
+         * @param runnable the task.
+         */
+        ScheduledTask(int id, long tick, Runnable runnable) {
+            _id = id;
+            _tick = tick;
+            _runnable = runnable;
+            _handle = (BukkitTask) Proxy.newProxyInstance(HarnessScheduler.class.getClassLoader(),
+                                                          new Class<?>[] { BukkitTask.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getTaskId":
+                        return _id;
+                    case "isSync":
+                        return true;
+                    case "isCancelled":
+                        return _cancelled;
+                    case "cancel":
+                        _cancelled = true;
+                        return null;
+                    default:
+                        return StubPlayers.defaultValue(method.getReturnType());
+                    }
+                });
+        }
+
+        /**
+         * @see java.lang.Comparable#compareTo(java.lang.Object)
+         */
+        @Override
+        public int compareTo(ScheduledTask other) {
+            int cmp = Long.compare(_tick, other._tick);
+            return (cmp != 0) ? cmp : Integer.compare(_id, other._id);
+        }
+
+        /**
+         * The task ID.
+         */
+        final int _id;
+
+        /**
+         * The tick when the task runs.
+         */
+        final long _tick;
+
+        /**
+         * The task.
+         */
+        final Runnable _runnable;
+
+        /**
+         * The handle returned to the caller.
+         */
+        final BukkitTask _handle;
+
+        /**
+         * True if cancelled.
+         */
+        volatile boolean _cancelled;
+    }
+
+    /**
+     * The scheduler proxy.
+     */
+    private final BukkitScheduler _proxy = (BukkitScheduler) Proxy.newProxyInstance(
+        HarnessScheduler.class.getClassLoader(), new Class<?>[] { BukkitScheduler.class }, this);
+
+    /**
+     * Pending synchronous tasks in order of execution.
+     */
+    private final PriorityQueue<ScheduledTask> _queue = new PriorityQueue<>();
+
+    /**
+     * Runs asynchronous tasks.
+     */
+    private final ExecutorService _pool = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "Harness Async");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Asynchronous tasks that have not been waited for.
+     */
+    private final ArrayList<Future<?>> _async = new ArrayList<>();
+
+    /**
+     * The current tick.
+     */
+    private long _tick;
+
+    /**
+     * The ID of the most recently scheduled task.
+     */
+    private int _nextId;
+} // class HarnessScheduler
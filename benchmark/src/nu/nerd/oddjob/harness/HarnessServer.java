@@ -0,0 +1,677 @@
+package nu.nerd.oddjob.harness;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.plugin.ServicePriority;
+import org.bukkit.plugin.ServicesManager;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import net.milkbowl.vault.permission.Permission;
+import nu.nerd.oddjob.benchmark.StubPlayers;
+
+// ----------------------------------------------------------------------------
+/**
+ * A headless stand-in for a Bukkit server that runs OddJob end to end in a
+ * plain JVM.
+ * 
+ * The harness implements the parts of the {@link Server} that OddJob uses:
+ * players and offline players, a tick-driven {@link HarnessScheduler}, plugin
+ * commands, console command dispatch, broadcasts, the services manager with a
+ * Vault {@link Permission} provider, and event delivery to listeners.
+ * Commands that are not OddJob's are counted rather than executed.
+ * 
+ * Bukkit allows the server to be set only once per JVM, so the harness is a
+ * singleton; the plugin can be started and stopped repeatedly.
+ */
+public class HarnessServer implements InvocationHandler {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the harness, installing it as the Bukkit server on first use.
+     * 
+     * @return the harness.
+     */
+    public static synchronized HarnessServer get() {
+        if (_instance == null) {
+            _instance = new HarnessServer();
+            Bukkit.setServer(_instance._proxy);
+        }
+        return _instance;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create and enable a new OddJob instance, discarding all players and
+     * scheduled tasks from any previous instance.
+     * 
+     * If the data folder contains no {@code config.yml}, one is written
+     * defining the specified task types.
+     * 
+     * @param dataFolder the plugin's data folder.
+     * @param taskTypesYaml YAML defining the task types, indented to appear
+     *        under the {@code tasks} section, or null.
+     * @return the plugin.
+     * @throws Exception if the configuration could not be written.
+     */
+    public synchronized HarnessPlugin startPlugin(File dataFolder, String taskTypesYaml) throws Exception {
+        stopPlugin();
+        _mainThread = Thread.currentThread();
+        _scheduler.reset();
+        _players.clear();
+        _playersByName.clear();
+        _online.clear();
+        _commands.clear();
+        _listeners.clear();
+        _services.clear();
+        _gameCommands = 0;
+        _broadcasts = 0;
+        _consoleMessages = 0;
+
+        dataFolder.mkdirs();
+        File config = new File(dataFolder, "config.yml");
+        if (taskTypesYaml != null && !config.exists()) {
+            java.nio.file.Files.write(config.toPath(), ("tasks:\n" + taskTypesYaml).getBytes(StandardCharsets.UTF_8));
+        }
+
+        _plugin = new HarnessPlugin(new JavaPluginLoader(_proxy), dataFolder);
+        _plugin.getTaskScheduler().setClock(_clock);
+        registerService(Permission.class, _permission, _plugin);
+        _plugin.enable(true);
+        return _plugin;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Disable the plugin, if started.
+     */
+    public synchronized void stopPlugin() {
+        if (_plugin != null) {
+            _plugin.enable(false);
+            _plugin = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the clock installed in the task scheduler of plugins started
+     * subsequently.
+     * 
+     * The system clock is used by default. Use a
+     * {@link nu.nerd.oddjob.SimulatedClock} to skip time ahead, including
+     * across a restart of the plugin.
+     * 
+     * @param clock the clock.
+     */
+    public void setClock(Clock clock) {
+        _clock = clock;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the clock installed in the task scheduler of started plugins.
+     * 
+     * @return the clock.
+     */
+    public Clock getClock() {
+        return _clock;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the plugin, or null if not started.
+     * 
+     * @return the plugin.
+     */
+    public HarnessPlugin getPlugin() {
+        return _plugin;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link Server} proxy.
+     * 
+     * @return the server.
+     */
+    public Server getProxy() {
+        return _proxy;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the scheduler.
+     * 
+     * @return the scheduler.
+     */
+    public HarnessScheduler getScheduler() {
+        return _scheduler;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Vault permission provider.
+     * 
+     * @return the permission provider.
+     */
+    public HarnessPermission getPermission() {
+        return _permission;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the console command sender.
+     * 
+     * @return the console.
+     */
+    public ConsoleCommandSender getConsole() {
+        return _console;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the player with the specified name, creating an offline player
+     * with a random UUID if there is none.
+     * 
+     * @param name the name.
+     * @return the player.
+     */
+    public Player getOrCreatePlayer(String name) {
+        Player player = _playersByName.get(name.toLowerCase(Locale.ROOT));
+        return (player != null) ? player : createPlayer(UUID.randomUUID(), name);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Bring a player online and deliver a {@link PlayerJoinEvent}.
+     * 
+     * @param player the player.
+     */
+    public void join(Player player) {
+        _online.put(player.getUniqueId(), player);
+        callEvent(new PlayerJoinEvent(player, null));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Deliver a {@link PlayerQuitEvent} and take a player offline.
+     * 
+     * @param player the player.
+     */
+    public void quit(Player player) {
+        callEvent(new PlayerQuitEvent(player, null));
+        _online.remove(player.getUniqueId());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the player with the specified UUID is online.
+     * 
+     * @param uuid the UUID.
+     * @return true if online.
+     */
+    public boolean isOnline(UUID uuid) {
+        return _online.containsKey(uuid);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of online players.
+     * 
+     * @return the number of online players.
+     */
+    public int getOnlineCount() {
+        return _online.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Advance the scheduler by one tick.
+     * 
+     * @return the number of scheduled tasks run.
+     */
+    public int tick() {
+        return _scheduler.tick();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Dispatch a command line.
+     * 
+     * Commands registered by the plugin are executed; any other command is
+     * only counted.
+     * 
+     * @param sender the command sender.
+     * @param commandLine the command line, without a leading slash.
+     * @return true if the command was handled.
+     */
+    public boolean dispatchCommand(CommandSender sender, String commandLine) {
+        String[] parts = commandLine.split(" ");
+        PluginCommand command = _commands.get(parts[0].toLowerCase(Locale.ROOT));
+        if (command == null) {
+            ++_gameCommands;
+            return true;
+        }
+        return command.execute(sender, parts[0], Arrays.copyOfRange(parts, 1, parts.length));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Deliver an event to all registered listeners.
+     * 
+     * Handlers are called in the order they were registered, ignoring
+     * priority.
+     * 
+     * @param event the event.
+     */
+    public void callEvent(Event event) {
+        for (Map.Entry<Listener, List<Method>> entry : _listeners.entrySet()) {
+            for (Method method : entry.getValue()) {
+                if (method.getParameterTypes()[0].isInstance(event)) {
+                    try {
+                        method.invoke(entry.getKey(), event);
+                    } catch (InvocationTargetException ex) {
+                        ex.getCause().printStackTrace();
+                    } catch (IllegalAccessException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of commands dispatched that were not OddJob's.
+     * 
+     * @return the number of commands.
+     */
+    public long getGameCommandCount() {
+        return _gameCommands;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of broadcasts.
+     * 
+     * @return the number of broadcasts.
+     */
+    public long getBroadcastCount() {
+        return _broadcasts;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of messages sent to the console.
+     * 
+     * @return the number of messages.
+     */
+    public long getConsoleMessageCount() {
+        return _consoleMessages;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+     *      java.lang.reflect.Method, java.lang.Object[])
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "getName":
+        case "getVersion":
+        case "getBukkitVersion":
+            return "Harness";
+        case "getLogger":
+            return _logger;
+        case "getScheduler":
+            return _scheduler.getProxy();
+        case "getServicesManager":
+            return _servicesManager;
+        case "getPluginManager":
+            return _pluginManager;
+        case "getPluginCommand":
+            return getPluginCommand((String) args[0]);
+        case "getConsoleSender":
+            return _console;
+        case "dispatchCommand":
+            return dispatchCommand((CommandSender) args[0], (String) args[1]);
+        case "broadcast":
+        case "broadcastMessage":
+            ++_broadcasts;
+            return _online.size();
+        case "getOnlinePlayers":
+            return Collections.unmodifiableCollection(_online.values());
+        case "getPlayer":
+            return (args[0] instanceof UUID) ? _online.get(args[0]) : getOnlinePlayer((String) args[0]);
+        case "getPlayerExact":
+            return getOnlinePlayer((String) args[0]);
+        case "getOfflinePlayer":
+            return (args[0] instanceof UUID) ? getOfflinePlayer((UUID) args[0]) : getOrCreatePlayer((String) args[0]);
+        case "isPrimaryThread":
+            return Thread.currentThread() == _mainThread;
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "equals":
+            return proxy == args[0];
+        case "toString":
+            return "HarnessServer";
+        default:
+            return StubPlayers.defaultValue(method.getReturnType());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     */
+    private HarnessServer() {
+        _proxy = (Server) Proxy.newProxyInstance(HarnessServer.class.getClassLoader(),
+                                                 new Class<?>[] { Server.class }, this);
+        _console = (ConsoleCommandSender) Proxy.newProxyInstance(
+            HarnessServer.class.getClassLoader(), new Class<?>[] { ConsoleCommandSender.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "getName":
+                case "toString":
+                    return "CONSOLE";
+                case "hasPermission":
+                case "isPermissionSet":
+                case "isOp":
+                    return true;
+                case "sendMessage":
+                case "sendRawMessage":
+                    ++_consoleMessages;
+                    return null;
+                case "getServer":
+                    return _proxy;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return StubPlayers.defaultValue(method.getReturnType());
+                }
+            });
+        _servicesManager = (ServicesManager) Proxy.newProxyInstance(
+            HarnessServer.class.getClassLoader(), new Class<?>[] { ServicesManager.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "register":
+                    registerService((Class<?>) args[0], args[1], (Plugin) args[2]);
+                    return null;
+                case "getRegistration":
+                    return _services.get(args[0]);
+                case "load": {
+                    RegisteredServiceProvider<?> provider = _services.get(args[0]);
+                    return (provider != null) ? provider.getProvider() : null;
+                }
+                case "unregisterAll":
+                    for (Iterator<RegisteredServiceProvider<?>> it = _services.values().iterator(); it.hasNext();) {
+                        if (it.next().getPlugin() == args[0]) {
+                            it.remove();
+                        }
+                    }
+                    return null;
+                default:
+                    return StubPlayers.defaultValue(method.getReturnType());
+                }
+            });
+        _pluginManager = (PluginManager) Proxy.newProxyInstance(
+            HarnessServer.class.getClassLoader(), new Class<?>[] { PluginManager.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "registerEvents":
+                    registerEvents((Listener) args[0]);
+                    return null;
+                case "callEvent":
+                    callEvent((Event) args[0]);
+                    return null;
+                case "getPlugin":
+                    return (_plugin != null && _plugin.getName().equals(args[0])) ? _plugin : null;
+                case "isPluginEnabled":
+                    return _plugin != null && _plugin.isEnabled();
+                default:
+                    return StubPlayers.defaultValue(method.getReturnType());
+                }
+            });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Register a service provider.
+     * 
+     * @param service the service class.
+     * @param provider the provider.
+     * @param plugin the registering plugin.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void registerService(Class<?> service, Object provider, Plugin plugin) {
+        _services.put(service, new RegisteredServiceProvider(service, provider, ServicePriority.Normal, plugin));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Register the {@link EventHandler} methods of a listener.
+     * 
+     * @param listener the listener.
+     */
+    private void registerEvents(Listener listener) {
+        ArrayList<Method> handlers = new ArrayList<>();
+        for (Class<?> c = listener.getClass(); c != null; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(EventHandler.class) && method.getParameterCount() == 1 &&
+                    Event.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                    method.setAccessible(true);
+                    handlers.add(method);
+                }
+            }
+        }
+        _listeners.put(listener, handlers);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the command with the specified name, creating it for the plugin
+     * if necessary.
+     * 
+     * @param name the command name.
+     * @return the command, or null for a namespaced name.
+     */
+    private PluginCommand getPluginCommand(String name) {
+        if (name.indexOf(':') >= 0 || _plugin == null) {
+            return null;
+        }
+        return _commands.computeIfAbsent(name, n -> new HarnessCommand(n, _plugin));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the online player with the specified name, ignoring case.
+     * 
+     * @param name the name.
+     * @return the player, or null if not online.
+     */
+    private Player getOnlinePlayer(String name) {
+        Player player = _playersByName.get(name.toLowerCase(Locale.ROOT));
+        return (player != null && isOnline(player.getUniqueId())) ? player : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the player with the specified UUID, creating an offline player
+     * with no name if there is none.
+     * 
+     * @param uuid the UUID.
+     * @return the player.
+     */
+    private Player getOfflinePlayer(UUID uuid) {
+        Player player = _players.get(uuid);
+        return (player != null) ? player : createPlayer(uuid, null);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create and remember a player.
+     * 
+     * @param uuid the UUID.
+     * @param name the name, or null if not known.
+     * @return the player.
+     */
+    private Player createPlayer(UUID uuid, String name) {
+        Player player = new HarnessPlayer(this, uuid, name).getProxy();
+        Player existing = _players.putIfAbsent(uuid, player);
+        if (existing != null) {
+            return existing;
+        }
+        if (name != null) {
+            _playersByName.put(name.toLowerCase(Locale.ROOT), player);
+        }
+        return player;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A plugin command, which can only be created by a subclass.
+     */
+    private static final class HarnessCommand extends PluginCommand {
+        /**
+         * Constructor.
+         * 
+         * @param name the command name.
+         * @param owner the owning plugin.
+         */
+        HarnessCommand(String name, Plugin owner) {
+            super(name, owner);
+        }
+    }
+
+    /**
+     * The singleton.
+     */
+    private static HarnessServer _instance;
+
+    /**
+     * The server proxy.
+     */
+    private final Server _proxy;
+
+    /**
+     * The console command sender.
+     */
+    private final ConsoleCommandSender _console;
+
+    /**
+     * The services manager.
+     */
+    private final ServicesManager _servicesManager;
+
+    /**
+     * The plugin manager.
+     */
+    private final PluginManager _pluginManager;
+
+    /**
+     * The server logger.
+     */
+    private final Logger _logger = Logger.getLogger("Harness");
+
+    /**
+     * The scheduler.
+     */
+    private final HarnessScheduler _scheduler = new HarnessScheduler();
+
+    /**
+     * The Vault permission provider.
+     */
+    private final HarnessPermission _permission = new HarnessPermission();
+
+    /**
+     * All known players by UUID.
+     */
+    private final ConcurrentHashMap<UUID, Player> _players = new ConcurrentHashMap<>();
+
+    /**
+     * All known players by lower case name.
+     */
+    private final ConcurrentHashMap<String, Player> _playersByName = new ConcurrentHashMap<>();
+
+    /**
+     * Online players by UUID.
+     */
+    private final ConcurrentHashMap<UUID, Player> _online = new ConcurrentHashMap<>();
+
+    /**
+     * Plugin commands by name.
+     */
+    private final HashMap<String, PluginCommand> _commands = new HashMap<>();
+
+    /**
+     * Event handler methods by listener.
+     */
+    private final HashMap<Listener, List<Method>> _listeners = new HashMap<>();
+
+    /**
+     * Service providers by service class.
+     */
+    private final ConcurrentHashMap<Class<?>, RegisteredServiceProvider<?>> _services = new ConcurrentHashMap<>();
+
+    /**
+     * The plugin, or null if not started.
+     */
+    private HarnessPlugin _plugin;
+
+    /**
+     * The clock installed in the plugin's task scheduler.
+     */
+    private Clock _clock = Clock.systemUTC();
+
+    /**
+     * The thread that started the plugin, which is the main thread.
+     */
+    private volatile Thread _mainThread;
+
+    /**
+     * The number of commands dispatched that were not OddJob's.
+     */
+    private long _gameCommands;
+
+    /**
+     * The number of broadcasts.
+     */
+    private long _broadcasts;
+
+    /**
+     * The number of messages sent to the console.
+     */
+    private long _consoleMessages;
+} // class HarnessServer
@@ -0,0 +1,257 @@
+package nu.nerd.oddjob.harness;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.bukkit.entity.Player;
+
+import nu.nerd.oddjob.OddJob;
+import nu.nerd.oddjob.metrics.Histogram;
+import nu.nerd.oddjob.metrics.SchedulerMetrics;
+
+// ----------------------------------------------------------------------------
+/**
+ * Runs OddJob end to end in the {@link HarnessServer} with thousands of
+ * simulated players.
+ * 
+ * The simulation schedules tasks through {@code /task run}, runs the server
+ * at 20 ticks per second while players randomly join and leave, logs in
+ * every offline player at once, and then saves and loads a large task list.
+ * It reports the scheduler metrics along with the time taken by each phase.
+ * 
+ * Usage:
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar nu.nerd.oddjob.harness.LoadSimulation
+ *     [--players N] [--tasks-per-player T] [--spread-seconds S]
+ *     [--online-fraction F] [--churn P] [--data DIR]
+ * </pre>
+ */
+public class LoadSimulation {
+    /**
+     * The task types used by the simulation: one that requires the player to
+     * be online and sends them a message, and one that does not.
+     */
+    static final String TASK_TYPES = "  reward:\n" +
+                                     "    online: true\n" +
+                                     "    console-commands:\n" +
+                                     "    - give %player% diamond 1\n" +
+                                     "    messages:\n" +
+                                     "    - '&6Thanks for voting, &e%player%&6!'\n" +
+                                     "  unvote:\n" +
+                                     "    console-commands:\n" +
+                                     "    - lp user %uuid% parent remove voter\n";
+
+    // ------------------------------------------------------------------------
+    /**
+     * Program entry point.
+     * 
+     * @param args command line arguments.
+     * @throws Exception on error.
+     */
+    public static void main(String[] args) throws Exception {
+        LoadSimulation simulation = new LoadSimulation();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+            case "--players":
+                simulation._players = Integer.parseInt(args[i + 1]);
+                break;
+            case "--tasks-per-player":
+                simulation._tasksPerPlayer = Integer.parseInt(args[i + 1]);
+                break;
+            case "--spread-seconds":
+                simulation._spreadSeconds = Integer.parseInt(args[i + 1]);
+                break;
+            case "--online-fraction":
+                simulation._onlineFraction = Double.parseDouble(args[i + 1]);
+                break;
+            case "--churn":
+                simulation._churn = Double.parseDouble(args[i + 1]);
+                break;
+            case "--data":
+                simulation._dataFolder = new File(args[i + 1]);
+                break;
+            default:
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(1);
+            }
+        }
+        simulation.run();
+        System.exit(0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run the simulation.
+     * 
+     * @throws Exception on error.
+     */
+    public void run() throws Exception {
+        if (_dataFolder == null) {
+            _dataFolder = Files.createTempDirectory("oddjob-harness").toFile();
+        }
+        HarnessServer server = HarnessServer.get();
+        OddJob plugin = server.startPlugin(_dataFolder, TASK_TYPES);
+        Random random = new Random(1);
+
+        ArrayList<Player> players = new ArrayList<>(_players);
+        for (int i = 0; i < _players; ++i) {
+            Player player = server.getOrCreatePlayer("Player" + i);
+            players.add(player);
+            if (random.nextDouble() < _onlineFraction) {
+                server.join(player);
+            }
+        }
+        report("Players", _players + " (" + server.getOnlineCount() + " online)");
+
+        // Schedule through the command, as vote listeners do.
+        long start = System.nanoTime();
+        int scheduled = 0;
+        for (Player player : players) {
+            for (int t = 0; t < _tasksPerPlayer; ++t) {
+                String type = (t % 2 == 0) ? "reward" : "unvote";
+                int delay = 1 + random.nextInt(_spreadSeconds);
+                server.dispatchCommand(server.getConsole(), "task run " + type + "-" + player.getName() + "-" + t +
+                                                            " " + type + " " + player.getName() + " +" + delay + "s");
+                ++scheduled;
+            }
+        }
+        reportRate("Schedule via /task run", scheduled, System.nanoTime() - start);
+
+        // Run at 20 TPS until every task has fallen due, with players
+        // joining and leaving.
+        long maxTickNanos = 0;
+        int ticks = (_spreadSeconds + 2) * 20;
+        long nextTick = System.nanoTime();
+        for (int tick = 0; tick < ticks; ++tick) {
+            long tickStart = System.nanoTime();
+            for (int churn = (int) Math.round(_churn * _players); churn > 0; --churn) {
+                Player player = players.get(random.nextInt(players.size()));
+                if (server.isOnline(player.getUniqueId())) {
+                    server.quit(player);
+                } else {
+                    server.join(player);
+                }
+            }
+            server.tick();
+            maxTickNanos = Math.max(maxTickNanos, System.nanoTime() - tickStart);
+            nextTick += 50_000_000L;
+            long sleep = nextTick - System.nanoTime();
+            if (sleep > 0) {
+                Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+            }
+        }
+        report("Ticks run", ticks + ", longest " + maxTickNanos / 1000 + " us");
+
+        // Login storm: every offline player joins in the same tick.
+        SchedulerMetrics metrics = OddJob.METRICS;
+        long overdueBefore = metrics.getOverdueTasksExecuted();
+        start = System.nanoTime();
+        int joined = 0;
+        for (Player player : players) {
+            if (!server.isOnline(player.getUniqueId())) {
+                server.join(player);
+                ++joined;
+            }
+        }
+        report("Login storm", joined + " players, " + (metrics.getOverdueTasksExecuted() - overdueBefore) +
+                              " overdue tasks in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        // Persistence of a large task list.
+        for (Player player : players) {
+            for (int t = 0; t < _tasksPerPlayer; ++t) {
+                server.dispatchCommand(server.getConsole(), "task run later-" + player.getName() + "-" + t +
+                                                            " unvote " + player.getName() + " +24h");
+            }
+        }
+        int taskCount = plugin.getTaskScheduler().getTaskCount();
+        start = System.nanoTime();
+        plugin.saveTasks();
+        long saveNanos = System.nanoTime() - start;
+        File tasksFile = new File(_dataFolder, "tasks.yml");
+        start = System.nanoTime();
+        plugin.loadTasks();
+        long loadNanos = System.nanoTime() - start;
+        report("Save tasks.yml", taskCount + " tasks, " + tasksFile.length() / 1024 + " KiB in " +
+                                 saveNanos / 1_000_000 + " ms");
+        report("Load tasks.yml", plugin.getTaskScheduler().getTaskCount() + " tasks in " +
+                                 loadNanos / 1_000_000 + " ms");
+
+        report("Tasks executed", metrics.getTasksExecuted() + " (" + metrics.getOverdueTasksExecuted() +
+                                 " on login), " + server.getGameCommandCount() + " commands dispatched");
+        reportHistogram("Lateness", metrics.getLateness(), "ms");
+        reportHistogram("Queue run time", metrics.getDrainMicros(), "us");
+        reportHistogram("Tasks per queue run", metrics.getDrainTasks(), "");
+        reportHistogram("Execution time", metrics.getExecuteMicros(), "us");
+        server.stopPlugin();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Print one line of the report.
+     * 
+     * @param title the title.
+     * @param value the value.
+     */
+    static void report(String title, String value) {
+        System.out.println(String.format("%-24s %s", title + ":", value));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Print the rate of an operation.
+     * 
+     * @param title the title.
+     * @param count the number of operations.
+     * @param nanos the elapsed time in nanoseconds.
+     */
+    static void reportRate(String title, int count, long nanos) {
+        report(title, count + " in " + nanos / 1_000_000 + " ms (" +
+                      (long) (count * 1e9 / Math.max(1, nanos)) + "/s)");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Print a summary of a histogram.
+     * 
+     * @param title the title.
+     * @param histogram the histogram.
+     * @param units the units of the recorded values.
+     */
+    static void reportHistogram(String title, Histogram histogram, String units) {
+        report(title, histogram.getCount() + " samples, p50 " + histogram.getPercentile(50) + units +
+                      ", p99 " + histogram.getPercentile(99) + units + ", max " + histogram.getMax() + units);
+    }
+
+    /**
+     * The number of players.
+     */
+    private int _players = 2000;
+
+    /**
+     * The number of tasks scheduled for each player.
+     */
+    private int _tasksPerPlayer = 4;
+
+    /**
+     * Tasks fall due uniformly over this many seconds.
+     */
+    private int _spreadSeconds = 10;
+
+    /**
+     * The fraction of players online at the start.
+     */
+    private double _onlineFraction = 0.5;
+
+    /**
+     * The fraction of players that join or leave in each tick.
+     */
+    private double _churn = 0.001;
+
+    /**
+     * The plugin data folder.
+     */
+    private File _dataFolder;
+} // class LoadSimulation
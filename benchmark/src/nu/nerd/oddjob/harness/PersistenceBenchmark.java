@@ -0,0 +1,310 @@
+package nu.nerd.oddjob.harness;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.Random;
+
+import org.bukkit.OfflinePlayer;
+
+import nu.nerd.oddjob.OddJob;
+import nu.nerd.oddjob.Task;
+import nu.nerd.oddjob.TaskScheduler;
+
+// ----------------------------------------------------------------------------
+/**
+ * Measures {@link OddJob#saveTasks()} and {@link OddJob#loadTasks()} in the
+ * {@link HarnessServer} for task lists of increasing size.
+ * 
+ * For each size, the benchmark schedules a mix of pending tasks, due up to 30
+ * days in the future, and overdue tasks, due up to 30 days in the past for
+ * players who are offline. It then saves and loads {@code tasks.yml}
+ * repeatedly, verifying after each load that every task, and the split between
+ * pending and overdue tasks, survived the round trip.
+ * 
+ * Results are written to standard output as CSV, one row per repetition: the
+ * number of tasks, the repetition, the wall time of the save and the load, the
+ * size of the file, and the peak heap used during each operation. The peak is
+ * the sum of the peaks of the heap memory pools since the start of the
+ * operation, so it is an upper bound. The heap is collected before each
+ * operation and its usage then is also reported, so that the peak can be
+ * compared with the baseline. Use a fixed heap size, e.g. {@code -Xms4g
+ * -Xmx4g}, for comparable results.
+ * 
+ * Usage:
+ * 
+ * <pre>
+ * java -Xms4g -Xmx4g -cp target/benchmarks.jar nu.nerd.oddjob.harness.PersistenceBenchmark
+ *     [--sizes N,N,...] [--overdue-fraction F] [--repeat R] [--data DIR]
+ * </pre>
+ */
+public class PersistenceBenchmark {
+    // ------------------------------------------------------------------------
+    /**
+     * Program entry point.
+     * 
+     * @param args command line arguments.
+     * @throws Exception on error.
+     */
+    public static void main(String[] args) throws Exception {
+        PersistenceBenchmark benchmark = new PersistenceBenchmark();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+            case "--sizes":
+                String[] sizes = args[i + 1].split(",");
+                benchmark._sizes = new int[sizes.length];
+                for (int s = 0; s < sizes.length; ++s) {
+                    benchmark._sizes[s] = Integer.parseInt(sizes[s].trim());
+                }
+                break;
+            case "--overdue-fraction":
+                benchmark._overdueFraction = Double.parseDouble(args[i + 1]);
+                break;
+            case "--repeat":
+                benchmark._repeat = Integer.parseInt(args[i + 1]);
+                break;
+            case "--data":
+                benchmark._dataFolder = new File(args[i + 1]);
+                break;
+            default:
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(1);
+            }
+        }
+        boolean verified = benchmark.run();
+        System.exit(verified ? 0 : 2);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run the benchmark for all sizes.
+     * 
+     * @return true if every round trip was verified.
+     * @throws Exception on error.
+     */
+    public boolean run() throws Exception {
+        if (_dataFolder == null) {
+            _dataFolder = Files.createTempDirectory("oddjob-persistence").toFile();
+        }
+        System.out.println("tasks,repetition,save_ms,bytes,save_baseline_mib,save_peak_mib," +
+                           "load_ms,load_baseline_mib,load_peak_mib,verified");
+        boolean verified = true;
+        for (int size : _sizes) {
+            verified &= run(size);
+        }
+        return verified;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run the benchmark for one size.
+     * 
+     * @param size the number of tasks.
+     * @return true if every round trip was verified.
+     * @throws Exception on error.
+     */
+    private boolean run(int size) throws Exception {
+        File dataFolder = new File(_dataFolder, "tasks-" + size);
+        File tasksFile = new File(dataFolder, "tasks.yml");
+        tasksFile.delete();
+        HarnessServer server = HarnessServer.get();
+        OddJob plugin = server.startPlugin(dataFolder, LoadSimulation.TASK_TYPES);
+        TaskScheduler scheduler = plugin.getTaskScheduler();
+
+        // Players never join, so tasks requiring them to be online that are
+        // already due go straight to the overdue queues.
+        Random random = new Random(size);
+        int playerCount = Math.max(1, size / 4);
+        OfflinePlayer[] players = new OfflinePlayer[playerCount];
+        for (int i = 0; i < playerCount; ++i) {
+            players[i] = server.getOrCreatePlayer("Player" + i);
+        }
+        long now = System.currentTimeMillis();
+        ArrayList<Task> tasks = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            OfflinePlayer player = players[random.nextInt(playerCount)];
+            long offset = 1000 + (long) (random.nextDouble() * MAX_OFFSET_MILLIS);
+            if (random.nextDouble() < _overdueFraction) {
+                tasks.add(new Task("reward-" + i, "reward", player, now - offset));
+            } else {
+                tasks.add(new Task("unvote-" + i, "unvote", player, now + offset));
+            }
+        }
+        scheduler.scheduleAll(tasks);
+        Snapshot expected = new Snapshot(scheduler);
+        tasks = null;
+
+        boolean verified = true;
+        for (int repetition = 1; repetition <= _repeat; ++repetition) {
+            long saveBaseline = collectAndResetPeaks();
+            long start = System.nanoTime();
+            plugin.saveTasks();
+            long saveNanos = System.nanoTime() - start;
+            long savePeak = getHeapPeak();
+
+            long loadBaseline = collectAndResetPeaks();
+            start = System.nanoTime();
+            plugin.loadTasks();
+            long loadNanos = System.nanoTime() - start;
+            long loadPeak = getHeapPeak();
+
+            String mismatch = expected.compare(scheduler);
+            if (mismatch != null) {
+                System.err.println(size + " tasks, repetition " + repetition + ": " + mismatch);
+                verified = false;
+            }
+            System.out.println(size + "," + repetition + "," +
+                               saveNanos / 1_000_000 + "," + tasksFile.length() + "," +
+                               toMebibytes(saveBaseline) + "," + toMebibytes(savePeak) + "," +
+                               loadNanos / 1_000_000 + "," +
+                               toMebibytes(loadBaseline) + "," + toMebibytes(loadPeak) + "," +
+                               (mismatch == null));
+        }
+        server.stopPlugin();
+        return verified;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Collect garbage, reset the peak usage of the heap memory pools and
+     * return the heap used.
+     * 
+     * @return the heap used after collection, in bytes.
+     */
+    private static long collectAndResetPeaks() {
+        System.gc();
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the sum of the peak usage of the heap memory pools.
+     * 
+     * @return the peak heap used, in bytes.
+     */
+    private static long getHeapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format a number of bytes as mebibytes.
+     * 
+     * @param bytes the number of bytes.
+     * @return the formatted number of mebibytes.
+     */
+    private static String toMebibytes(long bytes) {
+        return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The state of a scheduler, for verifying the round trip.
+     */
+    private static final class Snapshot {
+        /**
+         * Constructor.
+         * 
+         * @param scheduler the scheduler.
+         */
+        Snapshot(TaskScheduler scheduler) {
+            for (Task task : scheduler.getAllTasks()) {
+                _tasks.put(task.getId(), task);
+            }
+            _pending = scheduler.getPendingTaskCount();
+            _overduePlayers = scheduler.getOverduePlayerCount();
+            _maxOverduePerPlayer = scheduler.getMaxOverdueTasksPerPlayer();
+        }
+
+        /**
+         * Compare this snapshot with the current state of a scheduler.
+         * 
+         * @param scheduler the scheduler.
+         * @return a description of the first difference found, or null if
+         *         there is none.
+         */
+        String compare(TaskScheduler scheduler) {
+            if (scheduler.getTaskCount() != _tasks.size()) {
+                return "expected " + _tasks.size() + " tasks but loaded " + scheduler.getTaskCount();
+            }
+            for (Task expected : _tasks.values()) {
+                Task actual = scheduler.getTask(expected.getId());
+                if (!expected.equals(actual) || !Objects.equals(expected.getPlayerName(), actual.getPlayerName())) {
+                    return "task " + expected.getId() + " did not survive the round trip";
+                }
+            }
+            if (scheduler.getPendingTaskCount() != _pending) {
+                return "expected " + _pending + " pending tasks but loaded " + scheduler.getPendingTaskCount();
+            }
+            if (scheduler.getOverduePlayerCount() != _overduePlayers ||
+                scheduler.getMaxOverdueTasksPerPlayer() != _maxOverduePerPlayer) {
+                return "overdue tasks were not restored to the same players";
+            }
+            return null;
+        }
+
+        /**
+         * Tasks by ID.
+         */
+        private final HashMap<String, Task> _tasks = new HashMap<>();
+
+        /**
+         * The number of pending tasks.
+         */
+        private final int _pending;
+
+        /**
+         * The number of players with overdue tasks.
+         */
+        private final int _overduePlayers;
+
+        /**
+         * The most overdue tasks of any one player.
+         */
+        private final int _maxOverduePerPlayer;
+    } // class Snapshot
+
+    /**
+     * The maximum time in the future or past of generated tasks: 30 days.
+     */
+    private static final long MAX_OFFSET_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * The numbers of tasks to benchmark.
+     */
+    private int[] _sizes = { 10_000, 100_000, 1_000_000 };
+
+    /**
+     * The fraction of tasks that are overdue.
+     */
+    private double _overdueFraction = 0.25;
+
+    /**
+     * The number of save and load repetitions for each size.
+     */
+    private int _repeat = 3;
+
+    /**
+     * The folder under which each size has its own plugin data folder.
+     */
+    private File _dataFolder;
+} // class PersistenceBenchmark
@@ -0,0 +1,317 @@
+package nu.nerd.oddjob;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+// ----------------------------------------------------------------------------
+/**
+ * Performs the async-safe actions of tasks off the main thread.
+ * 
+ * Async-safe actions are side effects that do not touch the world: appending
+ * lines to files, writing log records and recording tasks in SQLite ledgers.
+ * They are run on virtual threads when the JVM supports them (Java 21 and
+ * later), or else on a pool of daemon platform threads, so that blocking I/O
+ * never costs tick time.
+ * 
+ * Actions submitted with the same key (the task ID) run one after another in
+ * submission order, while actions with different keys run concurrently.
+ * Appends to the same file and inserts into the same ledger are serialized so
+ * that lines and rows are never interleaved.
+ */
+public class AsyncActionExecutor {
+    // ------------------------------------------------------------------------
+    /**
+     * Start the executor, if not already started.
+     * 
+     * @param logger a logger for reporting errors.
+     */
+    public synchronized void start(Logger logger) {
+        _logger = logger;
+        if (_executor == null) {
+            _executor = createExecutor();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Wait for all submitted actions to finish, then stop the executor and
+     * close all ledgers.
+     * 
+     * Actions still running after {@link #SHUTDOWN_SECONDS} are abandoned.
+     */
+    public synchronized void stop() {
+        ExecutorService executor = _executor;
+        if (executor == null) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_SECONDS);
+        try {
+            while (!_tails.isEmpty()) {
+                CompletableFuture<?>[] tails = _tails.values().toArray(new CompletableFuture<?>[0]);
+                CompletableFuture.allOf(tails).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException ex) {
+            _logger.warning("Abandoned async actions of " + _tails.size() + " tasks at shutdown.");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            // Not thrown: submitted actions log their own exceptions.
+        }
+        executor.shutdownNow();
+        _executor = null;
+        _tails.clear();
+
+        synchronized (_ledgers) {
+            for (Connection connection : _ledgers.values()) {
+                try {
+                    connection.close();
+                } catch (SQLException ex) {
+                    _logger.warning("Error closing ledger: " + ex.getMessage());
+                }
+            }
+            _ledgers.clear();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if actions run on virtual threads.
+     * 
+     * @return true if actions run on virtual threads.
+     */
+    public boolean isVirtual() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of keys with actions waiting or running.
+     * 
+     * @return the number of keys with actions waiting or running.
+     */
+    public int getBusyKeyCount() {
+        return _tails.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run an action asynchronously, after all actions previously submitted
+     * with the same key.
+     * 
+     * If the executor is not started, the action runs immediately on the
+     * calling thread.
+     * 
+     * @param key the key that orders actions, e.g. a task ID.
+     * @param action the action.
+     */
+    public void submit(String key, Runnable action) {
+        Runnable guarded = () -> {
+            try {
+                action.run();
+            } catch (Exception ex) {
+                _logger.severe(ex.getClass().getSimpleName() + " in async action of " + key + ": " + ex.getMessage());
+            }
+        };
+
+        ExecutorService executor = _executor;
+        if (executor == null) {
+            guarded.run();
+            return;
+        }
+
+        CompletableFuture<Void> next = _tails.compute(key, (k, tail) -> (tail == null)
+            ? CompletableFuture.runAsync(guarded, executor)
+            : tail.thenRunAsync(guarded, executor));
+        next.whenComplete((result, ex) -> _tails.remove(key, next));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a line to a file, creating the file and its parent directories
+     * if necessary.
+     * 
+     * This performs blocking I/O and should be called from an action.
+     * 
+     * @param file the file.
+     * @param line the line, without a line terminator.
+     * @throws IOException if the line could not be written.
+     */
+    public void appendLine(File file, String line) throws IOException {
+        File canonical = file.getCanonicalFile();
+        Object lock = _fileLocks.computeIfAbsent(canonical, f -> new Object());
+        synchronized (lock) {
+            File parent = canonical.getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            Files.write(canonical.toPath(), (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the execution of a task in a SQLite ledger, creating the ledger
+     * if necessary.
+     * 
+     * The ledger has a single table, {@code ledger}, with one row per
+     * execution. This performs blocking I/O and should be called from an
+     * action.
+     * 
+     * @param file the SQLite database file.
+     * @param task the executed task.
+     * @param now the time of execution in milliseconds since Epoch.
+     * @param note a note recorded with the task, or null.
+     * @throws SQLException if the row could not be inserted.
+     * @throws IOException if the file name could not be resolved.
+     */
+    public void recordLedger(File file, Task task, long now, String note) throws SQLException, IOException {
+        Connection connection = getLedger(file.getCanonicalFile());
+        synchronized (connection) {
+            try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO ledger (task_id, task_type, player_uuid, player_name, due_ms, executed_ms, note) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+                insert.setString(1, task.getId());
+                insert.setString(2, task.getTaskTypeId());
+                insert.setString(3, (task.getOfflinePlayer() != null) ? task.getOfflinePlayer().getUniqueId().toString()
+                                                                      : null);
+                insert.setString(4, task.getPlayerName());
+                insert.setLong(5, task.getTime());
+                insert.setLong(6, now);
+                insert.setString(7, note);
+                insert.executeUpdate();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the open connection to a ledger, opening it and creating its
+     * table if necessary.
+     * 
+     * @param file the canonical SQLite database file.
+     * @return the connection.
+     * @throws SQLException if the ledger could not be opened.
+     */
+    private Connection getLedger(File file) throws SQLException {
+        synchronized (_ledgers) {
+            Connection connection = _ledgers.get(file);
+            if (connection == null) {
+                File parent = file.getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS ledger (" +
+                                            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                                            "task_id TEXT NOT NULL, " +
+                                            "task_type TEXT NOT NULL, " +
+                                            "player_uuid TEXT, " +
+                                            "player_name TEXT, " +
+                                            "due_ms INTEGER NOT NULL, " +
+                                            "executed_ms INTEGER NOT NULL, " +
+                                            "note TEXT)");
+                }
+                _ledgers.put(file, connection);
+            }
+            return connection;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create an executor that runs each action on a new virtual thread, or on
+     * a pooled daemon platform thread if virtual threads are not available.
+     * 
+     * @return the executor.
+     */
+    private static ExecutorService createExecutor() {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException ex) {
+                // Fall through.
+            }
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "OddJob Async Action " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return {@code Executors.newVirtualThreadPerTaskExecutor()}, or null if
+     * the JVM does not support virtual threads.
+     * 
+     * @return the method, or null.
+     */
+    private static Method findVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The number of seconds to wait for submitted actions at shutdown.
+     */
+    private static final int SHUTDOWN_SECONDS = 10;
+
+    /**
+     * {@code Executors.newVirtualThreadPerTaskExecutor()}, or null if not
+     * supported.
+     */
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+    /**
+     * A logger for reporting errors.
+     */
+    private Logger _logger = Logger.getLogger("OddJob");
+
+    /**
+     * The executor, or null if not started.
+     */
+    private volatile ExecutorService _executor;
+
+    /**
+     * Map from key to the future of the last action submitted with that key,
+     * removed when that action completes.
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> _tails = new ConcurrentHashMap<>();
+
+    /**
+     * Map from canonical file to the lock serializing appends to it.
+     */
+    private final ConcurrentHashMap<File, Object> _fileLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Map from canonical file to open ledger connection.
+     */
+    private final HashMap<File, Connection> _ledgers = new HashMap<>();
+} // class AsyncActionExecutor
@@ -0,0 +1,389 @@
+package nu.nerd.oddjob;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+// ----------------------------------------------------------------------------
+/**
+ * A structured log of task scheduling and execution events, written as one
+ * JSON object per line.
+ * 
+ * Events are recorded on the main thread into a preallocated ring buffer,
+ * which costs a few field writes and no allocation. A background thread
+ * periodically formats and appends buffered events to {@code audit.jsonl} in
+ * the configured directory, rotating it to {@code audit.jsonl.1},
+ * {@code audit.jsonl.2}, etc. when it reaches the configured size. If the
+ * buffer fills faster than it can be written, new events are dropped and
+ * counted rather than blocking the main thread.
+ */
+public class AuditLog {
+    // ------------------------------------------------------------------------
+    /**
+     * Kinds of audited events.
+     */
+    public enum Event {
+        /**
+         * A task was scheduled.
+         */
+        SCHEDULE("schedule"),
+
+        /**
+         * A task was cancelled.
+         */
+        CANCEL("cancel"),
+
+        /**
+         * A task started executing.
+         */
+        EXECUTE("execute"),
+
+        /**
+         * A due task was deferred until its target player is online.
+         */
+        OVERDUE("overdue"),
+
+        /**
+         * A task did nothing because its target lacked the required
+         * permission.
+         */
+        PERMISSION_FAIL("permission-fail"),
+
+        /**
+         * An overdue task exceeded its task type's maximum overdue age and was
+         * archived.
+         */
+        EXPIRE("expire");
+
+        /**
+         * Constructor.
+         * 
+         * @param name the name written to the log.
+         */
+        Event(String name) {
+            _name = name;
+        }
+
+        /**
+         * The name written to the log.
+         */
+        final String _name;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Configure the audit log, starting or stopping the background writer as
+     * necessary.
+     * 
+     * Any buffered events are written before the configuration changes.
+     * 
+     * @param enabled true if events should be logged.
+     * @param directory the directory containing the log files.
+     * @param bufferSize the maximum number of buffered events.
+     * @param flushMillis the number of milliseconds between writes.
+     * @param maxFileBytes the size at which the log file is rotated.
+     * @param maxFiles the number of rotated files kept.
+     * @param logger a logger for reporting errors.
+     */
+    public synchronized void configure(boolean enabled, File directory, int bufferSize, int flushMillis,
+                                       long maxFileBytes, int maxFiles, Logger logger) {
+        stop();
+        if (!enabled) {
+            return;
+        }
+
+        _directory = directory;
+        _flushMillis = Math.max(10, flushMillis);
+        _maxFileBytes = Math.max(1024, maxFileBytes);
+        _maxFiles = Math.max(0, maxFiles);
+        _logger = logger;
+
+        int capacity = Integer.highestOneBit(Math.max(16, bufferSize - 1)) << 1;
+        _mask = capacity - 1;
+        _events = new Event[capacity];
+        _times = new long[capacity];
+        _tasks = new Task[capacity];
+        _playerNames = new String[capacity];
+        _head = 0;
+        _tail = 0;
+        _dropped = 0;
+
+        _running = true;
+        _writer = new Thread(this::runWriter, "OddJob Audit Log");
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write all buffered events and stop the background writer.
+     */
+    public synchronized void stop() {
+        Thread writer = _writer;
+        if (writer != null) {
+            _running = false;
+            LockSupport.unpark(writer);
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            _writer = null;
+            _events = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record an event concerning a task.
+     * 
+     * This must only be called from the main thread.
+     * 
+     * @param event the kind of event.
+     * @param task the task.
+     */
+    public void record(Event event, Task task) {
+        Event[] events = _events;
+        if (events == null) {
+            return;
+        }
+
+        long head = _head;
+        if (head - _tail > _mask) {
+            ++_dropped;
+            return;
+        }
+        int slot = (int) (head & _mask);
+        events[slot] = event;
+        _times[slot] = System.currentTimeMillis();
+        _tasks[slot] = task;
+        _playerNames[slot] = task.getPlayerName();
+        _head = head + 1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The body of the background writer thread.
+     */
+    private void runWriter() {
+        File file = new File(_directory, "audit.jsonl");
+        _directory.mkdirs();
+        BufferedWriter out = null;
+        long fileBytes = file.length();
+        StringBuilder line = new StringBuilder(256);
+        long reportedDropped = 0;
+        try {
+            out = open(file);
+            for (;;) {
+                boolean running = _running;
+                long head = _head;
+                for (long i = _tail; i < head; ++i) {
+                    int slot = (int) (i & _mask);
+                    line.setLength(0);
+                    format(line, _events[slot], _times[slot], _tasks[slot], _playerNames[slot]);
+                    _tasks[slot] = null;
+                    _playerNames[slot] = null;
+
+                    if (fileBytes + line.length() > _maxFileBytes) {
+                        out.close();
+                        rotate(file);
+                        out = open(file);
+                        fileBytes = 0;
+                    }
+                    out.append(line);
+                    fileBytes += line.length();
+                    _tail = i + 1;
+                }
+                out.flush();
+
+                long dropped = _dropped;
+                if (dropped != reportedDropped) {
+                    _logger.warning((dropped - reportedDropped) + " audit log events were dropped because the buffer was full.");
+                    reportedDropped = dropped;
+                }
+
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(_flushMillis));
+            }
+        } catch (IOException ex) {
+            _logger.severe(ex.getClass().getSimpleName() + " writing audit log: " + ex.getMessage());
+            _events = null;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Open the log file for appending.
+     * 
+     * @param file the file.
+     * @return the writer.
+     * @throws IOException if the file cannot be opened.
+     */
+    private static BufferedWriter open(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Rotate the log file, discarding the oldest rotated file.
+     * 
+     * @param file the current log file.
+     */
+    private void rotate(File file) {
+        new File(file.getPath() + "." + _maxFiles).delete();
+        for (int i = _maxFiles - 1; i >= 1; --i) {
+            new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+        }
+        if (_maxFiles > 0) {
+            file.renameTo(new File(file.getPath() + ".1"));
+        } else {
+            file.delete();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format one event as a line of JSON.
+     * 
+     * @param line the buffer to append to.
+     * @param event the kind of event.
+     * @param time the time of the event in milliseconds since Epoch.
+     * @param task the task.
+     * @param playerName the name of the target player, or null.
+     */
+    private static void format(StringBuilder line, Event event, long time, Task task, String playerName) {
+        line.append("{\"time\":").append(time);
+        line.append(",\"event\":\"").append(event._name).append('"');
+        line.append(",\"id\":");
+        appendString(line, task.getId());
+        line.append(",\"type\":");
+        appendString(line, task.getTaskTypeId());
+        line.append(",\"player\":");
+        appendString(line, playerName);
+        line.append(",\"uuid\":");
+        UUID uuid = (task.getOfflinePlayer() != null) ? task.getOfflinePlayer().getUniqueId() : null;
+        appendString(line, (uuid != null) ? uuid.toString() : null);
+        line.append(",\"due\":").append(task.getTime());
+        line.append("}\n");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a string as a JSON string literal, or null.
+     * 
+     * @param line the buffer to append to.
+     * @param s the string, or null.
+     */
+    private static void appendString(StringBuilder line, String s) {
+        if (s == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The directory containing the log files.
+     */
+    private File _directory;
+
+    /**
+     * The number of milliseconds between writes.
+     */
+    private int _flushMillis;
+
+    /**
+     * The size at which the log file is rotated.
+     */
+    private long _maxFileBytes;
+
+    /**
+     * The number of rotated files kept.
+     */
+    private int _maxFiles;
+
+    /**
+     * A logger for reporting errors.
+     */
+    private Logger _logger;
+
+    /**
+     * The background writer thread, or null if not running.
+     */
+    private Thread _writer;
+
+    /**
+     * False when the writer thread should write remaining events and exit.
+     */
+    private volatile boolean _running;
+
+    /**
+     * The ring buffer capacity minus one; the capacity is a power of two.
+     */
+    private int _mask;
+
+    /**
+     * Kinds of buffered events, or null if the log is disabled.
+     */
+    private volatile Event[] _events;
+
+    /**
+     * Times of buffered events.
+     */
+    private long[] _times;
+
+    /**
+     * Tasks of buffered events.
+     */
+    private Task[] _tasks;
+
+    /**
+     * Target player names of buffered events.
+     */
+    private String[] _playerNames;
+
+    /**
+     * The sequence number of the next event to be recorded; written only by
+     * the main thread.
+     */
+    private volatile long _head;
+
+    /**
+     * The sequence number of the next event to be written; written only by
+     * the writer thread.
+     */
+    private volatile long _tail;
+
+    /**
+     * The number of events dropped because the buffer was full.
+     */
+    private volatile long _dropped;
+} // class AuditLog
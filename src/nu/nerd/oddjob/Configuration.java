@@ -1,53 +1,314 @@
 package nu.nerd.oddjob;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
 import java.util.logging.Logger;
 
-import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
 
 // ----------------------------------------------------------------------------
 /**
  * Reads and exposes the plugin configuration.
+ * 
+ * Each instance is an immutable snapshot of the configuration. A reload reads
+ * a new snapshot off the main thread, and then applies it on the main thread,
+ * replacing {@link OddJob#CONFIG} in a single assignment.
  */
 public class Configuration {
     /**
      * If true, log the configuration on reload.
      */
-    public boolean DEBUG_CONFIG;
+    public final boolean DEBUG_CONFIG;
 
     /**
      * If true, log actions performed in event handlers.
      */
-    public boolean DEBUG_EVENTS;
+    public final boolean DEBUG_EVENTS;
 
     /**
      * If true, log commands executed by tasks.
      */
-    public boolean DEBUG_COMMANDS;
+    public final boolean DEBUG_COMMANDS;
 
     /**
      * If true, log task scheduling decisions.
      */
-    public boolean DEBUG_TASKS;
+    public final boolean DEBUG_TASKS;
 
     /**
      * The number of ticks between checks of the task queue.
      */
-    public int TASK_PERIOD_TICKS;
+    public final int TASK_PERIOD_TICKS;
+
+    /**
+     * The number of shards into which tasks with a target player are
+     * partitioned by UUID.
+     */
+    public final int TASK_SHARDS;
+
+    /**
+     * The number of seconds between samples of the task queue sizes and
+     * writes of the Prometheus metrics file.
+     */
+    public final int METRICS_PERIOD_SECONDS;
+
+    /**
+     * If true, register scheduler metrics as a JMX MBean.
+     */
+    public final boolean METRICS_JMX;
+
+    /**
+     * The name of the file in the plugin folder where metrics are written in
+     * Prometheus text format, or the empty string to disable.
+     */
+    public final String METRICS_PROMETHEUS_FILE;
+
+    /**
+     * If true, profile the commands dispatched by task types.
+     */
+    public final boolean PROFILER_ENABLED;
+
+    /**
+     * The fraction of command dispatches timed by the profiler, in the range
+     * [0, 1].
+     */
+    public final double PROFILER_SAMPLE_RATE;
+
+    /**
+     * The number of milliseconds a single task may take to execute before the
+     * watchdog logs it, or 0 to disable.
+     */
+    public final int WATCHDOG_TASK_MILLIS;
+
+    /**
+     * The number of milliseconds a run of the task queue may take before the
+     * watchdog logs it, or 0 to disable.
+     */
+    public final int WATCHDOG_DRAIN_MILLIS;
+
+    /**
+     * If true, the watchdog logs the main thread stack while a slow task is
+     * still running.
+     */
+    public final boolean WATCHDOG_CAPTURE_STACK;
+
+    /**
+     * If true, write scheduling and execution events to the audit log.
+     */
+    public final boolean AUDIT_ENABLED;
+
+    /**
+     * The maximum number of audit events buffered between writes.
+     */
+    public final int AUDIT_BUFFER_SIZE;
+
+    /**
+     * The number of milliseconds between writes of the audit log.
+     */
+    public final int AUDIT_FLUSH_MILLIS;
+
+    /**
+     * The size in bytes at which the audit log file is rotated.
+     */
+    public final long AUDIT_MAX_FILE_BYTES;
+
+    /**
+     * The number of rotated audit log files kept.
+     */
+    public final int AUDIT_MAX_FILES;
+
+    /**
+     * If true, share overdue tasks with other servers through the shared
+     * task store.
+     */
+    public final boolean SHARED_STORE_ENABLED;
+
+    /**
+     * The path of the shared task store's SQLite database, relative to the
+     * plugin folder if not absolute.
+     */
+    public final String SHARED_STORE_FILE;
+
+    /**
+     * The ID of this server in shared task store leases.
+     */
+    public final String SHARED_STORE_SERVER_ID;
+
+    /**
+     * The number of seconds a server holds the tasks it claims.
+     */
+    public final int SHARED_STORE_LEASE_SECONDS;
+
+    /**
+     * The number of seconds between claims of the online players' tasks.
+     */
+    public final int SHARED_STORE_POLL_SECONDS;
+
+    /**
+     * The number of seconds between sweeps for overdue tasks older than their
+     * task type's maximum overdue age.
+     */
+    public final int OVERDUE_EXPIRY_PERIOD_SECONDS;
+
+    /**
+     * The maximum number of overdue tasks archived per sweep.
+     */
+    public final int OVERDUE_EXPIRY_BATCH_SIZE;
+
+    /**
+     * The path of the archive of expired overdue tasks, relative to the plugin
+     * folder if not absolute.
+     */
+    public final String OVERDUE_EXPIRY_ARCHIVE_FILE;
+
+    /**
+     * If true, keep tasks due beyond the horizon in the on-disk cold tier.
+     */
+    public final boolean COLD_TIER_ENABLED;
+
+    /**
+     * The number of hours ahead within which tasks are held in memory.
+     */
+    public final int COLD_TIER_HORIZON_HOURS;
+
+    /**
+     * The width, in hours, of the window of due times covered by each cold
+     * tier partition.
+     */
+    public final int COLD_TIER_PARTITION_HOURS;
+
+    /**
+     * The number of seconds between checks for cold partitions to page in.
+     */
+    public final int COLD_TIER_PERIOD_SECONDS;
 
     // ------------------------------------------------------------------------
     /**
-     * Load the plugin configuration.
+     * Constructor for the default configuration, used until the plugin is
+     * enabled.
      */
-    public void reload() {
-        OddJob.PLUGIN.reloadConfig();
-        FileConfiguration config = OddJob.PLUGIN.getConfig();
-        Logger logger = OddJob.PLUGIN.getLogger();
+    public Configuration() {
+        this(new YamlConfiguration(), null, Logger.getLogger("OddJob"));
+    }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor that reads the plugin configuration from an already parsed
+     * configuration.
+     * 
+     * This has no effect on the rest of the plugin, other than creating the
+     * server ID file if necessary, so it can be called off the main thread.
+     * The configuration takes effect when passed to
+     * {@link #apply(Configuration)}.
+     * 
+     * @param config the parsed contents of {@code config.yml}.
+     * @param dataFolder the plugin's data folder, or null to use a random
+     *        default server ID.
+     * @param logger a logger for reporting errors.
+     */
+    public Configuration(ConfigurationSection config, File dataFolder, Logger logger) {
         DEBUG_CONFIG = config.getBoolean("debug.config");
         DEBUG_EVENTS = config.getBoolean("debug.events");
         DEBUG_COMMANDS = config.getBoolean("debug.commands");
         DEBUG_TASKS = config.getBoolean("debug.tasks");
         TASK_PERIOD_TICKS = Math.max(1, config.getInt("task-period-ticks"));
+        TASK_SHARDS = Math.max(1, config.getInt("task-shards", 1));
+        METRICS_PERIOD_SECONDS = Math.max(1, config.getInt("metrics.period-seconds"));
+        METRICS_JMX = config.getBoolean("metrics.jmx");
+        METRICS_PROMETHEUS_FILE = config.getString("metrics.prometheus-file", "");
+        PROFILER_ENABLED = config.getBoolean("profiler.enabled");
+        PROFILER_SAMPLE_RATE = Math.max(0.0, Math.min(1.0, config.getDouble("profiler.sample-rate")));
+        WATCHDOG_TASK_MILLIS = Math.max(0, config.getInt("watchdog.task-millis"));
+        WATCHDOG_DRAIN_MILLIS = Math.max(0, config.getInt("watchdog.drain-millis"));
+        WATCHDOG_CAPTURE_STACK = config.getBoolean("watchdog.capture-stack");
+        AUDIT_ENABLED = config.getBoolean("audit.enabled");
+        AUDIT_BUFFER_SIZE = Math.max(16, config.getInt("audit.buffer-size"));
+        AUDIT_FLUSH_MILLIS = Math.max(10, config.getInt("audit.flush-millis"));
+        AUDIT_MAX_FILE_BYTES = Math.max(1024, config.getLong("audit.max-file-bytes"));
+        AUDIT_MAX_FILES = Math.max(0, config.getInt("audit.max-files"));
+        SHARED_STORE_FILE = config.getString("shared-store.file", "");
+        boolean sharedStoreEnabled = config.getBoolean("shared-store.enabled");
+        if (sharedStoreEnabled && SHARED_STORE_FILE.isEmpty()) {
+            logger.severe("shared-store.file must be set to enable the shared task store.");
+            sharedStoreEnabled = false;
+        }
+        SHARED_STORE_ENABLED = sharedStoreEnabled;
+        String serverId = config.getString("shared-store.server-id", "");
+        if (serverId.isEmpty()) {
+            serverId = (dataFolder != null) ? loadDefaultServerId(new File(dataFolder, SERVER_ID_FILE), logger)
+                                            : FALLBACK_SERVER_ID;
+        }
+        SHARED_STORE_SERVER_ID = serverId;
+        SHARED_STORE_LEASE_SECONDS = Math.max(5, config.getInt("shared-store.lease-seconds"));
+        SHARED_STORE_POLL_SECONDS = Math.max(1, config.getInt("shared-store.poll-seconds"));
+        OVERDUE_EXPIRY_PERIOD_SECONDS = Math.max(1, config.getInt("overdue-expiry.period-seconds"));
+        OVERDUE_EXPIRY_BATCH_SIZE = Math.max(1, config.getInt("overdue-expiry.batch-size"));
+        OVERDUE_EXPIRY_ARCHIVE_FILE = config.getString("overdue-expiry.archive-file", "overdue-archive.gz");
+        COLD_TIER_ENABLED = config.getBoolean("cold-tier.enabled");
+        COLD_TIER_HORIZON_HOURS = Math.max(1, config.getInt("cold-tier.horizon-hours"));
+        COLD_TIER_PARTITION_HOURS = Math.max(1, config.getInt("cold-tier.partition-hours"));
+        COLD_TIER_PERIOD_SECONDS = Math.max(1, config.getInt("cold-tier.period-seconds"));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Make this configuration current, and reconfigure the subsystems whose
+     * settings differ from the previous configuration.
+     * 
+     * Subsystems whose settings are unchanged are left alone, so that a reload
+     * does not needlessly restart background threads on the main thread.
+     * 
+     * @param previous the previous configuration, or null to configure every
+     *        subsystem, e.g. when the plugin is enabled.
+     */
+    public void apply(Configuration previous) {
+        Logger logger = OddJob.PLUGIN.getLogger();
+        File dataFolder = OddJob.PLUGIN.getDataFolder();
+        OddJob.CONFIG = this;
+
+        if (previous == null || TASK_SHARDS != previous.TASK_SHARDS) {
+            OddJob.PLUGIN.getTaskScheduler().setShardCount(TASK_SHARDS);
+        }
+        if (previous == null || METRICS_JMX != previous.METRICS_JMX) {
+            OddJob.METRICS.setJmxEnabled(METRICS_JMX, logger);
+        }
+        if (previous == null || PROFILER_ENABLED != previous.PROFILER_ENABLED ||
+            PROFILER_SAMPLE_RATE != previous.PROFILER_SAMPLE_RATE) {
+            OddJob.PROFILER.configure(PROFILER_ENABLED, PROFILER_SAMPLE_RATE);
+        }
+        if (previous == null || WATCHDOG_TASK_MILLIS != previous.WATCHDOG_TASK_MILLIS ||
+            WATCHDOG_DRAIN_MILLIS != previous.WATCHDOG_DRAIN_MILLIS ||
+            WATCHDOG_CAPTURE_STACK != previous.WATCHDOG_CAPTURE_STACK) {
+            OddJob.WATCHDOG.configure(WATCHDOG_TASK_MILLIS, WATCHDOG_DRAIN_MILLIS, WATCHDOG_CAPTURE_STACK, logger);
+        }
+        if (previous == null || AUDIT_ENABLED != previous.AUDIT_ENABLED ||
+            AUDIT_BUFFER_SIZE != previous.AUDIT_BUFFER_SIZE ||
+            AUDIT_FLUSH_MILLIS != previous.AUDIT_FLUSH_MILLIS ||
+            AUDIT_MAX_FILE_BYTES != previous.AUDIT_MAX_FILE_BYTES ||
+            AUDIT_MAX_FILES != previous.AUDIT_MAX_FILES) {
+            OddJob.AUDIT.configure(AUDIT_ENABLED, new File(dataFolder, "audit"),
+                                   AUDIT_BUFFER_SIZE, AUDIT_FLUSH_MILLIS, AUDIT_MAX_FILE_BYTES, AUDIT_MAX_FILES,
+                                   logger);
+        }
+        if (previous == null || SHARED_STORE_ENABLED != previous.SHARED_STORE_ENABLED ||
+            !SHARED_STORE_FILE.equals(previous.SHARED_STORE_FILE) ||
+            !SHARED_STORE_SERVER_ID.equals(previous.SHARED_STORE_SERVER_ID) ||
+            SHARED_STORE_LEASE_SECONDS != previous.SHARED_STORE_LEASE_SECONDS) {
+            OddJob.STORE.configure(SHARED_STORE_ENABLED, resolve(dataFolder, SHARED_STORE_FILE),
+                                   SHARED_STORE_SERVER_ID, SHARED_STORE_LEASE_SECONDS, logger);
+        }
+        if (previous == null || !OVERDUE_EXPIRY_ARCHIVE_FILE.equals(previous.OVERDUE_EXPIRY_ARCHIVE_FILE)) {
+            OddJob.ARCHIVE.configure(resolve(dataFolder, OVERDUE_EXPIRY_ARCHIVE_FILE), logger);
+        }
+        if (previous == null || COLD_TIER_ENABLED != previous.COLD_TIER_ENABLED ||
+            COLD_TIER_PARTITION_HOURS != previous.COLD_TIER_PARTITION_HOURS) {
+            OddJob.COLD.configure(COLD_TIER_ENABLED, new File(dataFolder, "cold"),
+                                  COLD_TIER_PARTITION_HOURS * 3600000L, logger);
+        }
 
         if (DEBUG_CONFIG) {
             logger.info("Configuration:");
@@ -55,6 +316,95 @@ public class Configuration {
             logger.info("DEBUG_COMMANDS: " + DEBUG_COMMANDS);
             logger.info("DEBUG_TASKS: " + DEBUG_TASKS);
             logger.info("TASK_PERIOD_TICKS: " + TASK_PERIOD_TICKS);
+            logger.info("TASK_SHARDS: " + TASK_SHARDS);
+            logger.info("METRICS_PERIOD_SECONDS: " + METRICS_PERIOD_SECONDS);
+            logger.info("METRICS_JMX: " + METRICS_JMX);
+            logger.info("METRICS_PROMETHEUS_FILE: " + METRICS_PROMETHEUS_FILE);
+            logger.info("PROFILER_ENABLED: " + PROFILER_ENABLED);
+            logger.info("PROFILER_SAMPLE_RATE: " + PROFILER_SAMPLE_RATE);
+            logger.info("WATCHDOG_TASK_MILLIS: " + WATCHDOG_TASK_MILLIS);
+            logger.info("WATCHDOG_DRAIN_MILLIS: " + WATCHDOG_DRAIN_MILLIS);
+            logger.info("WATCHDOG_CAPTURE_STACK: " + WATCHDOG_CAPTURE_STACK);
+            logger.info("AUDIT_ENABLED: " + AUDIT_ENABLED);
+            logger.info("AUDIT_BUFFER_SIZE: " + AUDIT_BUFFER_SIZE);
+            logger.info("AUDIT_FLUSH_MILLIS: " + AUDIT_FLUSH_MILLIS);
+            logger.info("AUDIT_MAX_FILE_BYTES: " + AUDIT_MAX_FILE_BYTES);
+            logger.info("AUDIT_MAX_FILES: " + AUDIT_MAX_FILES);
+            logger.info("SHARED_STORE_ENABLED: " + SHARED_STORE_ENABLED);
+            logger.info("SHARED_STORE_FILE: " + SHARED_STORE_FILE);
+            logger.info("SHARED_STORE_SERVER_ID: " + SHARED_STORE_SERVER_ID);
+            logger.info("SHARED_STORE_LEASE_SECONDS: " + SHARED_STORE_LEASE_SECONDS);
+            logger.info("SHARED_STORE_POLL_SECONDS: " + SHARED_STORE_POLL_SECONDS);
+            logger.info("OVERDUE_EXPIRY_PERIOD_SECONDS: " + OVERDUE_EXPIRY_PERIOD_SECONDS);
+            logger.info("OVERDUE_EXPIRY_BATCH_SIZE: " + OVERDUE_EXPIRY_BATCH_SIZE);
+            logger.info("OVERDUE_EXPIRY_ARCHIVE_FILE: " + OVERDUE_EXPIRY_ARCHIVE_FILE);
+            logger.info("COLD_TIER_ENABLED: " + COLD_TIER_ENABLED);
+            logger.info("COLD_TIER_HORIZON_HOURS: " + COLD_TIER_HORIZON_HOURS);
+            logger.info("COLD_TIER_PARTITION_HOURS: " + COLD_TIER_PARTITION_HOURS);
+            logger.info("COLD_TIER_PERIOD_SECONDS: " + COLD_TIER_PERIOD_SECONDS);
+        }
+    } // apply
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the file at the specified path, relative to the plugin's data
+     * folder if not absolute.
+     * 
+     * @param dataFolder the plugin's data folder.
+     * @param path the path.
+     * @return the file.
+     */
+    private static File resolve(File dataFolder, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(dataFolder, path);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the server ID used in shared task store leases if none is
+     * configured.
+     * 
+     * The ID is read from the specified file, which is created with a random
+     * ID if it does not exist, so that the server keeps the same ID across
+     * restarts and can still complete or release its own leases. If the file
+     * cannot be read or written, a random ID is used for the life of the
+     * server process.
+     * 
+     * @param file the file containing the server ID.
+     * @param logger a logger for reporting errors.
+     * @return the server ID.
+     */
+    private static String loadDefaultServerId(File file, Logger logger) {
+        try {
+            if (file.isFile()) {
+                String id = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+                if (!id.isEmpty()) {
+                    return id;
+                }
+            }
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            String id = UUID.randomUUID().toString();
+            Files.write(file.toPath(), (id + "\n").getBytes(StandardCharsets.UTF_8));
+            return id;
+        } catch (IOException ex) {
+            logger.warning("Could not read or write the server ID in " + file + ": " + ex.getMessage());
+            return FALLBACK_SERVER_ID;
         }
-    } // reload
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The name of the file in the plugin's data folder that holds the default
+     * server ID.
+     */
+    private static final String SERVER_ID_FILE = "server-id.txt";
+
+    /**
+     * The server ID used if the server ID file cannot be read or written:
+     * random, and fixed for the life of the server process.
+     */
+    private static final String FALLBACK_SERVER_ID = UUID.randomUUID().toString();
 } // class Configuration
\ No newline at end of file
@@ -0,0 +1,118 @@
+package nu.nerd.oddjob;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+
+// ----------------------------------------------------------------------------
+/**
+ * The {@link OddJobService} implementation registered by {@link OddJob}.
+ */
+class DefaultOddJobService implements OddJobService {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     * 
+     * @param plugin the plugin.
+     */
+    DefaultOddJobService(OddJob plugin) {
+        _plugin = plugin;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.OddJobService#schedule(java.lang.String,
+     *      java.lang.String, java.util.UUID, long)
+     */
+    @Override
+    public boolean schedule(String id, String taskTypeId, UUID playerUuid, long time) {
+        if (id == null || id.trim().isEmpty() || _plugin.getTaskType(taskTypeId) == null) {
+            return false;
+        }
+        OfflinePlayer player = (playerUuid == null) ? null : Bukkit.getOfflinePlayer(playerUuid);
+        _plugin.getTaskScheduler().scheduleTask(new Task(id, taskTypeId, player, time));
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.OddJobService#cancel(java.lang.String)
+     */
+    @Override
+    public boolean cancel(String id) {
+        return _plugin.getTaskScheduler().cancelTask(id);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.OddJobService#cancelAll(java.util.UUID)
+     */
+    @Override
+    public int cancelAll(UUID playerUuid) {
+        return _plugin.getTaskScheduler().cancelTasksFor(playerUuid);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.OddJobService#getTask(java.lang.String)
+     */
+    @Override
+    public Task getTask(String id) {
+        return _plugin.getTaskScheduler().getTask(id);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.OddJobService#isScheduled(java.lang.String)
+     */
+    @Override
+    public boolean isScheduled(String id) {
+        return _plugin.getTaskScheduler().getTask(id) != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.OddJobService#getTaskCount()
+     */
+    @Override
+    public int getTaskCount() {
+        return _plugin.getTaskScheduler().getTaskCount();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.OddJobService#getTasks()
+     */
+    @Override
+    public Collection<Task> getTasks() {
+        return _plugin.getTaskScheduler().getAllTasks();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.OddJobService#findTasks(java.util.UUID,
+     *      java.lang.String, java.lang.Long, java.lang.Long)
+     */
+    @Override
+    public Collection<Task> findTasks(UUID playerUuid, String taskTypeId, Long after, Long before) {
+        return _plugin.getTaskScheduler().findTasks(playerUuid, taskTypeId, after, before);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.OddJobService#getTaskTypeIds()
+     */
+    @Override
+    public Collection<String> getTaskTypeIds() {
+        return _plugin.getAllTaskTypes().stream().map(TaskType::getId).collect(Collectors.toList());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The plugin.
+     */
+    private final OddJob _plugin;
+} // class DefaultOddJobService
@@ -2,26 +2,52 @@ package nu.nerd.oddjob;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.UUID;
 
 import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
 
+import net.md_5.bungee.api.ChatColor;
 import net.milkbowl.vault.permission.Permission;
 import nu.nerd.oddjob.commands.ExecutorBase;
 import nu.nerd.oddjob.commands.OddJobExecutor;
 import nu.nerd.oddjob.commands.RunAsExecutor;
 import nu.nerd.oddjob.commands.TaskExecutor;
+import nu.nerd.oddjob.metrics.CommandProfiler;
+import nu.nerd.oddjob.metrics.SchedulerMetrics;
+import nu.nerd.oddjob.metrics.TasksPersistEvent;
+import nu.nerd.oddjob.metrics.Watchdog;
+import nu.nerd.oddjob.store.ColdTaskStore;
+import nu.nerd.oddjob.store.SharedTaskStore;
+import nu.nerd.oddjob.trace.TraceRecorder;
 
 // ----------------------------------------------------------------------------
 /**
@@ -34,9 +60,85 @@ public class OddJob extends JavaPlugin implements Listener {
     public static OddJob PLUGIN;
 
     /**
-     * Configuration as singleton.
+     * Configuration as singleton; replaced by a new snapshot on reload.
      */
-    public static Configuration CONFIG = new Configuration();
+    public static volatile Configuration CONFIG = new Configuration();
+
+    /**
+     * Scheduler metrics as singleton.
+     */
+    public static final SchedulerMetrics METRICS = new SchedulerMetrics();
+
+    /**
+     * Task type command profiler as singleton.
+     */
+    public static final CommandProfiler PROFILER = new CommandProfiler();
+
+    /**
+     * Slow task watchdog as singleton.
+     */
+    public static final Watchdog WATCHDOG = new Watchdog();
+
+    /**
+     * Audit log as singleton.
+     */
+    public static final AuditLog AUDIT = new AuditLog();
+
+    /**
+     * Scheduling trace recorder as singleton.
+     */
+    public static final TraceRecorder TRACE = new TraceRecorder();
+
+    /**
+     * Stress test load generator as singleton.
+     */
+    public static final StressTest STRESS = new StressTest();
+
+    /**
+     * Bukkit or Folia scheduler adapter as singleton.
+     */
+    public static final PlatformScheduler PLATFORM = new PlatformScheduler();
+
+    /**
+     * Executor of async-safe task actions as singleton.
+     */
+    public static final AsyncActionExecutor ASYNC_ACTIONS = new AsyncActionExecutor();
+
+    /**
+     * Store of overdue tasks shared with other servers as singleton.
+     */
+    public static final SharedTaskStore STORE = new SharedTaskStore();
+
+    /**
+     * Archive of expired overdue tasks as singleton.
+     */
+    public static final OverdueArchive ARCHIVE = new OverdueArchive();
+
+    /**
+     * On-disk tier of tasks due beyond the horizon as singleton.
+     */
+    public static final ColdTaskStore COLD = new ColdTaskStore();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Default constructor, used by the server's plugin loader.
+     */
+    public OddJob() {
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor for instances created outside of the server's plugin
+     * loader, such as by a test harness.
+     * 
+     * @param loader the plugin loader.
+     * @param description the plugin description.
+     * @param dataFolder the plugin's data folder.
+     * @param file the plugin's JAR file.
+     */
+    protected OddJob(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+        super(loader, description, dataFolder, file);
+    }
 
     // ------------------------------------------------------------------------
     /**
@@ -52,11 +154,13 @@ public class OddJob extends JavaPlugin implements Listener {
     /**
      * Return the {@link TaskType} with the specified unique ID.
      * 
-     * @param id the unique ID of the task type.
-     * @return the {@link TaskType} with the specified unique ID.
+     * @param id the unique ID of the task type; may be null.
+     * @return the {@link TaskType} with the specified unique ID, or null if
+     *         there is no such task type.
      */
     public TaskType getTaskType(String id) {
-        return _taskTypes.get(id);
+        // The sorted map does not accept null keys.
+        return (id != null) ? _taskTypes.get(id) : null;
     }
 
     // ------------------------------------------------------------------------
@@ -69,6 +173,16 @@ public class OddJob extends JavaPlugin implements Listener {
         return _taskTypes.values();
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the IDs of all known task types, in ascending order.
+     * 
+     * @return the sorted task type IDs.
+     */
+    public NavigableSet<String> getTaskTypeIds() {
+        return _taskTypes.navigableKeySet();
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return the object that schedules {@link Task}s.
@@ -79,6 +193,19 @@ public class OddJob extends JavaPlugin implements Listener {
         return _taskScheduler;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the current time according to the task scheduler's clock.
+     * 
+     * Use this rather than System.currentTimeMillis() wherever a time is
+     * compared with task times, so that a simulated clock applies throughout.
+     * 
+     * @return the current time in milliseconds since Epoch.
+     */
+    public long currentTimeMillis() {
+        return _taskScheduler.currentTimeMillis();
+    }
+
     // ------------------------------------------------------------------------
     /**
      * @see org.bukkit.plugin.java.JavaPlugin#onEnable()
@@ -86,19 +213,28 @@ public class OddJob extends JavaPlugin implements Listener {
     @Override
     public void onEnable() {
         PLUGIN = this;
+        ASYNC_ACTIONS.start(getLogger());
         saveDefaultConfig();
-        CONFIG.reload();
-        loadTaskTypes();
+        reloadConfig();
+        Configuration config = new Configuration(getConfig(), getDataFolder(), getLogger());
+        config.apply(null);
+        _taskTypes = loadTaskTypes(getConfig(), _taskTypes, config.DEBUG_CONFIG);
         loadTasks();
 
         _permissionAPI = Bukkit.getServicesManager().getRegistration(Permission.class).getProvider();
+        Bukkit.getServicesManager().register(OddJobService.class, new DefaultOddJobService(this),
+                                             this, ServicePriority.Normal);
 
         addCommandExecutor(new OddJobExecutor());
         addCommandExecutor(new TaskExecutor());
         addCommandExecutor(new RunAsExecutor());
 
         Bukkit.getPluginManager().registerEvents(this, this);
-        Bukkit.getScheduler().runTaskLater(this, new TaskRunner(), CONFIG.TASK_PERIOD_TICKS);
+        PLATFORM.runGlobalLater(this, new TaskRunner(), CONFIG.TASK_PERIOD_TICKS);
+        PLATFORM.runGlobalLater(this, new MetricsRunner(), 20L * CONFIG.METRICS_PERIOD_SECONDS);
+        PLATFORM.runGlobalLater(this, new SharedStoreRunner(), 20L * CONFIG.SHARED_STORE_POLL_SECONDS);
+        PLATFORM.runGlobalLater(this, new ExpiryRunner(), 20L * CONFIG.OVERDUE_EXPIRY_PERIOD_SECONDS);
+        PLATFORM.runGlobalLater(this, new ColdTierRunner(), 20L * CONFIG.COLD_TIER_PERIOD_SECONDS);
     }
 
     // ------------------------------------------------------------------------
@@ -107,8 +243,17 @@ public class OddJob extends JavaPlugin implements Listener {
      */
     @Override
     public void onDisable() {
-        Bukkit.getScheduler().cancelTasks(this);
+        PLATFORM.cancelTasks(this);
+        Bukkit.getServicesManager().unregisterAll(this);
+        METRICS.setJmxEnabled(false, getLogger());
+        WATCHDOG.stop();
+        STRESS.stop();
         saveTasks();
+        getTaskScheduler().stop();
+        STORE.close();
+        ASYNC_ACTIONS.stop();
+        AUDIT.stop();
+        TRACE.stop();
     }
 
     // ------------------------------------------------------------------------
@@ -121,23 +266,143 @@ public class OddJob extends JavaPlugin implements Listener {
         if (CONFIG.DEBUG_EVENTS) {
             getLogger().info(event.getPlayer().getName() + " logged in.");
         }
-        getTaskScheduler().executeOverdueTasksFor(event.getPlayer());
+        TRACE.recordJoin(event.getPlayer());
+        if (PLATFORM.isRegionized()) {
+            // The watchdog only follows the global region's drains.
+            getTaskScheduler().executeOverdueTasksFor(event.getPlayer());
+        } else {
+            WATCHDOG.beginDrain("overdue tasks for " + event.getPlayer().getName());
+            try {
+                getTaskScheduler().executeOverdueTasksFor(event.getPlayer());
+            } finally {
+                WATCHDOG.endDrain();
+            }
+        }
+        claimSharedTasks(Collections.singleton(event.getPlayer().getUniqueId()));
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Load all {@link TaskType} definitions from the configuration file.
+     * When a player quits, record it in the scheduling trace, if recording.
      */
-    public void loadTaskTypes() {
-        reloadConfig();
-        _taskTypes.clear();
-        ConfigurationSection tasks = getConfig().getConfigurationSection("tasks");
-        for (String id : tasks.getKeys(false)) {
-            ConfigurationSection taskSection = tasks.getConfigurationSection(id);
-            TaskType type = new TaskType();
-            type.load(taskSection);
-            _taskTypes.put(type.getId(), type);
+    @EventHandler(priority = EventPriority.MONITOR)
+    private void onPlayerQuit(PlayerQuitEvent event) {
+        TRACE.recordQuit(event.getPlayer());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Claim the overdue tasks of the specified players from the shared task
+     * store, if open, and execute them on the global thread.
+     * 
+     * @param playerUuids the UUIDs of the players.
+     */
+    private void claimSharedTasks(Collection<UUID> playerUuids) {
+        if (STORE.isOpen()) {
+            STORE.claim(playerUuids,
+                        claims -> PLATFORM.runGlobal(this, () -> getTaskScheduler().executeClaimedTasks(claims)));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Reload the configuration and task types from {@code config.yml}.
+     * 
+     * The file is parsed once, asynchronously, into a new {@link Configuration}
+     * snapshot, and the new task type definitions are compared with the
+     * current ones so that unchanged task types are reused. The results are
+     * applied on the main thread, where the new configuration, parsed file and
+     * task type map each replace the old ones in a single assignment, and only
+     * subsystems whose settings changed are reconfigured.
+     * 
+     * @param sender the command sender to notify when the reload is complete.
+     */
+    public void reloadConfiguration(CommandSender sender) {
+        NavigableMap<String, TaskType> currentTaskTypes = _taskTypes;
+        PLATFORM.runAsync(this, () -> {
+            YamlConfiguration config = YamlConfiguration.loadConfiguration(new File(getDataFolder(), "config.yml"));
+            InputStream defaults = getResource("config.yml");
+            if (defaults != null) {
+                config.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8)));
+            }
+            Configuration configuration = new Configuration(config, getDataFolder(), getLogger());
+            NavigableMap<String, TaskType> taskTypes = loadTaskTypes(config, currentTaskTypes,
+                                                                     configuration.DEBUG_CONFIG);
+
+            PLATFORM.runGlobal(this, () -> {
+                _config = config;
+                configuration.apply(CONFIG);
+                _taskTypes = taskTypes;
+                sender.sendMessage(ChatColor.GOLD + getName() + " configuration reloaded.");
+            });
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the most recently loaded contents of {@code config.yml}.
+     * 
+     * @see org.bukkit.plugin.java.JavaPlugin#getConfig()
+     */
+    @Override
+    public FileConfiguration getConfig() {
+        FileConfiguration config = _config;
+        return (config != null) ? config : super.getConfig();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see org.bukkit.plugin.java.JavaPlugin#reloadConfig()
+     */
+    @Override
+    public void reloadConfig() {
+        super.reloadConfig();
+        _config = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load all {@link TaskType} definitions from the parsed configuration.
+     * 
+     * Task types whose definitions are unchanged from the current ones are
+     * reused as is; only new or modified task types are loaded. This method
+     * does not modify any plugin state and so can be called off the main
+     * thread.
+     * 
+     * @param config the parsed contents of {@code config.yml}.
+     * @param current the current map from task type ID to task type, which is
+     *        not modified.
+     * @param debug if true, log the number of task types loaded.
+     * @return a new, unmodifiable map from task type ID to task type.
+     */
+    private NavigableMap<String, TaskType> loadTaskTypes(ConfigurationSection config, Map<String, TaskType> current,
+                                                         boolean debug) {
+        TreeMap<String, TaskType> taskTypes = new TreeMap<>();
+        int loaded = 0;
+        ConfigurationSection tasks = config.getConfigurationSection("tasks");
+        if (tasks != null) {
+            for (String id : tasks.getKeys(false)) {
+                ConfigurationSection taskSection = tasks.getConfigurationSection(id);
+                if (taskSection == null) {
+                    getLogger().warning("Task type " + id + " is not a section and was ignored.");
+                    continue;
+                }
+
+                TaskType type = current.get(id);
+                if (type == null || !type.hasSameDefinition(taskSection)) {
+                    type = new TaskType();
+                    type.load(taskSection, getLogger());
+                    ++loaded;
+                }
+                taskTypes.put(type.getId(), type);
+            }
+        }
+
+        if (debug) {
+            getLogger().info("Task types: " + taskTypes.size() + " total, " + loaded + " new or changed, " +
+                             (taskTypes.size() - loaded) + " unchanged.");
         }
+        return Collections.unmodifiableNavigableMap(taskTypes);
     }
 
     // ------------------------------------------------------------------------
@@ -145,6 +410,8 @@ public class OddJob extends JavaPlugin implements Listener {
      * Load all task instances from {@code tasks.yml}.
      */
     public void loadTasks() {
+        TasksPersistEvent event = new TasksPersistEvent();
+        event.begin();
         FileConfiguration tasksConfig = new YamlConfiguration();
         try {
             tasksConfig.load(getTasksFile());
@@ -152,6 +419,11 @@ public class OddJob extends JavaPlugin implements Listener {
         } catch (IOException | InvalidConfigurationException ex) {
             getLogger().severe(ex.getClass().getName() + " loading player tasks: " + ex.getMessage());
         }
+        if (event.shouldCommit()) {
+            event.operation = "load";
+            event.tasks = getTaskScheduler().getTaskCount();
+            event.commit();
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -159,13 +431,22 @@ public class OddJob extends JavaPlugin implements Listener {
      * Save all task instances to {@code tasks.yml}.
      */
     public void saveTasks() {
+        TasksPersistEvent event = new TasksPersistEvent();
+        event.begin();
         FileConfiguration tasksConfig = new YamlConfiguration();
         try {
             getTaskScheduler().save(tasksConfig, getLogger());
             tasksConfig.save(getTasksFile());
+            // Paged-in cold tasks are now safely in tasks.yml.
+            COLD.deletePagedPartitions();
         } catch (IOException ex) {
             getLogger().severe(ex.getClass().getName() + " saving player tasks: " + ex.getMessage());
         }
+        if (event.shouldCommit()) {
+            event.operation = "save";
+            event.tasks = getTaskScheduler().getTaskCount();
+            event.commit();
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -202,26 +483,142 @@ public class OddJob extends JavaPlugin implements Listener {
          */
         @Override
         public void run() {
+            WATCHDOG.beginDrain("pending tasks");
             try {
                 getTaskScheduler().runPendingTasks();
             } catch (Exception ex) {
                 getLogger().warning(ex.getClass().getSimpleName() + " thrown running pending tasks: " +
                                     ex.getMessage());
+            } finally {
+                WATCHDOG.endDrain();
+            }
+            PLATFORM.runGlobalLater(OddJob.this, this, CONFIG.TASK_PERIOD_TICKS);
+        }
+    };
+
+    // ------------------------------------------------------------------------
+    /**
+     * Bukkit scheduler task implementation that periodically claims the
+     * overdue tasks of all online players from the shared task store.
+     * 
+     * This catches tasks published by other servers after the player joined.
+     */
+    final class SharedStoreRunner implements Runnable {
+        // --------------------------------------------------------------------
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            if (STORE.isOpen()) {
+                ArrayList<UUID> playerUuids = new ArrayList<>();
+                for (Player player : Bukkit.getOnlinePlayers()) {
+                    playerUuids.add(player.getUniqueId());
+                }
+                claimSharedTasks(playerUuids);
             }
-            Bukkit.getScheduler().runTaskLater(OddJob.this, this, CONFIG.TASK_PERIOD_TICKS);
+            PLATFORM.runGlobalLater(OddJob.this, this, 20L * CONFIG.SHARED_STORE_POLL_SECONDS);
         }
     };
 
     // ------------------------------------------------------------------------
     /**
-     * Map from task type ID to TaskType instance.
+     * Bukkit scheduler task implementation that periodically archives overdue
+     * tasks older than their task type's maximum overdue age.
+     * 
+     * Each sweep archives at most {@code overdue-expiry.batch-size} tasks, so
+     * a large backlog is worked off over several sweeps.
+     */
+    final class ExpiryRunner implements Runnable {
+        // --------------------------------------------------------------------
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            List<Task> expired = getTaskScheduler().expireOverdueTasks(CONFIG.OVERDUE_EXPIRY_BATCH_SIZE);
+            if (!expired.isEmpty()) {
+                ARCHIVE.archive(expired, currentTimeMillis());
+                if (CONFIG.DEBUG_TASKS) {
+                    getLogger().info("Archived " + expired.size() + " expired overdue tasks.");
+                }
+            }
+            PLATFORM.runGlobalLater(OddJob.this, this, 20L * CONFIG.OVERDUE_EXPIRY_PERIOD_SECONDS);
+        }
+    };
+
+    // ------------------------------------------------------------------------
+    /**
+     * Bukkit scheduler task implementation that periodically pages cold tasks
+     * into memory as their partition's window comes within the horizon.
+     */
+    final class ColdTierRunner implements Runnable {
+        // --------------------------------------------------------------------
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            getTaskScheduler().pageInColdTasks();
+            PLATFORM.runGlobalLater(OddJob.this, this, 20L * CONFIG.COLD_TIER_PERIOD_SECONDS);
+        }
+    };
+
+    // ------------------------------------------------------------------------
+    /**
+     * Bukkit scheduler task implementation that periodically samples the
+     * sizes of the task queues and, if configured, writes all metrics to a
+     * file in Prometheus text format.
+     * 
+     * The metrics are rendered on the main thread and written asynchronously.
+     * The file is replaced atomically so that readers never see a partial
+     * file.
+     */
+    final class MetricsRunner implements Runnable {
+        // --------------------------------------------------------------------
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            METRICS.updateGauges(getTaskScheduler());
+            if (!CONFIG.METRICS_PROMETHEUS_FILE.isEmpty()) {
+                String text = METRICS.toPrometheusText();
+                File file = new File(getDataFolder(), CONFIG.METRICS_PROMETHEUS_FILE);
+                PLATFORM.runAsync(OddJob.this, () -> {
+                    try {
+                        File temp = new File(file.getPath() + ".tmp");
+                        Files.write(temp.toPath(), text.getBytes(StandardCharsets.UTF_8));
+                        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                                   StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException ex) {
+                        getLogger().warning(ex.getClass().getSimpleName() + " writing metrics: " + ex.getMessage());
+                    }
+                });
+            }
+            PLATFORM.runGlobalLater(OddJob.this, this, 20L * CONFIG.METRICS_PERIOD_SECONDS);
+        }
+    };
+
+    // ------------------------------------------------------------------------
+    /**
+     * Unmodifiable map from task type ID to TaskType instance, sorted by ID.
+     * 
+     * The map is replaced, rather than modified, when the configuration is
+     * reloaded.
+     */
+    private volatile NavigableMap<String, TaskType> _taskTypes = Collections.emptyNavigableMap();
+
+    /**
+     * The contents of {@code config.yml} parsed by the last reload, or null if
+     * {@link JavaPlugin#getConfig()} is current.
      */
-    private final HashMap<String, TaskType> _taskTypes = new HashMap<>();
+    private volatile FileConfiguration _config;
 
     /**
      * Schedules execution of task instances.
      */
-    public static TaskScheduler _taskScheduler = new TaskScheduler();
+    private final TaskScheduler _taskScheduler = new TaskScheduler();
 
     /**
      * The Vault permission API.
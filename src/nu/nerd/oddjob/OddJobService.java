@@ -0,0 +1,126 @@
+package nu.nerd.oddjob;
+
+import java.util.Collection;
+import java.util.UUID;
+
+// ----------------------------------------------------------------------------
+/**
+ * The public API through which other plugins schedule and query OddJob tasks
+ * without going through the {@code /task} command.
+ * 
+ * An instance is registered with Bukkit's ServicesManager when OddJob is
+ * enabled, and can be obtained with:
+ * 
+ * <pre>
+ * OddJobService oddJob = Bukkit.getServicesManager().load(OddJobService.class);
+ * </pre>
+ * 
+ * All methods must be called from the main server thread. On Folia, they may
+ * be called from any region thread. The collections returned by
+ * {@link #getTasks()} and {@link #findTasks(UUID, String, Long, Long)} are
+ * copies, which do not change as tasks are scheduled or executed.
+ */
+public interface OddJobService {
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule a task, replacing any existing task with the same ID.
+     * 
+     * If the task is due now or in the past, it is executed immediately, or
+     * added to the target player's overdue tasks if they are required to be
+     * online and are not.
+     * 
+     * @param id the unique ID of the task; must not be null or blank.
+     * @param taskTypeId the ID of the task type.
+     * @param playerUuid the UUID of the target player, or null for no target.
+     * @param time the time at which the task is due to execute, expressed as a
+     *        number of milliseconds since Epoch.
+     * @return true if the task was scheduled; false if the ID is null or
+     *         blank, or there is no task type with the specified ID.
+     */
+    public boolean schedule(String id, String taskTypeId, UUID playerUuid, long time);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel the task with the specified ID.
+     * 
+     * @param id the unique ID of the task.
+     * @return true if a task with the specified ID was found, otherwise false.
+     */
+    public boolean cancel(String id);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel all tasks targeting the specified player.
+     * 
+     * @param playerUuid the UUID of the target player.
+     * @return the number of tasks cancelled.
+     */
+    public int cancelAll(UUID playerUuid);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the pending or overdue task with the specified ID.
+     * 
+     * Tasks in the cold tier, due beyond the horizon, are returned as copies.
+     * 
+     * @param id the unique ID of the task.
+     * @return the task, or null if there is no task with that ID.
+     */
+    public Task getTask(String id);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if there is a pending, overdue or cold task with the
+     * specified ID.
+     * 
+     * @param id the unique ID of the task.
+     * @return true if there is a task with the specified ID.
+     */
+    public boolean isScheduled(String id);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of pending and overdue tasks.
+     * 
+     * Tasks in the cold tier are not counted.
+     * 
+     * @return the number of pending and overdue tasks.
+     */
+    public int getTaskCount();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a copy of all pending and overdue tasks.
+     * 
+     * Tasks in the cold tier are not included.
+     * 
+     * @return all pending and overdue tasks.
+     */
+    public Collection<Task> getTasks();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the pending and overdue tasks matching all of the specified
+     * criteria, in ascending order by time.
+     * 
+     * The result is a copy. Tasks in the cold tier are not included.
+     * 
+     * @param playerUuid if not null, only tasks targeting the player with this
+     *        UUID are returned.
+     * @param taskTypeId if not null, only tasks of this type are returned.
+     * @param after if not null, only tasks due at or after this time (in
+     *        milliseconds since Epoch) are returned.
+     * @param before if not null, only tasks due strictly before this time (in
+     *        milliseconds since Epoch) are returned.
+     * @return the matching tasks.
+     */
+    public Collection<Task> findTasks(UUID playerUuid, String taskTypeId, Long after, Long before);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the IDs of all task types defined in the configuration.
+     * 
+     * @return the task type IDs.
+     */
+    public Collection<String> getTaskTypeIds();
+} // class OddJobService
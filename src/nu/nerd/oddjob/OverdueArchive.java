@@ -0,0 +1,323 @@
+package nu.nerd.oddjob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// ----------------------------------------------------------------------------
+/**
+ * A compressed file of overdue tasks that expired before their target player
+ * logged in, from which they can be restored.
+ * 
+ * The archive is a sequence of gzip members, one appended per batch of
+ * expired tasks, so archiving never rewrites earlier records. Each member
+ * contains binary records, as written by {@link DataOutputStream}. All file
+ * access runs on the {@link AsyncActionExecutor} under a single key, so
+ * appends and restores are applied in order, off the main thread.
+ */
+public class OverdueArchive {
+    // ------------------------------------------------------------------------
+    /**
+     * An archived task.
+     * 
+     * Archived tasks are plain data, since {@link Task} instances refer to
+     * OfflinePlayer objects that must be looked up on the main thread.
+     */
+    public static final class ArchivedTask {
+        /**
+         * Constructor.
+         * 
+         * @param id the task ID.
+         * @param taskTypeId the task type ID.
+         * @param playerUuid the target player's UUID.
+         * @param playerName the target player's last known name, or null.
+         * @param time the time the task was due.
+         * @param archivedTime the time the task was archived.
+         */
+        ArchivedTask(String id, String taskTypeId, UUID playerUuid, String playerName, long time, long archivedTime) {
+            _id = id;
+            _taskTypeId = taskTypeId;
+            _playerUuid = playerUuid;
+            _playerName = playerName;
+            _time = time;
+            _archivedTime = archivedTime;
+        }
+
+        /**
+         * Return the task ID.
+         * 
+         * @return the task ID.
+         */
+        public String getId() {
+            return _id;
+        }
+
+        /**
+         * Return the task type ID.
+         * 
+         * @return the task type ID.
+         */
+        public String getTaskTypeId() {
+            return _taskTypeId;
+        }
+
+        /**
+         * Return the target player's UUID.
+         * 
+         * @return the target player's UUID.
+         */
+        public UUID getPlayerUuid() {
+            return _playerUuid;
+        }
+
+        /**
+         * Return the target player's last known name.
+         * 
+         * @return the player name, or null if not known.
+         */
+        public String getPlayerName() {
+            return _playerName;
+        }
+
+        /**
+         * Return the time the task was due, in milliseconds since Epoch.
+         * 
+         * @return the time the task was due.
+         */
+        public long getTime() {
+            return _time;
+        }
+
+        /**
+         * Return the time the task was archived, in milliseconds since Epoch.
+         * 
+         * @return the time the task was archived.
+         */
+        public long getArchivedTime() {
+            return _archivedTime;
+        }
+
+        /**
+         * The task ID.
+         */
+        private final String _id;
+
+        /**
+         * The task type ID.
+         */
+        private final String _taskTypeId;
+
+        /**
+         * The target player's UUID.
+         */
+        private final UUID _playerUuid;
+
+        /**
+         * The target player's last known name, or null.
+         */
+        private final String _playerName;
+
+        /**
+         * The time the task was due.
+         */
+        private final long _time;
+
+        /**
+         * The time the task was archived.
+         */
+        private final long _archivedTime;
+    } // class ArchivedTask
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the archive file.
+     * 
+     * @param file the archive file.
+     * @param logger a logger for reporting errors.
+     */
+    public void configure(File file, Logger logger) {
+        _file = file;
+        _logger = logger;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append expired tasks to the archive.
+     * 
+     * The tasks are encoded on the calling thread and written asynchronously.
+     * 
+     * @param tasks the tasks, all with a target player.
+     * @param now the current time in milliseconds since Epoch.
+     */
+    public void archive(List<Task> tasks, long now) {
+        ArrayList<ArchivedTask> records = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            records.add(new ArchivedTask(task.getId(), task.getTaskTypeId(), task.getOfflinePlayer().getUniqueId(),
+                                         task.getPlayerName(), task.getTime(), now));
+        }
+        File file = _file;
+        OddJob.ASYNC_ACTIONS.submit(ARCHIVE_KEY, () -> {
+            try {
+                append(file, records);
+            } catch (IOException ex) {
+                _logger.severe("Could not archive " + records.size() + " expired tasks: " + ex.getMessage());
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the archived tasks matching a predicate from the archive,
+     * asynchronously.
+     * 
+     * The removed tasks are passed to the callback on the thread that removed
+     * them. If the archive could not be read or rewritten, it is unchanged and
+     * the callback receives null.
+     * 
+     * @param predicate selects the tasks to remove.
+     * @param callback called with the removed tasks.
+     */
+    public void remove(Predicate<ArchivedTask> predicate, Consumer<List<ArchivedTask>> callback) {
+        File file = _file;
+        OddJob.ASYNC_ACTIONS.submit(ARCHIVE_KEY, () -> {
+            List<ArchivedTask> removed;
+            try {
+                removed = rewrite(file, predicate);
+            } catch (IOException ex) {
+                _logger.severe("Could not restore archived tasks: " + ex.getMessage());
+                removed = null;
+            }
+            callback.accept(removed);
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append records to an archive file as a new gzip member.
+     * 
+     * @param file the archive file.
+     * @param records the records.
+     * @throws IOException if the records could not be written.
+     */
+    private static void append(File file, List<ArchivedTask> records) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file, true))))) {
+            write(out, records);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Rewrite an archive file without the records matching a predicate.
+     * 
+     * The file is replaced atomically, and only if some records match.
+     * 
+     * @param file the archive file.
+     * @param predicate selects the records to remove.
+     * @return the removed records.
+     * @throws IOException if the archive could not be read or rewritten.
+     */
+    private static List<ArchivedTask> rewrite(File file, Predicate<ArchivedTask> predicate) throws IOException {
+        ArrayList<ArchivedTask> removed = new ArrayList<>();
+        if (!file.exists()) {
+            return removed;
+        }
+
+        ArrayList<ArchivedTask> kept = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            for (;;) {
+                int tag;
+                try {
+                    tag = in.readUnsignedByte();
+                } catch (EOFException ex) {
+                    break;
+                }
+                if (tag != RECORD_TAG) {
+                    throw new IOException("corrupt archive record");
+                }
+                ArchivedTask record = new ArchivedTask(in.readUTF(), in.readUTF(),
+                                                       new UUID(in.readLong(), in.readLong()),
+                                                       in.readBoolean() ? in.readUTF() : null,
+                                                       in.readLong(), in.readLong());
+                (predicate.test(record) ? removed : kept).add(record);
+            }
+        }
+
+        if (!removed.isEmpty()) {
+            File temp = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+                write(out, kept);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        return removed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write records to a stream.
+     * 
+     * @param out the stream.
+     * @param records the records.
+     * @throws IOException if the records could not be written.
+     */
+    private static void write(DataOutputStream out, List<ArchivedTask> records) throws IOException {
+        for (ArchivedTask record : records) {
+            out.writeByte(RECORD_TAG);
+            out.writeUTF(record.getId());
+            out.writeUTF(record.getTaskTypeId());
+            out.writeLong(record.getPlayerUuid().getMostSignificantBits());
+            out.writeLong(record.getPlayerUuid().getLeastSignificantBits());
+            out.writeBoolean(record.getPlayerName() != null);
+            if (record.getPlayerName() != null) {
+                out.writeUTF(record.getPlayerName());
+            }
+            out.writeLong(record.getTime());
+            out.writeLong(record.getArchivedTime());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The {@link AsyncActionExecutor} key that orders archive operations.
+     */
+    private static final String ARCHIVE_KEY = "oddjob:overdue-archive";
+
+    /**
+     * The byte that begins each record, guarding against corruption.
+     */
+    private static final int RECORD_TAG = 0xA1;
+
+    /**
+     * The archive file.
+     */
+    private volatile File _file;
+
+    /**
+     * A logger for reporting errors.
+     */
+    private Logger _logger = Logger.getLogger("OddJob");
+} // class OverdueArchive
@@ -0,0 +1,280 @@
+package nu.nerd.oddjob;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.Consumer;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+// ----------------------------------------------------------------------------
+/**
+ * Runs plugin code on the right thread for the server implementation.
+ * 
+ * On Bukkit, Spigot and Paper servers, everything except asynchronous work
+ * runs on the main thread through {@link Bukkit#getScheduler()}.
+ * 
+ * Folia has no main thread. Each region of the world ticks on its own thread,
+ * the global region (which owns the console and world-independent state)
+ * ticks on another, and {@link Bukkit#getScheduler()} throws. Code that
+ * affects an entity must run on that entity's scheduler, and console commands
+ * on the global region scheduler. Folia's schedulers are not part of the
+ * Spigot API that OddJob is compiled against, so they are called by
+ * reflection, resolved once when Folia is detected.
+ */
+public class PlatformScheduler {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     * 
+     * Detects whether the server is Folia.
+     */
+    public PlatformScheduler() {
+        Method getGlobalScheduler = null;
+        Method getAsyncScheduler = null;
+        Method globalExecute = null;
+        Method globalRunDelayed = null;
+        Method globalCancelTasks = null;
+        Method asyncRunNow = null;
+        Method asyncCancelTasks = null;
+        Method entityGetScheduler = null;
+        Method entityExecute = null;
+        Method isGlobalTickThread = null;
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            Class<?> global = Class.forName("io.papermc.paper.threadedregions.scheduler.GlobalRegionScheduler");
+            Class<?> async = Class.forName("io.papermc.paper.threadedregions.scheduler.AsyncScheduler");
+            Class<?> entity = Class.forName("io.papermc.paper.threadedregions.scheduler.EntityScheduler");
+            getGlobalScheduler = Server.class.getMethod("getGlobalRegionScheduler");
+            getAsyncScheduler = Server.class.getMethod("getAsyncScheduler");
+            globalExecute = global.getMethod("execute", Plugin.class, Runnable.class);
+            globalRunDelayed = global.getMethod("runDelayed", Plugin.class, Consumer.class, long.class);
+            globalCancelTasks = global.getMethod("cancelTasks", Plugin.class);
+            asyncRunNow = async.getMethod("runNow", Plugin.class, Consumer.class);
+            asyncCancelTasks = async.getMethod("cancelTasks", Plugin.class);
+            entityGetScheduler = Entity.class.getMethod("getScheduler");
+            entityExecute = entity.getMethod("execute", Plugin.class, Runnable.class, Runnable.class, long.class);
+            isGlobalTickThread = Bukkit.class.getMethod("isGlobalTickThread");
+        } catch (ReflectiveOperationException ex) {
+            // Not Folia.
+            globalExecute = null;
+        }
+        _regionized = (globalExecute != null);
+        _getGlobalScheduler = getGlobalScheduler;
+        _getAsyncScheduler = getAsyncScheduler;
+        _globalExecute = globalExecute;
+        _globalRunDelayed = globalRunDelayed;
+        _globalCancelTasks = globalCancelTasks;
+        _asyncRunNow = asyncRunNow;
+        _asyncCancelTasks = asyncCancelTasks;
+        _entityGetScheduler = entityGetScheduler;
+        _entityExecute = entityExecute;
+        _isGlobalTickThread = isGlobalTickThread;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the server ticks regions on separate threads (Folia).
+     * 
+     * @return true if the server is regionized.
+     */
+    public boolean isRegionized() {
+        return _regionized;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the current thread is the main thread, or on Folia, the
+     * global region thread.
+     * 
+     * @return true if console commands can be dispatched from this thread.
+     */
+    public boolean isGlobalThread() {
+        return _regionized ? (Boolean) invoke(_isGlobalTickThread, null) : Bukkit.isPrimaryThread();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task on the next tick of the main thread, or on Folia, the global
+     * region.
+     * 
+     * @param plugin the owning plugin.
+     * @param task the task.
+     */
+    public void runGlobal(Plugin plugin, Runnable task) {
+        if (_regionized) {
+            invoke(_globalExecute, getGlobalScheduler(), plugin, task);
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task after a delay on the main thread, or on Folia, the global
+     * region.
+     * 
+     * @param plugin the owning plugin.
+     * @param task the task.
+     * @param delayTicks the delay in ticks.
+     */
+    public void runGlobalLater(Plugin plugin, Runnable task, long delayTicks) {
+        if (_regionized) {
+            Consumer<Object> consumer = scheduledTask -> task.run();
+            invoke(_globalRunDelayed, getGlobalScheduler(), plugin, consumer, Math.max(1, delayTicks));
+        } else {
+            Bukkit.getScheduler().runTaskLater(plugin, task, delayTicks);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task after a delay on the thread that owns an entity.
+     * 
+     * On Folia, the task runs on the entity's scheduler, and does not run at
+     * all if the entity is removed (e.g. the player logs out) first. Without
+     * an entity, the task runs on the global region. On other servers, the
+     * task runs on the main thread regardless.
+     * 
+     * @param plugin the owning plugin.
+     * @param entity the entity, or null.
+     * @param task the task.
+     * @param delayTicks the delay in ticks; 0 means the next tick.
+     */
+    public void runForEntity(Plugin plugin, Entity entity, Runnable task, long delayTicks) {
+        if (!_regionized) {
+            Bukkit.getScheduler().runTaskLater(plugin, task, delayTicks);
+        } else if (entity == null) {
+            runGlobalLater(plugin, task, delayTicks);
+        } else {
+            Object scheduler = invoke(_entityGetScheduler, entity);
+            invoke(_entityExecute, scheduler, plugin, task, null, Math.max(1, delayTicks));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task asynchronously.
+     * 
+     * @param plugin the owning plugin.
+     * @param task the task.
+     */
+    public void runAsync(Plugin plugin, Runnable task) {
+        if (_regionized) {
+            Consumer<Object> consumer = scheduledTask -> task.run();
+            invoke(_asyncRunNow, invoke(_getAsyncScheduler, Bukkit.getServer()), plugin, consumer);
+        } else {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, task);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel all global and asynchronous tasks of a plugin.
+     * 
+     * Tasks scheduled on Folia entity schedulers cannot be cancelled in bulk;
+     * they are retired with the plugin.
+     * 
+     * @param plugin the plugin.
+     */
+    public void cancelTasks(Plugin plugin) {
+        if (_regionized) {
+            invoke(_globalCancelTasks, getGlobalScheduler(), plugin);
+            invoke(_asyncCancelTasks, invoke(_getAsyncScheduler, Bukkit.getServer()), plugin);
+        } else {
+            Bukkit.getScheduler().cancelTasks(plugin);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return Folia's global region scheduler.
+     * 
+     * @return the global region scheduler.
+     */
+    private Object getGlobalScheduler() {
+        return invoke(_getGlobalScheduler, Bukkit.getServer());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Invoke a method reflectively, unwrapping exceptions it throws.
+     * 
+     * @param method the method.
+     * @param target the target object, or null for a static method.
+     * @param args the arguments.
+     * @return the result.
+     * @throws IllegalStateException if the method could not be invoked.
+     */
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * True if the server is Folia.
+     */
+    private final boolean _regionized;
+
+    /**
+     * {@code Server.getGlobalRegionScheduler()}.
+     */
+    private final Method _getGlobalScheduler;
+
+    /**
+     * {@code Server.getAsyncScheduler()}.
+     */
+    private final Method _getAsyncScheduler;
+
+    /**
+     * {@code GlobalRegionScheduler.execute(Plugin, Runnable)}.
+     */
+    private final Method _globalExecute;
+
+    /**
+     * {@code GlobalRegionScheduler.runDelayed(Plugin, Consumer, long)}.
+     */
+    private final Method _globalRunDelayed;
+
+    /**
+     * {@code GlobalRegionScheduler.cancelTasks(Plugin)}.
+     */
+    private final Method _globalCancelTasks;
+
+    /**
+     * {@code AsyncScheduler.runNow(Plugin, Consumer)}.
+     */
+    private final Method _asyncRunNow;
+
+    /**
+     * {@code AsyncScheduler.cancelTasks(Plugin)}.
+     */
+    private final Method _asyncCancelTasks;
+
+    /**
+     * {@code Entity.getScheduler()}.
+     */
+    private final Method _entityGetScheduler;
+
+    /**
+     * {@code EntityScheduler.execute(Plugin, Runnable, Runnable, long)}.
+     */
+    private final Method _entityExecute;
+
+    /**
+     * {@code Bukkit.isGlobalTickThread()}.
+     */
+    private final Method _isGlobalTickThread;
+} // class PlatformScheduler
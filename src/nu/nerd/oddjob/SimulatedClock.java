@@ -0,0 +1,131 @@
+package nu.nerd.oddjob;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+// ----------------------------------------------------------------------------
+/**
+ * A {@link Clock} that stands still until it is explicitly set or advanced.
+ * 
+ * Installed in a {@link TaskScheduler} with
+ * {@link TaskScheduler#setClock(Clock)}, it allows days or months of
+ * scheduling to be run in seconds, or a long server downtime to be simulated
+ * by jumping ahead.
+ */
+public class SimulatedClock extends Clock {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     * 
+     * @param millis the initial time in milliseconds since Epoch.
+     */
+    public SimulatedClock(long millis) {
+        this(millis, ZoneOffset.UTC);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the current time.
+     * 
+     * @param millis the time in milliseconds since Epoch.
+     */
+    public void setMillis(long millis) {
+        _millis = millis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Move the current time forwards (or backwards, if negative).
+     * 
+     * @param millis the number of milliseconds to add.
+     */
+    public void advance(long millis) {
+        _millis += millis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Move the current time forwards (or backwards, if negative).
+     * 
+     * @param duration the duration to add.
+     */
+    public void advance(Duration duration) {
+        advance(duration.toMillis());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.time.Clock#millis()
+     */
+    @Override
+    public long millis() {
+        return _millis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.time.Clock#instant()
+     */
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(_millis);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.time.Clock#getZone()
+     */
+    @Override
+    public ZoneId getZone() {
+        return _zone;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a clock with the same time in the specified zone.
+     * 
+     * The returned clock is a snapshot; it does not follow changes to this
+     * clock.
+     * 
+     * @see java.time.Clock#withZone(java.time.ZoneId)
+     */
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return new SimulatedClock(_millis, zone);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "SimulatedClock[" + instant() + "," + _zone + "]";
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     * 
+     * @param millis the initial time in milliseconds since Epoch.
+     * @param zone the time zone.
+     */
+    private SimulatedClock(long millis, ZoneId zone) {
+        _millis = millis;
+        _zone = zone;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The current time in milliseconds since Epoch.
+     */
+    private volatile long _millis;
+
+    /**
+     * The time zone.
+     */
+    private final ZoneId _zone;
+} // class SimulatedClock
@@ -0,0 +1,420 @@
+package nu.nerd.oddjob;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.CommandSender;
+
+import net.md_5.bungee.api.ChatColor;
+import nu.nerd.oddjob.metrics.Histogram;
+
+// ----------------------------------------------------------------------------
+/**
+ * Generates synthetic tasks on a live server to measure the cost of the
+ * scheduler under load.
+ * 
+ * Stress tasks use dedicated no-op task types that are bound directly to the
+ * tasks, rather than registered with the plugin, so they never collide with
+ * configured task types and are unaffected by reloads. Their target players
+ * are synthetic offline players that never join, so tasks requiring an online
+ * player end up in the overdue queues, as they would for real absent players.
+ * 
+ * When the run finishes, the insertion throughput, queue run time, task
+ * lateness and heap usage are reported to the command sender and all
+ * remaining stress tasks are cancelled.
+ */
+public class StressTest {
+    // ------------------------------------------------------------------------
+    /**
+     * Start a stress test.
+     * 
+     * @param sender the command sender, to whom results are reported.
+     * @param count the number of tasks to generate.
+     * @param spreadSeconds the tasks are due at random times up to this many
+     *        seconds from now.
+     * @param players the number of distinct synthetic target players; if 0,
+     *        tasks have no target player.
+     * @param onlinePercent the percentage of tasks whose type requires the
+     *        target player to be online.
+     * @return false if a stress test is already running.
+     */
+    public boolean start(CommandSender sender, int count, int spreadSeconds, int players, int onlinePercent) {
+        if (isRunning()) {
+            return false;
+        }
+
+        _sender = sender;
+        _count = count;
+        _offlineType.reset();
+        _onlineType.reset();
+        long heapBefore = getHeapUsed();
+
+        OfflinePlayer[] targets = new OfflinePlayer[players];
+        for (int i = 0; i < players; ++i) {
+            targets[i] = createPlayer(UUID.randomUUID(), "stress-" + i);
+        }
+
+        TaskScheduler scheduler = OddJob.PLUGIN.getTaskScheduler();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long spreadMillis = spreadSeconds * 1000L;
+        long now = scheduler.getClock().millis();
+        ArrayList<Task> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            OfflinePlayer player = (players == 0) ? null : targets[random.nextInt(players)];
+            StressTaskType taskType = (random.nextInt(100) < onlinePercent) ? _onlineType : _offlineType;
+            long time = now + 1 + (spreadMillis > 0 ? random.nextLong(spreadMillis) : 0);
+            tasks.add(new StressTask(TASK_ID_PREFIX + i, taskType, player, time));
+        }
+
+        long start = System.nanoTime();
+        for (Task task : tasks) {
+            scheduler.scheduleTask(task);
+        }
+        long insertNanos = System.nanoTime() - start;
+        long heapAfter = getHeapUsed();
+        _drainBefore = OddJob.METRICS.getDrainMicros();
+
+        sender.sendMessage(ChatColor.GOLD + "Inserted " + ChatColor.YELLOW + count +
+                           ChatColor.GOLD + " stress tasks in " + ChatColor.YELLOW + formatMillis(insertNanos) +
+                           ChatColor.GOLD + " (" + ChatColor.YELLOW + (long) (count * 1e9 / Math.max(insertNanos, 1)) +
+                           ChatColor.GOLD + " tasks/s).");
+        sender.sendMessage(ChatColor.GOLD + "Heap used: " + ChatColor.YELLOW + formatMegabytes(heapBefore) +
+                           ChatColor.GOLD + " before, " + ChatColor.YELLOW + formatMegabytes(heapAfter) +
+                           ChatColor.GOLD + " after insertion. Results in " + ChatColor.YELLOW + (spreadSeconds + SETTLE_SECONDS) +
+                           ChatColor.GOLD + " seconds.");
+
+        Object run = new Object();
+        _run = run;
+        OddJob.PLATFORM.runGlobalLater(OddJob.PLUGIN, () -> {
+            if (_run == run) {
+                finish();
+            }
+        }, (spreadSeconds + SETTLE_SECONDS) * 20L);
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Abandon the running stress test, if any, and cancel its remaining tasks
+     * without reporting results.
+     * 
+     * @return the number of stress tasks cancelled.
+     */
+    public int stop() {
+        if (!isRunning()) {
+            return 0;
+        }
+        return cleanUp();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a stress test is running.
+     * 
+     * @return true if a stress test is running.
+     */
+    public boolean isRunning() {
+        return _run != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Report the results of the stress test and clean up.
+     */
+    private void finish() {
+        CommandSender sender = _sender;
+        Histogram drain = OddJob.METRICS.getDrainMicros().since(_drainBefore);
+        Histogram lateness = _offlineType.getLateness();
+        Histogram onlineLateness = _onlineType.getLateness();
+        long executed = lateness.getCount() + onlineLateness.getCount();
+        long heapUsed = getHeapUsed();
+        int cancelled = cleanUp();
+
+        sender.sendMessage(ChatColor.GOLD + "Stress test of " + ChatColor.YELLOW + _count +
+                           ChatColor.GOLD + " tasks: " + ChatColor.YELLOW + executed +
+                           ChatColor.GOLD + " executed, " + ChatColor.YELLOW + cancelled +
+                           ChatColor.GOLD + " left over (overdue for absent players) and cancelled.");
+        sendHistogram(sender, "Queue run time per tick", drain, "us");
+        sendHistogram(sender, "Lateness (online not required)", lateness, "ms");
+        sendHistogram(sender, "Lateness (online required)", onlineLateness, "ms");
+        sender.sendMessage(ChatColor.GOLD + "Heap used before clean up: " + ChatColor.YELLOW + formatMegabytes(heapUsed) +
+                           ChatColor.GOLD + ".");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel all remaining stress tasks and forget the running stress test.
+     * 
+     * @return the number of tasks cancelled.
+     */
+    private int cleanUp() {
+        TaskScheduler scheduler = OddJob.PLUGIN.getTaskScheduler();
+        int cancelled = 0;
+        for (int i = 0; i < _count; ++i) {
+            if (scheduler.cancelTask(TASK_ID_PREFIX + i)) {
+                ++cancelled;
+            }
+        }
+        _run = null;
+        _sender = null;
+        _drainBefore = null;
+        return cancelled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Send a one-line summary of a histogram to the command sender.
+     * 
+     * @param sender the command sender.
+     * @param title the title of the histogram.
+     * @param histogram the histogram.
+     * @param units the units of the recorded values.
+     */
+    private static void sendHistogram(CommandSender sender, String title, Histogram histogram, String units) {
+        sender.sendMessage(ChatColor.GOLD + title + ": " +
+                           ChatColor.YELLOW + histogram.getCount() + ChatColor.GOLD + " samples, p50 " +
+                           ChatColor.YELLOW + histogram.getPercentile(50) + units + ChatColor.GOLD + ", p95 " +
+                           ChatColor.YELLOW + histogram.getPercentile(95) + units + ChatColor.GOLD + ", p99 " +
+                           ChatColor.YELLOW + histogram.getPercentile(99) + units + ChatColor.GOLD + ", max " +
+                           ChatColor.YELLOW + histogram.getMax() + units);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of bytes of heap in use.
+     * 
+     * @return the heap used, in bytes.
+     */
+    private static long getHeapUsed() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format a number of bytes as megabytes.
+     * 
+     * @param bytes the number of bytes.
+     * @return the formatted size, e.g. "12.3MB".
+     */
+    private static String formatMegabytes(long bytes) {
+        return String.format("%.1fMB", bytes / (1024.0 * 1024.0));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format a duration in nanoseconds as milliseconds.
+     * 
+     * @param nanos the duration in nanoseconds.
+     * @return the formatted duration, e.g. "1.234ms".
+     */
+    private static String formatMillis(long nanos) {
+        return String.format("%.3fms", nanos / 1e6);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a synthetic offline player that never joins the server.
+     * 
+     * The server's own OfflinePlayer implementation may look up profiles or
+     * player data files, which would dominate the cost of the test.
+     * 
+     * @param uuid the UUID.
+     * @param name the name.
+     * @return the synthetic player.
+     */
+    private static OfflinePlayer createPlayer(UUID uuid, String name) {
+        return (OfflinePlayer) Proxy.newProxyInstance(StressTest.class.getClassLoader(), new Class<?>[] { OfflinePlayer.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "getUniqueId":
+                    return uuid;
+                case "getName":
+                case "toString":
+                    return name;
+                case "hashCode":
+                    return uuid.hashCode();
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    Class<?> type = method.getReturnType();
+                    if (type == boolean.class) {
+                        return false;
+                    } else if (type == long.class) {
+                        return 0L;
+                    } else if (type == int.class) {
+                        return 0;
+                    }
+                    return null;
+                }
+            });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A task that refers to its {@link StressTaskType} directly, rather than
+     * by ID.
+     */
+    private static final class StressTask extends Task {
+        /**
+         * Constructor.
+         * 
+         * @param id the unique ID of this task instance.
+         * @param taskType the task type.
+         * @param player the target player, or null.
+         * @param time the time at which this task is due.
+         */
+        StressTask(String id, StressTaskType taskType, OfflinePlayer player, long time) {
+            super(id, taskType.getId(), player, time);
+            _taskType = taskType;
+        }
+
+        /**
+         * @see nu.nerd.oddjob.Task#getTaskType()
+         */
+        @Override
+        public TaskType getTaskType() {
+            return _taskType;
+        }
+
+        /**
+         * The task type.
+         */
+        private final StressTaskType _taskType;
+    } // class StressTask
+
+    // ------------------------------------------------------------------------
+    /**
+     * A task type that does nothing when executed, other than recording the
+     * lateness of the task.
+     */
+    private static final class StressTaskType extends TaskType {
+        /**
+         * Constructor.
+         * 
+         * @param id the task type ID.
+         * @param online true if the target player must be online.
+         */
+        StressTaskType(String id, boolean online) {
+            _id = id;
+            _online = online;
+        }
+
+        /**
+         * @see nu.nerd.oddjob.TaskType#execute(nu.nerd.oddjob.Task, long)
+         */
+        @Override
+        public void execute(Task task, long drain) {
+            long lateness = OddJob.PLUGIN.currentTimeMillis() - task.getTime();
+            synchronized (_lateness) {
+                _lateness.record(lateness);
+            }
+        }
+
+        /**
+         * @see nu.nerd.oddjob.TaskType#getId()
+         */
+        @Override
+        public String getId() {
+            return _id;
+        }
+
+        /**
+         * @see nu.nerd.oddjob.TaskType#getPermission()
+         */
+        @Override
+        public String getPermission() {
+            return null;
+        }
+
+        /**
+         * @see nu.nerd.oddjob.TaskType#isOnline()
+         */
+        @Override
+        public boolean isOnline() {
+            return _online;
+        }
+
+        /**
+         * Return the lateness of executed tasks, in milliseconds.
+         * 
+         * @return a copy of the lateness histogram.
+         */
+        Histogram getLateness() {
+            synchronized (_lateness) {
+                return _lateness.copy();
+            }
+        }
+
+        /**
+         * Discard recorded lateness.
+         */
+        void reset() {
+            synchronized (_lateness) {
+                _lateness.reset();
+            }
+        }
+
+        /**
+         * The task type ID.
+         */
+        private final String _id;
+
+        /**
+         * True if the target player must be online.
+         */
+        private final boolean _online;
+
+        /**
+         * The lateness of executed tasks, in milliseconds.
+         */
+        private final Histogram _lateness = new Histogram();
+    } // class StressTaskType
+
+    // ------------------------------------------------------------------------
+    /**
+     * The prefix of stress task IDs.
+     */
+    private static final String TASK_ID_PREFIX = "oddjob-stress-";
+
+    /**
+     * The number of seconds after the last task is due before results are
+     * reported.
+     */
+    private static final int SETTLE_SECONDS = 2;
+
+    /**
+     * The task type of tasks whose player need not be online.
+     */
+    private final StressTaskType _offlineType = new StressTaskType("oddjob-stress", false);
+
+    /**
+     * The task type of tasks whose player must be online.
+     */
+    private final StressTaskType _onlineType = new StressTaskType("oddjob-stress-online", true);
+
+    /**
+     * The command sender to whom results are reported.
+     */
+    private CommandSender _sender;
+
+    /**
+     * The number of tasks generated.
+     */
+    private int _count;
+
+    /**
+     * A copy of the scheduler's queue run time histogram taken when the tasks
+     * were inserted.
+     */
+    private Histogram _drainBefore;
+
+    /**
+     * Identifies the running stress test, so that the delayed report of an
+     * abandoned test does nothing; null if not running.
+     */
+    private Object _run;
+} // class StressTest
@@ -46,14 +46,18 @@ public class Task implements Comparable<Task> {
     // ------------------------------------------------------------------------
     /**
      * Execute this task.
+     * 
+     * @param drain the scheduler drain in which the task is executed, within
+     *        which identical idempotent commands run only once.
      */
-    public void execute() {
+    public void execute(long drain) {
         TaskType taskType = getTaskType();
         if (taskType != null) {
             if (OddJob.CONFIG.DEBUG_TASKS) {
                 OddJob.PLUGIN.getLogger().info("Executing task " + getId() + " of type " + getTaskTypeId() + ".");
             }
-            taskType.execute(this);
+            taskType.execute(this, drain);
+            _rendering = null;
         } else {
             Logger logger = OddJob.PLUGIN.getLogger();
             logger.warning("Task " + getId() + " did nothing because its task type (" +
@@ -61,6 +65,29 @@ public class Task implements Comparable<Task> {
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Set the actions of this task as rendered in advance, to be used by the
+     * next call to {@link #execute(long)}.
+     * 
+     * @param rendering the rendered actions.
+     */
+    void setRendering(TaskType.Rendering rendering) {
+        _rendering = rendering;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the actions of this task as rendered in advance, and forget them.
+     * 
+     * @return the rendered actions, or null if not rendered in advance.
+     */
+    TaskType.Rendering takeRendering() {
+        TaskType.Rendering rendering = _rendering;
+        _rendering = null;
+        return rendering;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return true if this Task has no player target, requires no specific
@@ -349,4 +376,9 @@ public class Task implements Comparable<Task> {
      * The task's scheduled time expressed as milliseconds since Epoch.
      */
     private long _time;
+
+    /**
+     * The actions of this task as rendered in advance of execution, or null.
+     */
+    private TaskType.Rendering _rendering;
 } // class Task
\ No newline at end of file
@@ -1,21 +1,64 @@
 package nu.nerd.oddjob;
 
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NavigableSet;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
-import org.bukkit.OfflinePlayer;
+import org.bukkit.Bukkit;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
 
-import com.google.common.collect.TreeMultimap;
+import com.google.common.collect.Collections2;
+
+import nu.nerd.oddjob.metrics.OverdueFlushEvent;
+import nu.nerd.oddjob.metrics.TaskDrainEvent;
+import nu.nerd.oddjob.metrics.TaskExecuteEvent;
+import nu.nerd.oddjob.store.ColdTaskStore;
+import nu.nerd.oddjob.store.SharedTaskStore;
 
 // ----------------------------------------------------------------------------
 /**
  * An object that schedules execution of {@link Task} instances.
+ * 
+ * Public methods are synchronized, since on Folia servers tasks are
+ * scheduled, cancelled and flushed on login from several region threads.
+ * Methods that return tasks or task IDs return copies taken under the lock,
+ * so that callers can use them on any thread. On
+ * Folia, {@link #executeTask(Task, boolean)} starts each task on the global
+ * region, where its broadcasts and console commands run; its player commands
+ * then run on the target player's region.
+ * 
+ * The pending and overdue queues are partitioned into {@link TaskShard}s by
+ * target player. Due tasks are assessed on the server thread, since player
+ * and permission lookups are not thread-safe. Those that can execute are
+ * rendered shard by shard, in parallel on the scheduler's own threads if there
+ * is more than one player shard, and then executed serially in shard order,
+ * and in time order within each shard. Once a task with commands has run,
+ * later tasks' requirements are checked again just before they run.
+ * 
+ * When the {@link SharedTaskStore} is open, tasks that fall due while their
+ * target player is offline are published to the store instead of the local
+ * overdue queue, and are executed by whichever server claims them.
+ * 
+ * When the {@link ColdTaskStore} is enabled, tasks due beyond the horizon are
+ * kept in the store instead of the pending queue, and are paged in by
+ * {@link #pageInColdTasks()} as their partition's window approaches. Cold
+ * tasks can be looked up by ID and cancelled, but are not included in views
+ * of the task queues or in {@code tasks.yml}.
  */
 public class TaskScheduler {
     // ------------------------------------------------------------------------
@@ -27,19 +70,75 @@ public class TaskScheduler {
      * currently online (that needs to be) will be moved to the overdue queue
      * for that player.
      */
-    public void runPendingTasks() {
-        for (;;) {
+    public synchronized void runPendingTasks() {
+        TaskDrainEvent event = new TaskDrainEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int count = 0;
+        long now = currentTimeMillis();
+        beginDrain(now);
+        try {
             Long earliestTime = getEarliestTime();
-            if (earliestTime == null || System.currentTimeMillis() < earliestTime) {
-                return;
-            }
+            if (earliestTime != null && now >= earliestTime) {
+                event.lateness = now - earliestTime;
 
-            for (Task task : getTasksAtTime(earliestTime)) {
-                if (OddJob.CONFIG.DEBUG_TASKS) {
-                    OddJob.PLUGIN.getLogger().info("Task " + task.getId() + " is due.");
+                // Assess each shard's due tasks on this thread, since player and
+                // permission lookups are not thread-safe, without modifying the
+                // shards.
+                TaskShard[] shards = _shards;
+                @SuppressWarnings("unchecked")
+                List<DueTask>[] dueTasks = new List[shards.length];
+                for (int i = 0; i < shards.length; ++i) {
+                    dueTasks[i] = assessDueTasks(shards[i], now);
+                }
+
+                // Render the tasks that can execute, in parallel if sharded.
+                if (shards.length > 2) {
+                    prepareDueTasksInParallel(dueTasks, now);
+                } else {
+                    for (List<DueTask> shardTasks : dueTasks) {
+                        prepareDueTasks(shardTasks, now);
+                    }
+                }
+
+                // Dispatch serially, shard by shard, in time order within each.
+                boolean recheck = false;
+                for (List<DueTask> shardTasks : dueTasks) {
+                    for (DueTask due : shardTasks) {
+                        Task task = due._task;
+                        if (_tasksById.get(task.getId()) != task) {
+                            // Cancelled or replaced by an earlier task's actions.
+                            continue;
+                        }
+                        if (OddJob.CONFIG.DEBUG_TASKS) {
+                            OddJob.PLUGIN.getLogger().info("Task " + task.getId() + " is due.");
+                        }
+                        removePendingTask(task.getId());
+
+                        Outcome outcome = due._outcome;
+                        if (recheck) {
+                            // An earlier task's commands may have kicked the
+                            // player or changed their permissions.
+                            outcome = assessDueTask(task);
+                            if (outcome != Outcome.EXECUTE) {
+                                task.setRendering(null);
+                            }
+                        }
+                        dispatchDueTask(task, outcome);
+                        if (outcome == Outcome.EXECUTE && hasCommands(task)) {
+                            recheck = true;
+                        }
+                        ++count;
+                    }
                 }
-                taskIsDue(task);
             }
+        } finally {
+            endDrain();
+        }
+        OddJob.METRICS.drained(System.nanoTime() - start, count);
+        if (count > 0 && event.shouldCommit()) {
+            event.tasks = count;
+            event.commit();
         }
     }
 
@@ -50,24 +149,39 @@ public class TaskScheduler {
      * 
      * @param player the player whose overdue tasks are run.
      */
-    public void executeOverdueTasksFor(Player player) {
-        TreeSet<Task> overdue = _overdueTasks.remove(player.getUniqueId());
+    public synchronized void executeOverdueTasksFor(Player player) {
+        TreeSet<Task> overdue = getShard(player.getUniqueId()).removeOverdueTasksFor(player.getUniqueId());
         if (overdue != null) {
-            if (OddJob.CONFIG.DEBUG_TASKS) {
-                OddJob.PLUGIN.getLogger().info(player.getName() + " has overdue tasks.");
-            }
-            for (Task task : overdue) {
-                _tasksById.remove(task.getId());
-                if (task.isPermissionSatisfied()) {
-                    if (OddJob.CONFIG.DEBUG_TASKS) {
-                        OddJob.PLUGIN.getLogger().info("Permission check satisfied for task " + task.getId() + ".");
-                    }
-                    task.execute();
-                } else {
-                    if (OddJob.CONFIG.DEBUG_TASKS) {
-                        OddJob.PLUGIN.getLogger().info("Permission check failed for task " + task.getId() + ".");
+            beginDrain(currentTimeMillis());
+            try {
+                if (OddJob.CONFIG.DEBUG_TASKS) {
+                    OddJob.PLUGIN.getLogger().info(player.getName() + " has overdue tasks.");
+                }
+                OverdueFlushEvent event = new OverdueFlushEvent();
+                event.begin();
+                for (Task task : overdue) {
+                    removeIndexes(task);
+                    if (isPermissionSatisfied(task)) {
+                        if (OddJob.CONFIG.DEBUG_TASKS) {
+                            OddJob.PLUGIN.getLogger().info("Permission check satisfied for task " + task.getId() + ".");
+                        }
+                        executeTask(task, true);
+                    } else {
+                        if (OddJob.CONFIG.DEBUG_TASKS) {
+                            OddJob.PLUGIN.getLogger().info("Permission check failed for task " + task.getId() + ".");
+                        }
+                        OddJob.METRICS.permissionFailed();
+                        OddJob.AUDIT.record(AuditLog.Event.PERMISSION_FAIL, task);
                     }
                 }
+                if (event.shouldCommit()) {
+                    event.player = player.getName();
+                    event.tasks = overdue.size();
+                    event.lateness = currentTimeMillis() - overdue.first().getTime();
+                    event.commit();
+                }
+            } finally {
+                endDrain();
             }
         } else {
             if (OddJob.CONFIG.DEBUG_TASKS) {
@@ -76,6 +190,48 @@ public class TaskScheduler {
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Execute overdue tasks claimed from the {@link SharedTaskStore}.
+     * 
+     * Each task is completed (deleted from the store) once executed, or if its
+     * task type is unknown or its target lacks the required permission. Tasks
+     * whose target player is no longer online on this server are released, so
+     * that the server they joined can claim them.
+     * 
+     * @param claims the claimed tasks.
+     */
+    public synchronized void executeClaimedTasks(List<SharedTaskStore.Claim> claims) {
+        SharedTaskStore store = OddJob.STORE;
+        beginDrain(currentTimeMillis());
+        try {
+            for (SharedTaskStore.Claim claim : claims) {
+                Task task = new Task(claim.getId(), claim.getTaskTypeId(),
+                                     Bukkit.getOfflinePlayer(claim.getPlayerUuid()), claim.getTime());
+                if (task.getTaskType() == null) {
+                    OddJob.PLUGIN.getLogger().warning("Shared task " + task.getId() + " did nothing because its task type (" +
+                                                      task.getTaskTypeId() + ") is invalid.");
+                    store.complete(task.getId());
+                } else if (!isOnlineSatisfied(task)) {
+                    store.release(task.getId());
+                } else {
+                    if (isPermissionSatisfied(task)) {
+                        if (OddJob.CONFIG.DEBUG_TASKS) {
+                            OddJob.PLUGIN.getLogger().info("Executing shared task " + task.getId() + ".");
+                        }
+                        executeTask(task, true);
+                    } else {
+                        OddJob.METRICS.permissionFailed();
+                        OddJob.AUDIT.record(AuditLog.Event.PERMISSION_FAIL, task);
+                    }
+                    store.complete(task.getId());
+                }
+            }
+        } finally {
+            endDrain();
+        }
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Add a new {@link Task} to the time scheduled execution queue, or execute
@@ -86,13 +242,70 @@ public class TaskScheduler {
      * 
      * @param task the task to be scheduled for execution.
      */
-    public void scheduleTask(Task task) {
-        cancelTask(task.getId());
-        if (System.currentTimeMillis() >= task.getTime()) {
-            taskIsDue(task);
-        } else {
-            addPendingTask(task);
+    public synchronized void scheduleTask(Task task) {
+        removeTask(task.getId());
+        if (OddJob.STORE.isOpen()) {
+            // Replace any copy overdue on another server.
+            OddJob.STORE.remove(task.getId());
+        }
+        OddJob.METRICS.taskScheduled();
+        OddJob.AUDIT.record(AuditLog.Event.SCHEDULE, task);
+        OddJob.TRACE.recordSchedule(task);
+        long now = currentTimeMillis();
+        beginDrain(now);
+        try {
+            insertTask(task, now);
+        } finally {
+            endDrain();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule a batch of {@link Task}s as if by {@link #scheduleTask(Task)}.
+     * 
+     * Tasks with no ID or an unknown task type are skipped. If the batch
+     * contains more than one task with the same ID, only the last of them is
+     * scheduled. The remaining tasks are sorted by time before insertion, so
+     * that tasks that are already due execute in time order.
+     * 
+     * @param tasks the tasks to be scheduled for execution.
+     * @return the number of tasks scheduled.
+     */
+    public synchronized int scheduleAll(Collection<Task> tasks) {
+        HashMap<String, Task> unique = new HashMap<>(tasks.size() * 4 / 3 + 1);
+        for (Task task : tasks) {
+            if (task.getId() == null) {
+                OddJob.PLUGIN.getLogger().warning("A task of type " + task.getTaskTypeId() +
+                                                  " was not scheduled because it has no ID.");
+            } else if (task.getTaskType() == null) {
+                OddJob.PLUGIN.getLogger().warning("Task " + task.getId() + " was not scheduled because its task type (" +
+                                                  task.getTaskTypeId() + ") is invalid.");
+            } else {
+                unique.put(task.getId(), task);
+            }
+        }
+
+        ArrayList<Task> sorted = new ArrayList<>(unique.values());
+        Collections.sort(sorted);
+        long now = currentTimeMillis();
+        boolean shared = OddJob.STORE.isOpen();
+        beginDrain(now);
+        try {
+            for (Task task : sorted) {
+                removeTask(task.getId());
+                if (shared) {
+                    OddJob.STORE.remove(task.getId());
+                }
+                OddJob.METRICS.taskScheduled();
+                OddJob.AUDIT.record(AuditLog.Event.SCHEDULE, task);
+                OddJob.TRACE.recordSchedule(task);
+                insertTask(task, now);
+            }
+        } finally {
+            endDrain();
         }
+        return sorted.size();
     }
 
     // ------------------------------------------------------------------------
@@ -102,24 +315,314 @@ public class TaskScheduler {
      * @param id the unique ID.
      * @return true if a task with the specified ID was found, otherwise false.
      */
-    public boolean cancelTask(String id) {
-        Task task = removePendingTask(id);
-        boolean found = (task != null);
-        if (found) {
-            removeOverdueTask(task);
+    public synchronized boolean cancelTask(String id) {
+        if (OddJob.STORE.isOpen()) {
+            OddJob.STORE.remove(id);
+        }
+        return cancelLocalTask(id);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel the pending, overdue or cold task with the specified ID, without
+     * removing it from the {@link SharedTaskStore}.
+     * 
+     * @param id the unique ID.
+     * @return true if a task with the specified ID was found, otherwise false.
+     */
+    private boolean cancelLocalTask(String id) {
+        Task task = removeTask(id);
+        if (task != null) {
+            OddJob.METRICS.taskCancelled();
+            OddJob.AUDIT.record(AuditLog.Event.CANCEL, task);
+            OddJob.TRACE.recordCancel(id);
         }
-        return found;
+        return task != null;
     }
 
     // ------------------------------------------------------------------------
     /**
      * Return the task instance with the specified ID.
      * 
+     * Cold tasks are returned as new instances, since they are not held in
+     * memory.
+     * 
      * @param id the unique ID.
-     * @return the task instance with the specified ID.
+     * @return the task instance with the specified ID, or null if not found.
+     */
+    public synchronized Task getTask(String id) {
+        Task task = _tasksById.get(id);
+        return (task != null) ? task : OddJob.COLD.getTask(id);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of pending and overdue tasks.
+     * 
+     * @return the number of pending and overdue tasks.
+     */
+    public synchronized int getTaskCount() {
+        return _tasksById.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of tasks whose scheduled time has not yet arrived.
+     * 
+     * @return the number of pending tasks.
+     */
+    public synchronized int getPendingTaskCount() {
+        int count = 0;
+        for (TaskShard shard : _shards) {
+            count += shard.getPendingTaskCount();
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of players with overdue tasks.
+     * 
+     * @return the number of players with overdue tasks.
+     */
+    public synchronized int getOverduePlayerCount() {
+        int count = 0;
+        for (TaskShard shard : _shards) {
+            count += shard.getOverdueTasks().size();
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the largest number of overdue tasks awaiting any one player.
+     * 
+     * This method visits every player with overdue tasks.
+     * 
+     * @return the largest number of overdue tasks for one player.
+     */
+    public synchronized int getMaxOverdueTasksPerPlayer() {
+        int max = 0;
+        for (TaskShard shard : _shards) {
+            for (TreeSet<Task> tasks : shard.getOverdueTasks()) {
+                max = Math.max(max, tasks.size());
+            }
+        }
+        return max;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a copy of all pending and overdue tasks.
+     * 
+     * @return all pending and overdue tasks.
+     */
+    public synchronized Collection<Task> getAllTasks() {
+        return new ArrayList<>(_tasksById.values());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the IDs of pending and overdue tasks that start with the
+     * specified prefix, in ascending order.
+     * 
+     * This is used when tab completing task IDs.
+     * 
+     * @param prefix the prefix.
+     * @param limit the maximum number of IDs to return.
+     * @return a copy of the matching task IDs.
+     */
+    public synchronized List<String> getTaskIdsStartingWith(String prefix, int limit) {
+        ArrayList<String> ids = new ArrayList<>();
+        for (String id : _taskIds.tailSet(prefix, true)) {
+            if (!id.startsWith(prefix) || ids.size() >= limit) {
+                break;
+            }
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the pending and overdue tasks matching all of the specified
+     * criteria, in ascending order by time.
+     * 
+     * @param playerUuid if not null, only tasks targeting the player with this
+     *        UUID are returned.
+     * @param taskTypeId if not null, only tasks of this type are returned.
+     * @param after if not null, only tasks whose time is at or after this time
+     *        are returned.
+     * @param before if not null, only tasks whose time is strictly before this
+     *        time are returned.
+     * @return a copy of the matching tasks.
+     */
+    public synchronized Collection<Task> findTasks(UUID playerUuid, String taskTypeId, Long after, Long before) {
+        return new ArrayList<>(getMatchingTasks(playerUuid, taskTypeId, after, before));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return one page of the pending and overdue tasks matching all of the
+     * specified criteria, in ascending order by time.
+     * 
+     * Only the requested page is copied; preceding matches are skipped in
+     * place.
+     * 
+     * @param playerUuid if not null, only tasks targeting the player with this
+     *        UUID are returned.
+     * @param taskTypeId if not null, only tasks of this type are returned.
+     * @param after if not null, only tasks whose time is at or after this time
+     *        are returned.
+     * @param before if not null, only tasks whose time is strictly before this
+     *        time are returned.
+     * @param offset the number of matching tasks to skip.
+     * @param limit the maximum number of tasks to return.
+     * @return a copy of the page of matching tasks.
+     */
+    public synchronized List<Task> findTasks(UUID playerUuid, String taskTypeId, Long after, Long before,
+                                             int offset, int limit) {
+        ArrayList<Task> page = new ArrayList<>(Math.max(0, limit));
+        Iterator<Task> it = getMatchingTasks(playerUuid, taskTypeId, after, before).iterator();
+        for (int i = 0; i < offset && it.hasNext(); ++i) {
+            it.next();
+        }
+        while (page.size() < limit && it.hasNext()) {
+            page.add(it.next());
+        }
+        return page;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of pending and overdue tasks matching all of the
+     * specified criteria.
+     * 
+     * @param playerUuid if not null, only tasks targeting the player with this
+     *        UUID are counted.
+     * @param taskTypeId if not null, only tasks of this type are counted.
+     * @param after if not null, only tasks whose time is at or after this time
+     *        are counted.
+     * @param before if not null, only tasks whose time is strictly before this
+     *        time are counted.
+     * @return the number of matching tasks.
      */
-    public Task getTask(String id) {
-        return _tasksById.get(id);
+    public synchronized int countTasks(UUID playerUuid, String taskTypeId, Long after, Long before) {
+        return getMatchingTasks(playerUuid, taskTypeId, after, before).size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a view of the pending and overdue tasks matching all of the
+     * specified criteria, in ascending order by time.
+     * 
+     * The tasks are drawn from the most selective available index: the target
+     * player's tasks, else tasks of the specified type, else all tasks. The
+     * view must only be used under the lock.
+     * 
+     * @param playerUuid if not null, only tasks targeting the player with this
+     *        UUID are included.
+     * @param taskTypeId if not null, only tasks of this type are included.
+     * @param after if not null, only tasks whose time is at or after this time
+     *        are included.
+     * @param before if not null, only tasks whose time is strictly before this
+     *        time are included.
+     * @return a view of the matching tasks.
+     */
+    private Collection<Task> getMatchingTasks(UUID playerUuid, String taskTypeId, Long after, Long before) {
+        NavigableSet<Task> tasks;
+        if (playerUuid != null) {
+            tasks = _tasksByPlayer.get(playerUuid);
+        } else if (taskTypeId != null) {
+            tasks = _tasksByType.get(taskTypeId);
+        } else {
+            tasks = _tasksByTime;
+        }
+        if (tasks == null) {
+            return Collections.emptyList();
+        }
+
+        if (after != null && before != null) {
+            tasks = (after < before) ? tasks.subSet(timeBound(after), true, timeBound(before), false)
+                                     : Collections.emptyNavigableSet();
+        } else if (after != null) {
+            tasks = tasks.tailSet(timeBound(after), true);
+        } else if (before != null) {
+            tasks = tasks.headSet(timeBound(before), false);
+        }
+
+        if (playerUuid != null && taskTypeId != null) {
+            return Collections2.filter(tasks, t -> taskTypeId.equals(t.getTaskTypeId()));
+        }
+        return tasks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel all pending, overdue and cold tasks targeting the specified
+     * player.
+     * 
+     * @param playerUuid the UUID of the target player.
+     * @return the number of tasks cancelled.
+     */
+    public synchronized int cancelTasksFor(UUID playerUuid) {
+        if (OddJob.STORE.isOpen()) {
+            OddJob.STORE.removeFor(playerUuid);
+        }
+        ArrayList<String> cancelled = new ArrayList<>(OddJob.COLD.getTaskIdsFor(playerUuid));
+        TreeSet<Task> tasks = _tasksByPlayer.get(playerUuid);
+        if (tasks != null) {
+            for (Task task : tasks) {
+                cancelled.add(task.getId());
+            }
+        }
+        for (String id : cancelled) {
+            // Shared copies were all removed above.
+            cancelLocalTask(id);
+        }
+        return cancelled.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove overdue tasks that have been overdue for longer than their task
+     * type's maximum overdue age.
+     * 
+     * At most the specified number of tasks are removed per call, so that a
+     * large backlog of stale tasks is expired over several calls. Tasks are
+     * visited oldest first within each task type.
+     * 
+     * @param limit the maximum number of tasks to remove.
+     * @return the removed tasks, which are no longer scheduled.
+     */
+    public synchronized List<Task> expireOverdueTasks(int limit) {
+        ArrayList<Task> expired = new ArrayList<>();
+        long now = currentTimeMillis();
+        for (String taskTypeId : new ArrayList<>(_tasksByType.keySet())) {
+            if (expired.size() >= limit) {
+                break;
+            }
+            TaskType taskType = OddJob.PLUGIN.getTaskType(taskTypeId);
+            if (taskType == null || taskType.getMaxOverdueMillis() <= 0) {
+                continue;
+            }
+
+            for (Task task : _tasksByType.get(taskTypeId).headSet(timeBound(now - taskType.getMaxOverdueMillis()))) {
+                if (expired.size() >= limit) {
+                    break;
+                }
+                if (getShard(task).isOverdue(task)) {
+                    expired.add(task);
+                }
+            }
+        }
+
+        for (Task task : expired) {
+            removeTask(task.getId());
+            OddJob.AUDIT.record(AuditLog.Event.EXPIRE, task);
+            OddJob.TRACE.recordCancel(task.getId());
+        }
+        return expired;
     }
 
     // ------------------------------------------------------------------------
@@ -130,12 +633,15 @@ public class TaskScheduler {
      * @return the earliest task's time, or null if there are no tasks in the
      *         queue.
      */
-    public Long getEarliestTime() {
-        Iterator<Long> it = _pendingTasks.keys().iterator();
-        if (it.hasNext()) {
-            return it.next();
+    public synchronized Long getEarliestTime() {
+        Long earliest = null;
+        for (TaskShard shard : _shards) {
+            Long time = shard.getEarliestTime();
+            if (time != null && (earliest == null || time < earliest)) {
+                earliest = time;
+            }
         }
-        return null;
+        return earliest;
     }
 
     // ------------------------------------------------------------------------
@@ -145,10 +651,150 @@ public class TaskScheduler {
      * @param time the time expressed in milliseconds from Epoch (1970-01-01).
      *        The value is boxed as it will be passed the result of
      *        {@link TaskScheduler#getEarliestTime()}.
-     * @return the set of tasks scheduled to execut at the specified time.
+     * @return a copy of the set of tasks scheduled to execute at the
+     *         specified time.
+     */
+    public synchronized NavigableSet<Task> getTasksAtTime(Long time) {
+        TreeSet<Task> tasks = new TreeSet<>();
+        for (TaskShard shard : _shards) {
+            tasks.addAll(shard.getTasksAtTime(time));
+        }
+        return tasks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if an idempotent console command should run, because no
+     * identical command has run in the specified drain, or within the
+     * specified task type's window.
+     * 
+     * Identical commands are skipped within a drain whatever the task type
+     * that rendered them, but each task type's window only skips commands
+     * rendered by that task type, so that a long window on one type does not
+     * suppress another type's commands in later drains.
+     * 
+     * If the command runs now, or has already run in this drain, the task
+     * type's window starts now.
+     * 
+     * @param taskTypeId the ID of the task type that rendered the command.
+     * @param command the rendered command.
+     * @param windowMillis the task type's period after the command last ran
+     *        during which identical commands are skipped, or 0 to skip them
+     *        only in the same drain.
+     * @param drain the drain in which the task running the command was
+     *        executed, as returned by {@link #getDrain()}.
+     * @return true if the command should run.
+     */
+    public synchronized boolean shouldRunIdempotentCommand(String taskTypeId, String command, long windowMillis,
+                                                           long drain) {
+        long now = currentTimeMillis();
+        CommandRun run = _idempotentCommands.get(command);
+        if (run == null) {
+            run = new CommandRun();
+            _idempotentCommands.put(command, run);
+        }
+        if (now < run.getExpiry(taskTypeId)) {
+            return false;
+        }
+        if (windowMillis > 0) {
+            run._expiries.put(taskTypeId, now + windowMillis);
+        }
+        if (run._drain == drain) {
+            return false;
+        }
+        run._drain = drain;
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the ID of the current, or most recent, drain of due or overdue
+     * tasks.
+     * 
+     * @return the drain ID.
+     */
+    public synchronized long getDrain() {
+        return _drainCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of shards for tasks with a target player.
+     * 
+     * @return the number of player shards.
+     */
+    public synchronized int getShardCount() {
+        return _shards.length - 1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the number of shards for tasks with a target player, moving tasks
+     * to their new shards.
+     * 
+     * Tasks with no target player are always in a shard of their own. With
+     * more than one player shard, due tasks are prepared in parallel.
+     * 
+     * @param count the number of player shards; at least 1.
+     */
+    public synchronized void setShardCount(int count) {
+        count = Math.max(1, count);
+        if (count == getShardCount()) {
+            return;
+        }
+        TaskShard[] oldShards = _shards;
+        _shards = createShards(count);
+        for (TaskShard shard : oldShards) {
+            for (Task task : shard.getPendingTasks()) {
+                getShard(task).addPendingTask(task);
+            }
+            for (TreeSet<Task> tasks : shard.getOverdueTasks()) {
+                for (Task task : tasks) {
+                    getShard(task).addOverdueTask(task);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Move cold tasks whose partition's window starts within the horizon into
+     * the pending queue, or execute them if they are already due.
+     * 
+     * If the cold tier is disabled, all cold tasks are paged in.
      */
-    public NavigableSet<Task> getTasksAtTime(Long time) {
-        return _pendingTasks.get(time);
+    public synchronized void pageInColdTasks() {
+        ColdTaskStore cold = OddJob.COLD;
+        long now = currentTimeMillis();
+        long until = Long.MAX_VALUE;
+        if (cold.isEnabled()) {
+            long partitionMillis = OddJob.CONFIG.COLD_TIER_PARTITION_HOURS * 3600000L;
+            long horizonEnd = now + OddJob.CONFIG.COLD_TIER_HORIZON_HOURS * 3600000L;
+            until = (Math.floorDiv(horizonEnd, partitionMillis) + 1) * partitionMillis;
+        }
+        _hotUntil = until;
+
+        List<Task> paged = cold.pageIn(until);
+        Collections.sort(paged);
+        beginDrain(now);
+        try {
+            for (Task task : paged) {
+                if (_tasksById.containsKey(task.getId())) {
+                    // Already loaded from tasks.yml.
+                    continue;
+                }
+                if (now >= task.getTime()) {
+                    taskIsDue(task);
+                } else {
+                    addPendingTask(task);
+                }
+            }
+        } finally {
+            endDrain();
+        }
+        if (OddJob.CONFIG.DEBUG_TASKS && !paged.isEmpty()) {
+            OddJob.PLUGIN.getLogger().info("Paged in " + paged.size() + " cold tasks.");
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -159,16 +805,29 @@ public class TaskScheduler {
      *        as one child section each.
      * @param logger a logger for reporting errors.
      */
-    public void load(ConfigurationSection parentSection, Logger logger) {
+    public synchronized void load(ConfigurationSection parentSection, Logger logger) {
         _tasksById.clear();
-        _pendingTasks.clear();
-        _overdueTasks.clear();
-
-        for (String id : parentSection.getKeys(false)) {
-            Task task = new Task();
-            if (task.load(parentSection.getConfigurationSection(id), logger)) {
-                scheduleTask(task);
+        _taskIds.clear();
+        _tasksByTime.clear();
+        _tasksByPlayer.clear();
+        _tasksByType.clear();
+        for (TaskShard shard : _shards) {
+            shard.clear();
+        }
+        long now = currentTimeMillis();
+        beginDrain(now);
+        try {
+            pageInColdTasks();
+            for (String id : parentSection.getKeys(false)) {
+                Task task = new Task();
+                if (task.load(parentSection.getConfigurationSection(id), logger)) {
+                    // Replace any copy paged in from the cold tier.
+                    removeTask(task.getId());
+                    insertTask(task, now);
+                }
             }
+        } finally {
+            endDrain();
         }
     }
 
@@ -180,7 +839,7 @@ public class TaskScheduler {
      *        as one child section each.
      * @param logger a logger for reporting errors.
      */
-    public void save(ConfigurationSection parentSection, @SuppressWarnings("unused") Logger logger) {
+    public synchronized void save(ConfigurationSection parentSection, @SuppressWarnings("unused") Logger logger) {
         for (Task task : _tasksById.values()) {
             task.save(parentSection);
         }
@@ -201,70 +860,447 @@ public class TaskScheduler {
      */
     protected void taskIsDue(Task task) {
         removePendingTask(task.getId());
-        if (task.isOnlineSatisfied()) {
-            if (task.isPermissionSatisfied()) {
-                if (OddJob.CONFIG.DEBUG_TASKS) {
-                    OddJob.PLUGIN.getLogger().info("Permission check satisfied for task " + task.getId() + ".");
-                }
-                task.execute();
-            } else {
-                if (OddJob.CONFIG.DEBUG_TASKS) {
-                    OddJob.PLUGIN.getLogger().info("Permission check failed for task " + task.getId() + ".");
-                }
-            }
-        } else {
-            if (OddJob.CONFIG.DEBUG_TASKS) {
-                OddJob.PLUGIN.getLogger().info("Add task " + task.getId() + " as overdue.");
-            }
-            addOverdueTask(task);
-        }
+        dispatchDueTask(task, assessDueTask(task));
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Add a task to the time-ordered queue of tasks whose time is not yet due.
+     * Begin a drain of due or overdue tasks, within which identical idempotent
+     * commands run only once.
      * 
-     * @param task the task.
+     * Every method that can execute tasks begins a drain and ends it with
+     * {@link #endDrain()}. Drains nest, so that tasks executed by a nested
+     * call, such as follow-up tasks that are already due, belong to the
+     * outermost drain. Beginning an outermost drain also forgets idempotent
+     * commands whose windows have passed.
+     * 
+     * @param now the current time in milliseconds since Epoch.
      */
-    protected void addPendingTask(Task task) {
-        _pendingTasks.put(task.getTime(), task);
-        _tasksById.put(task.getId(), task);
+    private void beginDrain(long now) {
+        if (_drainDepth++ == 0) {
+            ++_drainCount;
+            if (!_idempotentCommands.isEmpty()) {
+                _idempotentCommands.values().removeIf(run -> run.expire(now));
+            }
+        }
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Remove a task from the time-ordered queue of tasks whose time is not yet
-     * due.
-     * 
-     * @param id the unique ID of the task.
-     * @return the removed task, or null if there was no match on the ID.
+     * End a drain begun by {@link #beginDrain(long)}.
      */
-    protected Task removePendingTask(String id) {
-        Task task = _tasksById.remove(id);
-        if (task != null) {
-            _pendingTasks.remove(task.getTime(), task);
-        }
-        return task;
+    private void endDrain() {
+        --_drainDepth;
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Add the specified task to the set of overdue tasks for its target player
-     * (the task must have a non-null target).
+     * Decide what to do with a task that is due.
      * 
-     * The tasks will be executed when the player logs in.
+     * This looks up the target player and their permissions, so it must be
+     * called on the server thread.
      * 
      * @param task the task.
+     * @return the outcome.
      */
-    protected void addOverdueTask(Task task) {
-        OfflinePlayer player = task.getOfflinePlayer();
-        TreeSet<Task> tasks = _overdueTasks.get(player.getUniqueId());
-        if (tasks == null) {
-            tasks = new TreeSet<Task>();
-            _overdueTasks.put(player.getUniqueId(), tasks);
+    private Outcome assessDueTask(Task task) {
+        if (!isOnlineSatisfied(task)) {
+            return Outcome.DEFER;
         }
-        tasks.add(task);
-        _tasksById.put(task.getId(), task);
+        if (!isPermissionSatisfied(task)) {
+            return Outcome.DENY;
+        }
+        return Outcome.EXECUTE;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Assess all of a shard's due tasks, and look up the target player names
+     * of those that can execute, for rendering.
+     * 
+     * This must be called on the server thread.
+     * 
+     * @param shard the shard.
+     * @param now the current time in milliseconds since Epoch.
+     * @return the due tasks and their outcomes, in ascending order by time.
+     */
+    private List<DueTask> assessDueTasks(TaskShard shard, long now) {
+        List<Task> tasks = shard.getDueTasks(now);
+        ArrayList<DueTask> dueTasks = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            Outcome outcome = assessDueTask(task);
+            String playerName = (outcome == Outcome.EXECUTE) ? task.getPlayerName() : null;
+            dueTasks.add(new DueTask(task, outcome, playerName));
+        }
+        return dueTasks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Render the actions of a shard's due tasks that can execute, in advance,
+     * with {@link #prepareTask(Task, String, long)}.
+     * 
+     * This does not modify the scheduler or look up players, so it can be
+     * called on several shards in parallel.
+     * 
+     * @param dueTasks the shard's assessed due tasks.
+     * @param now the current time in milliseconds since Epoch.
+     */
+    private void prepareDueTasks(List<DueTask> dueTasks, long now) {
+        for (DueTask due : dueTasks) {
+            if (due._outcome == Outcome.EXECUTE) {
+                prepareTask(due._task, due._playerName, now);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Render the actions of every shard's due tasks that can execute, one
+     * shard per thread of the scheduler's own render pool, and wait for them.
+     * 
+     * The pool is used rather than the common ForkJoin pool, which other
+     * plugins share, since the scheduler's lock is held throughout. A task
+     * whose rendering fails is rendered again when it executes.
+     * 
+     * @param dueTasks each shard's assessed due tasks.
+     * @param now the current time in milliseconds since Epoch.
+     */
+    private void prepareDueTasksInParallel(List<DueTask>[] dueTasks, long now) {
+        if (_renderPool == null) {
+            int threads = Math.min(MAX_RENDER_THREADS, Runtime.getRuntime().availableProcessors());
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                                             new LinkedBlockingQueue<>(), r -> {
+                                                                 Thread thread = new Thread(r, "OddJob Renderer");
+                                                                 thread.setDaemon(true);
+                                                                 return thread;
+                                                             });
+            pool.allowCoreThreadTimeOut(true);
+            _renderPool = pool;
+        }
+
+        ArrayList<Future<?>> futures = new ArrayList<>(dueTasks.length);
+        for (List<DueTask> shardTasks : dueTasks) {
+            if (!shardTasks.isEmpty()) {
+                futures.add(_renderPool.submit(() -> prepareDueTasks(shardTasks, now)));
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                OddJob.PLUGIN.getLogger().severe(cause.getClass().getSimpleName() + " rendering tasks: " +
+                                                 cause.getMessage());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop the threads used to render due tasks in parallel.
+     * 
+     * The threads are started again if needed.
+     */
+    public synchronized void stop() {
+        if (_renderPool != null) {
+            _renderPool.shutdown();
+            _renderPool = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a task runs commands, which could kick a player or change
+     * their permissions.
+     * 
+     * @param task the task.
+     * @return true if the task's type has console or player commands.
+     */
+    private static boolean hasCommands(Task task) {
+        TaskType taskType = task.getTaskType();
+        return taskType != null &&
+               (!taskType.getConsoleCommands().isEmpty() || !taskType.getPlayerCommands().isEmpty());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Execute a due task that has been removed from the pending queue, or add
+     * it to its target player's overdue queue, according to its assessed
+     * outcome.
+     * 
+     * @param task the task.
+     * @param outcome the outcome.
+     */
+    private void dispatchDueTask(Task task, Outcome outcome) {
+        switch (outcome) {
+        case EXECUTE:
+            if (OddJob.CONFIG.DEBUG_TASKS) {
+                OddJob.PLUGIN.getLogger().info("Permission check satisfied for task " + task.getId() + ".");
+            }
+            executeTask(task, false);
+            break;
+
+        case DENY:
+            if (OddJob.CONFIG.DEBUG_TASKS) {
+                OddJob.PLUGIN.getLogger().info("Permission check failed for task " + task.getId() + ".");
+            }
+            OddJob.METRICS.permissionFailed();
+            OddJob.AUDIT.record(AuditLog.Event.PERMISSION_FAIL, task);
+            break;
+
+        case DEFER:
+            if (OddJob.CONFIG.DEBUG_TASKS) {
+                OddJob.PLUGIN.getLogger().info("Add task " + task.getId() + " as overdue.");
+            }
+            OddJob.METRICS.taskDeferred();
+            OddJob.AUDIT.record(AuditLog.Event.OVERDUE, task);
+            if (OddJob.STORE.isOpen()) {
+                // The player may join any server on the network.
+                OddJob.STORE.publish(task);
+            } else {
+                addOverdueTask(task);
+            }
+            break;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Prepare a due task whose requirements are satisfied for execution, by
+     * rendering its actions.
+     * 
+     * This may be called on several threads at once, for tasks in different
+     * shards.
+     * 
+     * @param task the task.
+     * @param playerName the name of the target player, looked up on the server
+     *        thread, or null if there is no target.
+     * @param now the current time in milliseconds since Epoch.
+     */
+    protected void prepareTask(Task task, String playerName, long now) {
+        TaskType taskType = task.getTaskType();
+        if (taskType != null) {
+            task.setRendering(taskType.render(task, playerName, now));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the clock that decides when tasks are due.
+     * 
+     * @return the clock.
+     */
+    public Clock getClock() {
+        return _clock;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the clock that decides when tasks are due.
+     * 
+     * The system clock is used by default. A {@link SimulatedClock} allows
+     * time to be skipped ahead, for testing and benchmarks.
+     * 
+     * @param clock the clock.
+     */
+    public void setClock(Clock clock) {
+        _clock = clock;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the current time, as used to decide when tasks are due.
+     * 
+     * @return the current time in milliseconds since Epoch, according to the
+     *         scheduler's clock.
+     */
+    protected long currentTimeMillis() {
+        return _clock.millis();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the task's online requirement is satisfied.
+     * 
+     * @param task the task.
+     * @return true if the task does not need its player online, or they are.
+     * @see Task#isOnlineSatisfied()
+     */
+    protected boolean isOnlineSatisfied(Task task) {
+        return task.isOnlineSatisfied();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the task's permission requirement is satisfied.
+     * 
+     * @param task the task.
+     * @return true if the task's target player has the required permission.
+     * @see Task#isPermissionSatisfied()
+     */
+    protected boolean isPermissionSatisfied(Task task) {
+        return task.isPermissionSatisfied();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Execute a task whose time has come and whose online and permission
+     * requirements are satisfied, recording metrics and events.
+     * 
+     * @param task the task.
+     * @param overdue true if the task was deferred until its target player
+     *        logged in.
+     */
+    protected void executeTask(Task task, boolean overdue) {
+        // On Folia, the task may run after later drains have begun.
+        long drain = _drainCount;
+        PlatformScheduler platform = OddJob.PLATFORM;
+        if (platform.isRegionized()) {
+            // Tasks start on the global region, where console commands must
+            // run; the task type then hands player commands to the player's
+            // region.
+            if (platform.isGlobalThread()) {
+                runTask(task, overdue, drain);
+            } else {
+                platform.runGlobal(OddJob.PLUGIN, () -> runTask(task, overdue, drain));
+            }
+        } else {
+            OddJob.WATCHDOG.beginTask(task);
+            try {
+                runTask(task, overdue, drain);
+            } finally {
+                OddJob.WATCHDOG.endTask();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Execute a task, recording its lateness when it actually starts, and a
+     * JFR event.
+     * 
+     * @param task the task.
+     * @param overdue true if the task was deferred until its target player
+     *        logged in.
+     * @param drain the drain in which the task was executed.
+     */
+    private void runTask(Task task, boolean overdue, long drain) {
+        long lateness = currentTimeMillis() - task.getTime();
+        OddJob.METRICS.taskStarted(lateness, overdue);
+        synchronized (this) {
+            // The audit log's ring buffer is only filled under this lock.
+            OddJob.AUDIT.record(AuditLog.Event.EXECUTE, task);
+        }
+        TaskExecuteEvent event = new TaskExecuteEvent();
+        event.begin();
+
+        task.execute(drain);
+
+        if (event.shouldCommit()) {
+            event.taskId = task.getId();
+            event.taskType = task.getTaskTypeId();
+            event.player = task.getPlayerName();
+            event.lateness = lateness;
+            event.overdue = overdue;
+            event.commit();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the task with the specified ID, whether pending, overdue or cold.
+     * 
+     * @param id the unique ID.
+     * @return the removed task, or null if there was no match on the ID.
+     */
+    protected Task removeTask(String id) {
+        Task task = removePendingTask(id);
+        if (task != null) {
+            removeOverdueTask(task);
+        } else {
+            task = OddJob.COLD.remove(id);
+        }
+        return task;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a task is due beyond the horizon and should be kept in
+     * the {@link ColdTaskStore}.
+     * 
+     * @param task the task.
+     * @return true if the task is cold.
+     */
+    private boolean isCold(Task task) {
+        return task.getTime() >= _hotUntil && OddJob.COLD.isEnabled();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Insert a task into the cold tier or pending queue, or execute it if it
+     * is already due.
+     * 
+     * Unlike {@link #scheduleTask(Task)}, this does not remove the task from
+     * the shared task store or record it in the audit log, trace or metrics,
+     * so that tasks loaded at startup are not treated as newly scheduled.
+     * 
+     * @param task the task, whose ID must not already be scheduled.
+     * @param now the current time in milliseconds since the epoch.
+     */
+    private void insertTask(Task task, long now) {
+        if (isCold(task)) {
+            OddJob.COLD.add(task);
+        } else if (now >= task.getTime()) {
+            taskIsDue(task);
+        } else {
+            addPendingTask(task);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a task to the time-ordered queue of tasks whose time is not yet due.
+     * 
+     * @param task the task.
+     */
+    protected void addPendingTask(Task task) {
+        getShard(task).addPendingTask(task);
+        addIndexes(task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a task from the time-ordered queue of tasks whose time is not yet
+     * due.
+     * 
+     * @param id the unique ID of the task.
+     * @return the removed task, or null if there was no match on the ID.
+     */
+    protected Task removePendingTask(String id) {
+        Task task = _tasksById.get(id);
+        if (task != null) {
+            removeIndexes(task);
+            getShard(task).removePendingTask(task);
+        }
+        return task;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add the specified task to the set of overdue tasks for its target player
+     * (the task must have a non-null target).
+     * 
+     * The tasks will be executed when the player logs in.
+     * 
+     * @param task the task.
+     */
+    protected void addOverdueTask(Task task) {
+        getShard(task).addOverdueTask(task);
+        addIndexes(task);
     }
 
     // ------------------------------------------------------------------------
@@ -274,18 +1310,114 @@ public class TaskScheduler {
      * @param task the task.
      */
     protected void removeOverdueTask(Task task) {
-        OfflinePlayer player = task.getOfflinePlayer();
-        if (player != null) {
-            TreeSet<Task> tasks = _overdueTasks.get(player.getUniqueId());
-            if (tasks != null) {
-                tasks.remove(task);
-                if (tasks.isEmpty()) {
-                    _overdueTasks.remove(player.getUniqueId());
-                }
+        getShard(task).removeOverdueTask(task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the shard containing a task.
+     * 
+     * @param task the task.
+     * @return the shard.
+     */
+    private TaskShard getShard(Task task) {
+        return (task.getOfflinePlayer() == null) ? _shards[0] : getShard(task.getOfflinePlayer().getUniqueId());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the shard containing a player's tasks.
+     * 
+     * @param playerUuid the player's UUID.
+     * @return the shard.
+     */
+    private TaskShard getShard(UUID playerUuid) {
+        return _shards[1 + Math.floorMod(playerUuid.hashCode(), _shards.length - 1)];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create an empty shard for tasks with no target player and the specified
+     * number of shards for tasks with one.
+     * 
+     * @param count the number of player shards.
+     * @return the shards, with the target-less shard first.
+     */
+    private static TaskShard[] createShards(int count) {
+        TaskShard[] shards = new TaskShard[count + 1];
+        for (int i = 0; i < shards.length; ++i) {
+            shards[i] = new TaskShard();
+        }
+        return shards;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a pending or overdue task to the map by ID and to the secondary
+     * indexes by time, player and task type.
+     * 
+     * @param task the task.
+     */
+    protected void addIndexes(Task task) {
+        _tasksById.put(task.getId(), task);
+        _taskIds.add(task.getId());
+        _tasksByTime.add(task);
+        if (task.getOfflinePlayer() != null) {
+            _tasksByPlayer.computeIfAbsent(task.getOfflinePlayer().getUniqueId(), k -> new TreeSet<Task>()).add(task);
+        }
+        _tasksByType.computeIfAbsent(task.getTaskTypeId(), k -> new TreeSet<Task>()).add(task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a task from the map by ID and from the secondary indexes.
+     * 
+     * @param task the task.
+     */
+    protected void removeIndexes(Task task) {
+        _tasksById.remove(task.getId());
+        _taskIds.remove(task.getId());
+        _tasksByTime.remove(task);
+        if (task.getOfflinePlayer() != null) {
+            removeFromIndex(_tasksByPlayer, task.getOfflinePlayer().getUniqueId(), task);
+        }
+        removeFromIndex(_tasksByType, task.getTaskTypeId(), task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a task from the set of tasks with the specified key in a
+     * secondary index, removing the set when it becomes empty.
+     * 
+     * @param index the index.
+     * @param key the key.
+     * @param task the task.
+     */
+    private static <K> void removeFromIndex(HashMap<K, TreeSet<Task>> index, K key, Task task) {
+        TreeSet<Task> tasks = index.get(key);
+        if (tasks != null) {
+            tasks.remove(task);
+            if (tasks.isEmpty()) {
+                index.remove(key);
             }
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return a task that can be used as a bound on the time in a set of tasks
+     * ordered by time.
+     * 
+     * The task has the empty string as its ID, and so sorts before all other
+     * tasks at the same time.
+     * 
+     * @param time the time in milliseconds since Epoch.
+     * @return the bounding task.
+     */
+    private static Task timeBound(long time) {
+        return new Task("", null, null, time);
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Map from task ID to pending task.
@@ -296,21 +1428,167 @@ public class TaskScheduler {
     private final HashMap<String, Task> _tasksById = new HashMap<>();
 
     /**
-     * Pending tasks in ascending order by time stamp.
+     * The clock that decides when tasks are due.
      */
-    private final TreeMultimap<Long, Task> _pendingTasks = TreeMultimap.create();
+    private volatile Clock _clock = Clock.systemUTC();
 
     /**
-     * Map from player UUID to a set of overdue tasks that cannot execute until
-     * the player logs in.
-     * 
-     * The key cannot be an OfflinePlayer because when we try to look up by a
-     * player instance at login, the lookup may fail. This is because
-     * OfflinePlayer.getPlayer() can cache an out-of-date Player instance from a
-     * previous login that cannot do Player.sendMessage(), for instance.
+     * The IDs of all pending and overdue tasks, in ascending order.
+     */
+    private final TreeSet<String> _taskIds = new TreeSet<>();
+
+    /**
+     * All pending and overdue tasks in ascending order by time.
+     */
+    private final TreeSet<Task> _tasksByTime = new TreeSet<>();
+
+    /**
+     * Map from target player UUID to that player's pending and overdue tasks,
+     * in ascending order by time.
      * 
-     * Tasks in the set are in ascending order by time.
+     * Tasks with no target player are not included.
+     */
+    private final HashMap<UUID, TreeSet<Task>> _tasksByPlayer = new HashMap<>();
+
+    /**
+     * Map from task type ID to pending and overdue tasks of that type, in
+     * ascending order by time.
+     */
+    private final HashMap<String, TreeSet<Task>> _tasksByType = new HashMap<>();
+
+    /**
+     * The shard of tasks with no target player, followed by the shards of
+     * tasks with one, each holding pending and overdue task queues.
+     */
+    private TaskShard[] _shards = createShards(1);
+
+    /**
+     * The end of the period whose cold tasks have been paged in; tasks due at
+     * or after this time are cold, if the cold tier is enabled.
      */
-    private final HashMap<UUID, TreeSet<Task>> _overdueTasks = new HashMap<>();
+    private long _hotUntil = Long.MAX_VALUE;
+
+    /**
+     * The number of drains begun; identifies the current drain.
+     */
+    private long _drainCount;
+
+    /**
+     * The number of drains begun but not yet ended; drains nest.
+     */
+    private int _drainDepth;
+
+    /**
+     * Map from rendered idempotent command to its last run.
+     */
+    private final HashMap<String, CommandRun> _idempotentCommands = new HashMap<>();
+
+    /**
+     * The threads that render due tasks in parallel, or null if not started.
+     */
+    private ExecutorService _renderPool;
+
+    /**
+     * The maximum number of threads that render due tasks in parallel.
+     */
+    private static final int MAX_RENDER_THREADS = 8;
+
+    // ------------------------------------------------------------------------
+    /**
+     * What to do with a task that is due.
+     */
+    private enum Outcome {
+        /**
+         * Execute it.
+         */
+        EXECUTE,
+
+        /**
+         * Do nothing, since its target lacks the required permission.
+         */
+        DENY,
+
+        /**
+         * Defer it until its target player is online.
+         */
+        DEFER
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A due task with its assessed outcome.
+     */
+    private static final class DueTask {
+        /**
+         * Constructor.
+         * 
+         * @param task the task.
+         * @param outcome the outcome.
+         * @param playerName the target player name, for rendering.
+         */
+        DueTask(Task task, Outcome outcome, String playerName) {
+            _task = task;
+            _outcome = outcome;
+            _playerName = playerName;
+        }
+
+        /**
+         * The task.
+         */
+        final Task _task;
+
+        /**
+         * The outcome.
+         */
+        final Outcome _outcome;
+
+        /**
+         * The target player name, or null if there is no target or the task
+         * cannot execute.
+         */
+        final String _playerName;
+    } // class DueTask
+
+    // ------------------------------------------------------------------------
+    /**
+     * The last run of an idempotent command, and the windows during which
+     * each task type skips it.
+     */
+    private static final class CommandRun {
+        /**
+         * Return the time after which the specified task type can run the
+         * command again.
+         * 
+         * @param taskTypeId the task type ID.
+         * @return the time in milliseconds since Epoch; 0 if there is no
+         *         window.
+         */
+        long getExpiry(String taskTypeId) {
+            Long expiry = _expiries.get(taskTypeId);
+            return (expiry != null) ? expiry : 0;
+        }
+
+        /**
+         * Forget windows that have passed, at the start of a new drain.
+         * 
+         * @param now the current time in milliseconds since Epoch.
+         * @return true if no windows remain, so that the run can be forgotten.
+         */
+        boolean expire(long now) {
+            _expiries.values().removeIf(expiry -> expiry <= now);
+            return _expiries.isEmpty();
+        }
+
+        /**
+         * The drain in which the command last ran.
+         */
+        long _drain = Long.MIN_VALUE;
 
+        /**
+         * Map from task type ID to the time, in milliseconds since Epoch,
+         * after which that task type's identical commands can run again in a
+         * later drain.
+         */
+        final HashMap<String, Long> _expiries = new HashMap<>();
+    } // class CommandRun
 } // class TaskScheduler
\ No newline at end of file
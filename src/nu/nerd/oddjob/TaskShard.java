@@ -0,0 +1,199 @@
+package nu.nerd.oddjob;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import com.google.common.collect.TreeMultimap;
+
+// ----------------------------------------------------------------------------
+/**
+ * One partition of the pending and overdue task queues of a
+ * {@link TaskScheduler}.
+ * 
+ * Tasks are assigned to shards by a hash of their target player's UUID, so all
+ * of a player's tasks are in the same shard. Tasks with no target player have
+ * a shard of their own. Shards are not synchronized; the scheduler only
+ * modifies them while holding its lock, and only reads them from other
+ * threads while it waits for those threads to finish.
+ */
+class TaskShard {
+    // ------------------------------------------------------------------------
+    /**
+     * Add a task to the time-ordered queue of tasks whose time is not yet due.
+     * 
+     * @param task the task.
+     */
+    void addPendingTask(Task task) {
+        _pendingTasks.put(task.getTime(), task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a task from the pending task queue, if present.
+     * 
+     * @param task the task.
+     */
+    void removePendingTask(Task task) {
+        _pendingTasks.remove(task.getTime(), task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of pending tasks.
+     * 
+     * @return the number of pending tasks.
+     */
+    int getPendingTaskCount() {
+        return _pendingTasks.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the time of the earliest pending task, or null if there are none.
+     * 
+     * @return the earliest pending task's time, or null.
+     */
+    Long getEarliestTime() {
+        Iterator<Long> it = _pendingTasks.keySet().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the pending tasks scheduled at exactly the specified time.
+     * 
+     * @param time the time in milliseconds since Epoch.
+     * @return a view of the tasks at that time, in ascending order by ID.
+     */
+    Collection<Task> getTasksAtTime(Long time) {
+        return _pendingTasks.get(time);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a copy of the pending tasks due at or before the specified time,
+     * in ascending order by time.
+     * 
+     * This only reads the shard, so shards can be scanned in parallel.
+     * 
+     * @param now the current time in milliseconds since Epoch.
+     * @return the due tasks.
+     */
+    List<Task> getDueTasks(long now) {
+        ArrayList<Task> due = new ArrayList<>();
+        for (Collection<Task> tasks : _pendingTasks.asMap().headMap(now, true).values()) {
+            due.addAll(tasks);
+        }
+        return due;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return all pending tasks.
+     * 
+     * @return a view of the pending tasks.
+     */
+    Collection<Task> getPendingTasks() {
+        return _pendingTasks.values();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a task to the overdue tasks of its target player, which must not be
+     * null.
+     * 
+     * @param task the task.
+     */
+    void addOverdueTask(Task task) {
+        _overdueTasks.computeIfAbsent(task.getOfflinePlayer().getUniqueId(), k -> new TreeSet<Task>()).add(task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a task from the overdue tasks of its target player, if present.
+     * 
+     * @param task the task.
+     */
+    void removeOverdueTask(Task task) {
+        if (task.getOfflinePlayer() != null) {
+            UUID uuid = task.getOfflinePlayer().getUniqueId();
+            TreeSet<Task> tasks = _overdueTasks.get(uuid);
+            if (tasks != null) {
+                tasks.remove(task);
+                if (tasks.isEmpty()) {
+                    _overdueTasks.remove(uuid);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a task is among the overdue tasks of its target player.
+     * 
+     * @param task the task.
+     * @return true if the task is overdue.
+     */
+    boolean isOverdue(Task task) {
+        if (task.getOfflinePlayer() == null) {
+            return false;
+        }
+        TreeSet<Task> tasks = _overdueTasks.get(task.getOfflinePlayer().getUniqueId());
+        return tasks != null && tasks.contains(task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove and return all overdue tasks of a player.
+     * 
+     * @param playerUuid the player's UUID.
+     * @return the player's overdue tasks in ascending order by time, or null
+     *         if there are none.
+     */
+    TreeSet<Task> removeOverdueTasksFor(UUID playerUuid) {
+        return _overdueTasks.remove(playerUuid);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the overdue tasks of all players in this shard.
+     * 
+     * @return a view of the sets of overdue tasks, one per player.
+     */
+    Collection<TreeSet<Task>> getOverdueTasks() {
+        return _overdueTasks.values();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all pending and overdue tasks.
+     */
+    void clear() {
+        _pendingTasks.clear();
+        _overdueTasks.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pending tasks in ascending order by time stamp.
+     */
+    private final TreeMultimap<Long, Task> _pendingTasks = TreeMultimap.create();
+
+    /**
+     * Map from player UUID to a set of overdue tasks that cannot execute until
+     * the player logs in.
+     * 
+     * The key cannot be an OfflinePlayer because when we try to look up by a
+     * player instance at login, the lookup may fail. This is because
+     * OfflinePlayer.getPlayer() can cache an out-of-date Player instance from a
+     * previous login that cannot do Player.sendMessage(), for instance.
+     * 
+     * Tasks in the set are in ascending order by time.
+     */
+    private final HashMap<UUID, TreeSet<Task>> _overdueTasks = new HashMap<>();
+} // class TaskShard
@@ -1,9 +1,15 @@
 package nu.nerd.oddjob;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import org.bukkit.Bukkit;
@@ -12,6 +18,7 @@ import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
 
 import net.md_5.bungee.api.ChatColor;
+import nu.nerd.oddjob.metrics.CommandProfiler;
 
 //-----------------------------------------------------------------------------
 /**
@@ -23,8 +30,10 @@ public class TaskType {
      * Load this task from the configuration.
      * 
      * @param section the configuration section that describes this task type.
+     * @param logger a logger used for reporting errors.
      */
-    public void load(ConfigurationSection section) {
+    public void load(ConfigurationSection section, Logger logger) {
+        _definition = getDefinition(section);
         _id = section.getName();
         _permission = section.getString("permission");
         _online = section.getBoolean("online");
@@ -33,17 +42,85 @@ public class TaskType {
         _messages = section.getStringList("messages");
         _consoleCommands = section.getStringList("console-commands");
         _playerCommands = section.getStringList("player-commands");
+        List<String> idempotentCommands = section.getStringList("idempotent-commands");
+        _idempotentLines = new boolean[_consoleCommands.size()];
+        for (String idempotent : idempotentCommands) {
+            boolean found = false;
+            for (int line = 0; line < _consoleCommands.size(); ++line) {
+                if (_consoleCommands.get(line).equals(idempotent)) {
+                    _idempotentLines[line] = found = true;
+                }
+            }
+            if (!found) {
+                logger.warning("Task type " + _id + " has an idempotent command that is not one of its " +
+                               "console commands: " + idempotent);
+            }
+        }
+        String idempotentWindow = section.getString("idempotent-window");
+        _idempotentWindowMillis = (idempotentWindow != null) ? parseDuration(idempotentWindow) : 0;
+        if (_idempotentWindowMillis < 0) {
+            _idempotentWindowMillis = 0;
+            logger.warning("Task type " + _id + " has an invalid idempotent-window: " + idempotentWindow);
+        }
+        _fileAppends = new ArrayList<>();
+        for (Map<?, ?> append : section.getMapList("file-appends")) {
+            Object file = append.get("file");
+            Object line = append.get("line");
+            if (file != null && line != null) {
+                _fileAppends.add(new FileAppend(file.toString(), line.toString()));
+            } else {
+                logger.warning("Task type " + _id + " has a file append without a file or line.");
+            }
+        }
+        _logRecords = section.getStringList("log-records");
+        _ledger = section.getString("ledger");
+        _ledgerNote = section.getString("ledger-note");
+        _followUps = new ArrayList<>();
+        for (Map<?, ?> followUp : section.getMapList("schedule")) {
+            Object taskTypeId = followUp.get("task-type");
+            Object id = followUp.get("id");
+            Object delay = followUp.get("delay");
+            long delayMillis = (delay != null) ? parseDuration(delay.toString()) : -1;
+            if (taskTypeId != null && id != null && delayMillis > 0) {
+                _followUps.add(new FollowUp(taskTypeId.toString(), id.toString(), delayMillis));
+            } else {
+                logger.warning("Task type " + _id + " has a schedule action without a task-type, id or " +
+                               "positive delay.");
+            }
+        }
+        _maxOverdueMillis = 0;
+        String maxOverdue = section.getString("max-overdue");
+        if (maxOverdue != null) {
+            _maxOverdueMillis = parseDuration(maxOverdue);
+            if (_maxOverdueMillis < 0) {
+                _maxOverdueMillis = 0;
+                logger.warning("Task type " + _id + " has an invalid max-overdue: " + maxOverdue);
+            }
+        }
 
         _forceOnline = !getMessages().isEmpty() || !getPlayerCommands().isEmpty();
         if (!_forceOnline) {
             // Check for /run-as or /runas with a player that is not console.
-            Pattern runAs = Pattern.compile("^/?run-?as .*$", Pattern.CASE_INSENSITIVE);
-            Pattern runAsConsole = Pattern.compile("^/?run-?as console .*$", Pattern.CASE_INSENSITIVE);
-            _forceOnline = _consoleCommands.stream().anyMatch(cmd -> (runAs.matcher(cmd).matches() &&
-                                                                      !runAsConsole.matcher(cmd).matches()));
+            _forceOnline = _consoleCommands.stream().anyMatch(cmd -> (RUN_AS.matcher(cmd).matches() &&
+                                                                      !RUN_AS_CONSOLE.matcher(cmd).matches()));
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified configuration section defines this task
+     * type exactly as it was defined when it was loaded.
+     * 
+     * This is used on reload to reuse unchanged task types rather than loading
+     * them again.
+     * 
+     * @param section the configuration section that describes a task type.
+     * @return true if the section would load an identical task type.
+     */
+    public boolean hasSameDefinition(ConfigurationSection section) {
+        return getId().equals(section.getName()) && _definition.equals(getDefinition(section));
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Execute the specified task instance now.
@@ -51,71 +128,275 @@ public class TaskType {
      * @param task the task instance.
      */
     public void execute(Task task) {
-        long now = System.currentTimeMillis();
-        HashMap<String, String> replacements = new HashMap<String, String>();
-        replacements.put("id", task.getId());
-        replacements.put("type", task.getTaskTypeId());
-        replacements.put("player", (task.getPlayerName() != null) ? task.getPlayerName() : "-");
-        replacements.put("uuid", (task.getOfflinePlayer() != null) ? task.getOfflinePlayer().getUniqueId().toString() : "-");
-        replacements.put("seconds", Long.toString(task.getTime() / 1000));
-        replacements.put("ms", Long.toString(task.getTime()));
-        replacements.put("now-seconds", Long.toString(now / 1000));
-        replacements.put("now-ms", Long.toString(now));
+        execute(task, OddJob.PLUGIN.getTaskScheduler().getDrain());
+    }
 
-        for (String broadcast : getBroadcasts()) {
-            if (getBroadcastPermission() != null) {
-                Bukkit.broadcast(prepareMessage(broadcast, replacements),
-                                 getBroadcastPermission());
+    // ------------------------------------------------------------------------
+    /**
+     * Execute the specified task instance now, in the specified scheduler
+     * drain, using its actions as rendered in advance by
+     * {@link #render(Task, String, long)}, if available.
+     * 
+     * The {@link TaskScheduler} executes all tasks through this method, so
+     * subclasses that change what tasks do should override it.
+     * 
+     * On Folia, this must be called on the global region thread, where
+     * console commands run; player commands are then handed to the target
+     * player's region.
+     * 
+     * @param task the task instance.
+     * @param drain the scheduler drain in which the task is executed.
+     */
+    public void execute(Task task, long drain) {
+        long start = System.nanoTime();
+        Rendering rendering = task.takeRendering();
+        if (rendering == null || rendering._taskType != this) {
+            rendering = render(task, task.getPlayerName(), OddJob.PLUGIN.currentTimeMillis());
+        }
+        performActions(task, rendering, drain);
+        OddJob.METRICS.taskExecuted(System.nanoTime() - start);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Substitute variables into the broadcasts, messages and commands of this
+     * task type for the specified task instance, and create its follow-up
+     * tasks.
+     * 
+     * This does not touch server state, so the {@link TaskScheduler} can
+     * render due tasks in parallel before executing them. The target player's
+     * name is therefore looked up by the caller, on the server thread.
+     * 
+     * @param task the task instance.
+     * @param playerName the name of the target player, or null if there is no
+     *        target.
+     * @param now the current time in milliseconds since Epoch.
+     * @return the rendered actions.
+     */
+    Rendering render(Task task, String playerName, long now) {
+        HashMap<String, String> replacements = getReplacements(task, playerName, now);
+        ArrayList<String> broadcasts = new ArrayList<>(_broadcasts.size());
+        for (String broadcast : _broadcasts) {
+            broadcasts.add(prepareMessage(broadcast, replacements));
+        }
+        ArrayList<String> messages = new ArrayList<>(_messages.size());
+        for (String message : _messages) {
+            messages.add(prepareMessage(message, replacements));
+        }
+        ArrayList<String> consoleCommands = new ArrayList<>(_consoleCommands.size());
+        for (String command : _consoleCommands) {
+            consoleCommands.add(prepareCommand(command, replacements));
+        }
+        ArrayList<String> playerCommands = new ArrayList<>(_playerCommands.size());
+        for (String command : _playerCommands) {
+            playerCommands.add(prepareCommand(command, replacements));
+        }
+        ArrayList<Task> followUps = new ArrayList<>(_followUps.size());
+        for (FollowUp followUp : _followUps) {
+            followUps.add(new Task(replace(followUp._id, replacements), followUp._taskTypeId,
+                                   task.getOfflinePlayer(), now + followUp._delayMillis));
+        }
+        return new Rendering(this, replacements, now, broadcasts, messages, consoleCommands, playerCommands,
+                             followUps);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Perform the broadcasts, messages and commands of this task type for the
+     * specified task instance.
+     * 
+     * Broadcasts, console commands and follow-up tasks come first, so that
+     * console commands can prepare the player (e.g. grant a permission) for
+     * the player commands that follow.
+     * 
+     * @param task the task instance.
+     * @param rendering the rendered actions.
+     * @param drain the scheduler drain in which the task is executed.
+     */
+    private void performActions(Task task, Rendering rendering, long drain) {
+        performGlobalActions(task, rendering, drain);
+
+        if (hasAsyncActions()) {
+            OddJob.ASYNC_ACTIONS.submit(task.getId(),
+                                        () -> performAsyncActions(task, rendering._replacements, rendering._now));
+        }
+
+        PlatformScheduler platform = OddJob.PLATFORM;
+        Player player = task.getPlayer();
+        if (player != null && !rendering._playerCommands.isEmpty()) {
+            if (platform.isRegionized()) {
+                // On Folia, the player belongs to their own region.
+                platform.runForEntity(OddJob.PLUGIN, player, () -> performPlayerCommands(task, rendering), 0);
             } else {
-                Bukkit.broadcastMessage(prepareMessage(broadcast, replacements));
+                performPlayerCommands(task, rendering);
             }
         }
 
         // Delay login messages for visibility.
-        Bukkit.getScheduler().runTaskLater(OddJob.PLUGIN, () -> {
-            Player player = task.getPlayer();
-            if (player != null) {
-                for (String message : getMessages()) {
-                    String prepared = prepareMessage(message, replacements);
-                    player.sendMessage(prepared);
+        platform.runForEntity(OddJob.PLUGIN, player, () -> sendMessages(task, rendering), 20);
+    } // performActions
+
+    // ------------------------------------------------------------------------
+    /**
+     * Perform the player commands of this task type for the specified task
+     * instance, if its target player is online.
+     * 
+     * @param task the task instance.
+     * @param rendering the rendered actions.
+     */
+    private void performPlayerCommands(Task task, Rendering rendering) {
+        Player player = task.getPlayer();
+        if (player != null) {
+            List<String> playerCommands = rendering._playerCommands;
+            int firstLine = rendering._consoleCommands.size();
+            for (int line = 0; line < playerCommands.size(); ++line) {
+                String replacedCommand = playerCommands.get(line);
+                try {
                     if (OddJob.CONFIG.DEBUG_COMMANDS) {
-                        OddJob.PLUGIN.getLogger().info("Tell " + player.getName() + ": " + prepared);
+                        OddJob.PLUGIN.getLogger().info("Task " + task.getId() + " executing for " +
+                                                       player.getName() + ": " + replacedCommand);
                     }
+                    dispatchCommand(player, replacedCommand, firstLine + line);
+                } catch (Exception ex) {
+                    OddJob.PLUGIN.getLogger().severe(ex.getClass().getSimpleName() + " executing for " +
+                                                     player.getName() + ": " + replacedCommand);
                 }
             }
-        }, 20);
+        }
+    }
 
-        for (String command : getConsoleCommands()) {
-            String replacedCommand = null;
+    // ------------------------------------------------------------------------
+    /**
+     * Perform the broadcasts and console commands of this task type for the
+     * specified task instance, then schedule its follow-up tasks.
+     * 
+     * @param task the task instance.
+     * @param rendering the rendered actions.
+     * @param drain the scheduler drain in which the task is executed.
+     */
+    private void performGlobalActions(Task task, Rendering rendering, long drain) {
+        for (String broadcast : rendering._broadcasts) {
+            if (getBroadcastPermission() != null) {
+                Bukkit.broadcast(broadcast, getBroadcastPermission());
+            } else {
+                Bukkit.broadcastMessage(broadcast);
+            }
+        }
+
+        List<String> consoleCommands = rendering._consoleCommands;
+        for (int line = 0; line < consoleCommands.size(); ++line) {
+            String replacedCommand = consoleCommands.get(line);
+            if (_idempotentLines[line] &&
+                !OddJob.PLUGIN.getTaskScheduler().shouldRunIdempotentCommand(getId(), replacedCommand,
+                                                                              _idempotentWindowMillis, drain)) {
+                if (OddJob.CONFIG.DEBUG_COMMANDS) {
+                    OddJob.PLUGIN.getLogger().info("Task " + task.getId() + " skipping duplicate: " + replacedCommand);
+                }
+                OddJob.METRICS.commandDeduplicated();
+                continue;
+            }
             try {
-                replacedCommand = prepareCommand(command, replacements);
                 if (OddJob.CONFIG.DEBUG_COMMANDS) {
                     OddJob.PLUGIN.getLogger().info("Task " + task.getId() + " executing: " + replacedCommand);
                 }
-                Bukkit.dispatchCommand(Bukkit.getConsoleSender(), replacedCommand);
+                dispatchCommand(Bukkit.getConsoleSender(), replacedCommand, line);
             } catch (Exception ex) {
                 OddJob.PLUGIN.getLogger().severe(ex.getClass().getSimpleName() + " executing: " + replacedCommand);
             }
         }
 
+        if (!rendering._followUps.isEmpty()) {
+            if (OddJob.CONFIG.DEBUG_COMMANDS) {
+                for (Task followUp : rendering._followUps) {
+                    OddJob.PLUGIN.getLogger().info("Task " + task.getId() + " scheduling " + followUp.getId() +
+                                                   " of type " + followUp.getTaskTypeId() + ".");
+                }
+            }
+            OddJob.PLUGIN.getTaskScheduler().scheduleAll(rendering._followUps);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Perform the file appends, log records and ledger record of this task
+     * type for the specified task instance.
+     * 
+     * This runs on the {@link AsyncActionExecutor}, after the async actions of
+     * any earlier execution of a task with the same ID. An action that fails
+     * is logged and does not prevent the following actions.
+     * 
+     * @param task the task instance.
+     * @param replacements a map from variable name to string value.
+     * @param now the time of execution in milliseconds since Epoch.
+     */
+    private void performAsyncActions(Task task, HashMap<String, String> replacements, long now) {
+        File dataFolder = OddJob.PLUGIN.getDataFolder();
+        Logger logger = OddJob.PLUGIN.getLogger();
+        for (FileAppend append : _fileAppends) {
+            try {
+                OddJob.ASYNC_ACTIONS.appendLine(new File(dataFolder, append._file), replace(append._line, replacements));
+            } catch (IOException ex) {
+                logger.severe("Task " + task.getId() + " could not append to " + append._file + ": " + ex.getMessage());
+            }
+        }
+
+        for (String record : _logRecords) {
+            logger.info(replace(record, replacements));
+        }
+
+        if (_ledger != null) {
+            try {
+                String note = (_ledgerNote != null) ? replace(_ledgerNote, replacements) : null;
+                OddJob.ASYNC_ACTIONS.recordLedger(new File(dataFolder, _ledger), task, now, note);
+            } catch (IOException | SQLException ex) {
+                logger.severe("Task " + task.getId() + " could not record in ledger " + _ledger + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Send the messages of this task type to the target player of the
+     * specified task instance, if they are online.
+     * 
+     * @param task the task instance.
+     * @param rendering the rendered actions.
+     */
+    private void sendMessages(Task task, Rendering rendering) {
         Player player = task.getPlayer();
         if (player != null) {
-            for (String command : getPlayerCommands()) {
-                String replacedCommand = null;
-                try {
-                    replacedCommand = prepareCommand(command, replacements);
-                    if (OddJob.CONFIG.DEBUG_COMMANDS) {
-                        OddJob.PLUGIN.getLogger().info("Task " + task.getId() + " executing for " +
-                                                       player.getName() + ": " + replacedCommand);
-                    }
-                    Bukkit.dispatchCommand(player, replacedCommand);
-                } catch (Exception ex) {
-                    OddJob.PLUGIN.getLogger().severe(ex.getClass().getSimpleName() + " executing for " +
-                                                     player.getName() + ": " + replacedCommand);
+            for (String prepared : rendering._messages) {
+                player.sendMessage(prepared);
+                if (OddJob.CONFIG.DEBUG_COMMANDS) {
+                    OddJob.PLUGIN.getLogger().info("Tell " + player.getName() + ": " + prepared);
                 }
             }
         }
-    } // execute
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the map from variable name to value used to replace variables in
+     * the broadcasts, messages and commands of a task.
+     * 
+     * @param task the task instance.
+     * @param playerName the name of the target player, or null if there is no
+     *        target.
+     * @param now the current time in milliseconds since Epoch.
+     * @return a map from variable name (sans "%") to string value.
+     */
+    public static HashMap<String, String> getReplacements(Task task, String playerName, long now) {
+        HashMap<String, String> replacements = new HashMap<String, String>();
+        replacements.put("id", task.getId());
+        replacements.put("type", task.getTaskTypeId());
+        replacements.put("player", (playerName != null) ? playerName : "-");
+        replacements.put("uuid", (task.getOfflinePlayer() != null) ? task.getOfflinePlayer().getUniqueId().toString() : "-");
+        replacements.put("seconds", Long.toString(task.getTime() / 1000));
+        replacements.put("ms", Long.toString(task.getTime()));
+        replacements.put("now-seconds", Long.toString(now / 1000));
+        replacements.put("now-ms", Long.toString(now));
+        return replacements;
+    }
 
     // ------------------------------------------------------------------------
     /**
@@ -132,6 +413,9 @@ public class TaskType {
         sender.sendMessage(ChatColor.GOLD + "Permission: " + ChatColor.YELLOW + getPermission());
         sender.sendMessage(ChatColor.GOLD + "Marked online: " + ChatColor.YELLOW + _online);
         sender.sendMessage(ChatColor.GOLD + "Forced online: " + ChatColor.YELLOW + _forceOnline);
+        if (_maxOverdueMillis > 0) {
+            sender.sendMessage(ChatColor.GOLD + "Max overdue: " + ChatColor.YELLOW + (_maxOverdueMillis / 1000) + "s");
+        }
         String broadcastPermissionClause = getBroadcastPermission() != null ? "players with permission " + ChatColor.YELLOW +
                                                                               getBroadcastPermission() + ChatColor.GOLD + ":"
                                                                             : "all players:";
@@ -151,8 +435,14 @@ public class TaskType {
 
         if (getConsoleCommands().size() != 0) {
             sender.sendMessage(ChatColor.GOLD + "Console commands:");
-            for (String command : getConsoleCommands()) {
-                sender.sendMessage(ChatColor.translateAlternateColorCodes('&', replaceDescription(command)));
+            for (int line = 0; line < getConsoleCommands().size(); ++line) {
+                String description = ChatColor.translateAlternateColorCodes('&', replaceDescription(getConsoleCommands().get(line)));
+                if (_idempotentLines[line]) {
+                    description += ChatColor.GOLD + " (idempotent" +
+                                   (_idempotentWindowMillis > 0 ? ", once per " + (_idempotentWindowMillis / 1000) + "s" : "") +
+                                   ")";
+                }
+                sender.sendMessage(description);
             }
         }
 
@@ -162,6 +452,37 @@ public class TaskType {
                 sender.sendMessage(ChatColor.translateAlternateColorCodes('&', replaceDescription(command)));
             }
         }
+
+        if (!_fileAppends.isEmpty()) {
+            sender.sendMessage(ChatColor.GOLD + "File appends:");
+            for (FileAppend append : _fileAppends) {
+                sender.sendMessage(ChatColor.YELLOW + append._file + ChatColor.GOLD + ": " + ChatColor.WHITE +
+                                   ChatColor.translateAlternateColorCodes('&', replaceDescription(append._line)));
+            }
+        }
+
+        if (!_logRecords.isEmpty()) {
+            sender.sendMessage(ChatColor.GOLD + "Log records:");
+            for (String record : _logRecords) {
+                sender.sendMessage(ChatColor.translateAlternateColorCodes('&', replaceDescription(record)));
+            }
+        }
+
+        if (!_followUps.isEmpty()) {
+            sender.sendMessage(ChatColor.GOLD + "Follow-up tasks:");
+            for (FollowUp followUp : _followUps) {
+                sender.sendMessage(ChatColor.YELLOW + followUp._taskTypeId + ChatColor.GOLD + " after " +
+                                   ChatColor.YELLOW + (followUp._delayMillis / 1000) + "s" + ChatColor.GOLD + " as " +
+                                   ChatColor.WHITE + replaceDescription(followUp._id));
+            }
+        }
+
+        if (_ledger != null) {
+            sender.sendMessage(ChatColor.GOLD + "Ledger: " + ChatColor.YELLOW + _ledger);
+            if (_ledgerNote != null) {
+                sender.sendMessage(ChatColor.translateAlternateColorCodes('&', replaceDescription(_ledgerNote)));
+            }
+        }
     } // describe
 
     // ------------------------------------------------------------------------
@@ -206,6 +527,30 @@ public class TaskType {
         return _online || _forceOnline;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the age after which overdue tasks of this type are archived.
+     * 
+     * A task's age is measured from the time it was due.
+     * 
+     * @return the maximum age in milliseconds, or 0 if overdue tasks of this
+     *         type never expire.
+     */
+    public long getMaxOverdueMillis() {
+        return _maxOverdueMillis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if this task type has actions that are performed off the
+     * main thread: file appends, log records or a ledger.
+     * 
+     * @return true if this task type has async-safe actions.
+     */
+    public boolean hasAsyncActions() {
+        return !_fileAppends.isEmpty() || !_logRecords.isEmpty() || _ledger != null;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return a list of broadcasts to be sent when the task runs.
@@ -319,6 +664,79 @@ public class TaskType {
         return replace(replaced, replacements);
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return all of the settings in a task type section as a map from path to
+     * value, omitting the intermediate sections themselves.
+     * 
+     * Leaf values are strings, numbers, booleans or lists thereof, all of which
+     * can be compared with equals().
+     * 
+     * @param section the configuration section that describes a task type.
+     * @return a map from setting path to value.
+     */
+    private static Map<String, Object> getDefinition(ConfigurationSection section) {
+        TreeMap<String, Object> definition = new TreeMap<>();
+        for (Entry<String, Object> entry : section.getValues(true).entrySet()) {
+            if (!(entry.getValue() instanceof ConfigurationSection)) {
+                definition.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return definition;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Parse a duration setting, either a number of seconds or a sequence of
+     * integers followed by 'd', 'h', 'm' or 's', e.g. "30d" or "1h30m".
+     * 
+     * @param duration the setting.
+     * @return the duration in milliseconds, or -1 if invalid.
+     */
+    private static long parseDuration(String duration) {
+        String s = duration.trim().toLowerCase();
+        if (!DURATION.matcher(s).matches()) {
+            return -1;
+        }
+
+        long seconds = 0;
+        long num = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (Character.isDigit(c)) {
+                num = 10 * num + (c - '0');
+            } else {
+                seconds += num * (c == 'd' ? 86400 : c == 'h' ? 3600 : c == 'm' ? 60 : 1);
+                num = 0;
+            }
+        }
+        return 1000 * (seconds + num);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Dispatch a prepared command, timing it with the {@link CommandProfiler}
+     * if it is sampled.
+     * 
+     * @param sender the sender that runs the command.
+     * @param command the prepared command.
+     * @param line the index of the command's line in this task type, counting
+     *        all console commands followed by all player commands.
+     */
+    private void dispatchCommand(CommandSender sender, String command, int line) {
+        OddJob.WATCHDOG.setCommand(command);
+        if (OddJob.PROFILER.shouldSample()) {
+            long start = System.nanoTime();
+            try {
+                Bukkit.dispatchCommand(sender, command);
+            } finally {
+                OddJob.PROFILER.record(this, line, System.nanoTime() - start);
+            }
+        } else {
+            Bukkit.dispatchCommand(sender, command);
+        }
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Prepare a command for execution by replacing variables and dropping the
@@ -328,7 +746,7 @@ public class TaskType {
      * @param replacements a map from variable name to string value.
      * @return the prepared command.
      */
-    private String prepareCommand(String command, HashMap<String, String> replacements) {
+    public static String prepareCommand(String command, HashMap<String, String> replacements) {
         return replace(command.startsWith("/") ? command.substring(1) : command, replacements);
     }
 
@@ -341,11 +759,33 @@ public class TaskType {
      * @param replacements a map from variable name to string value.
      * @return the prepared message.
      */
-    private String prepareMessage(String message, HashMap<String, String> replacements) {
+    public static String prepareMessage(String message, HashMap<String, String> replacements) {
         return ChatColor.translateAlternateColorCodes('&', replace(message, replacements));
     }
 
     // ------------------------------------------------------------------------
+    /**
+     * Pattern matching console commands that use {@code /run-as}.
+     */
+    private static final Pattern RUN_AS = Pattern.compile("^/?run-?as .*$", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Pattern matching console commands that {@code /run-as} the console.
+     */
+    private static final Pattern RUN_AS_CONSOLE = Pattern.compile("^/?run-?as console .*$", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Pattern matching a duration: a number of seconds, or integers with unit
+     * suffixes.
+     */
+    private static final Pattern DURATION = Pattern.compile("^(\\d+|(\\d+[dhms])+)$");
+
+    /**
+     * The settings this task type was loaded from, used to detect changes on
+     * reload.
+     */
+    private Map<String, Object> _definition;
+
     /**
      * The unique ID of this task type.
      */
@@ -373,7 +813,7 @@ public class TaskType {
     /**
      * A list of broadcast messages to be shown when tasks of this type execute.
      */
-    private List<String> _broadcasts;
+    private List<String> _broadcasts = new ArrayList<>();
 
     /**
      * The permission required to receive the broadcast messages, or null if all
@@ -384,17 +824,199 @@ public class TaskType {
     /**
      * A list of messages to be sent to the target player.
      */
-    private List<String> _messages;
+    private List<String> _messages = new ArrayList<>();
 
     /**
      * A list of console commands to execute, in order, and before all player
      * commands.
      */
-    private List<String> _consoleCommands;
+    private List<String> _consoleCommands = new ArrayList<>();
 
     /**
      * A list of commands to execute as the target player.
      */
-    private List<String> _playerCommands;
+    private List<String> _playerCommands = new ArrayList<>();
+
+    /**
+     * For each console command, true if it is idempotent, so that identical
+     * rendered commands run only once per drain or window.
+     */
+    private boolean[] _idempotentLines = new boolean[0];
+
+    /**
+     * The period, in milliseconds, during which identical idempotent commands
+     * are skipped after one runs, or 0 to skip them only within one drain.
+     */
+    private long _idempotentWindowMillis;
+
+    /**
+     * Lines appended to files, in order, off the main thread.
+     */
+    private List<FileAppend> _fileAppends = new ArrayList<>();
+
+    /**
+     * Records written to the server log, in order, off the main thread.
+     */
+    private List<String> _logRecords = new ArrayList<>();
+
+    /**
+     * The SQLite ledger in which executions are recorded off the main thread,
+     * relative to the plugin data folder, or null if not recorded.
+     */
+    private String _ledger;
+
+    /**
+     * The note recorded in the ledger with each execution, or null.
+     */
+    private String _ledgerNote;
+
+    /**
+     * Tasks scheduled, without a command round-trip, when tasks of this type
+     * execute.
+     */
+    private List<FollowUp> _followUps = new ArrayList<>();
+
+    /**
+     * The age in milliseconds after which overdue tasks of this type are
+     * archived, or 0 if they never expire.
+     */
+    private long _maxOverdueMillis;
+
+    // ------------------------------------------------------------------------
+    /**
+     * A line appended to a file when a task executes.
+     */
+    private static final class FileAppend {
+        /**
+         * Constructor.
+         * 
+         * @param file the file, relative to the plugin data folder.
+         * @param line the line, which undergoes variable substitution.
+         */
+        FileAppend(String file, String line) {
+            _file = file;
+            _line = line;
+        }
+
+        /**
+         * The file, relative to the plugin data folder.
+         */
+        final String _file;
+
+        /**
+         * The line, which undergoes variable substitution.
+         */
+        final String _line;
+    } // class FileAppend
+
+    // ------------------------------------------------------------------------
+    /**
+     * A task scheduled when a task of this type executes.
+     */
+    private static final class FollowUp {
+        /**
+         * Constructor.
+         * 
+         * @param taskTypeId the type of the follow-up task.
+         * @param id the ID of the follow-up task, which undergoes variable
+         *        substitution.
+         * @param delayMillis the delay from execution to the follow-up task's
+         *        time, in milliseconds.
+         */
+        FollowUp(String taskTypeId, String id, long delayMillis) {
+            _taskTypeId = taskTypeId;
+            _id = id;
+            _delayMillis = delayMillis;
+        }
+
+        /**
+         * The type of the follow-up task.
+         */
+        final String _taskTypeId;
+
+        /**
+         * The ID of the follow-up task, before variable substitution.
+         */
+        final String _id;
+
+        /**
+         * The delay from execution to the follow-up task's time, in
+         * milliseconds.
+         */
+        final long _delayMillis;
+    } // class FollowUp
+
+    // ------------------------------------------------------------------------
+    /**
+     * The broadcasts, messages and commands of a task type with the variables
+     * of one task instance substituted, and its follow-up tasks.
+     */
+    static final class Rendering {
+        /**
+         * Constructor.
+         * 
+         * @param taskType the task type that rendered the actions.
+         * @param replacements the map from variable name to value.
+         * @param now the time of rendering in milliseconds since Epoch.
+         * @param broadcasts the rendered broadcasts.
+         * @param messages the rendered messages.
+         * @param consoleCommands the rendered console commands.
+         * @param playerCommands the rendered player commands.
+         * @param followUps the follow-up tasks.
+         */
+        Rendering(TaskType taskType, HashMap<String, String> replacements, long now,
+                  List<String> broadcasts, List<String> messages,
+                  List<String> consoleCommands, List<String> playerCommands, List<Task> followUps) {
+            _taskType = taskType;
+            _replacements = replacements;
+            _now = now;
+            _broadcasts = broadcasts;
+            _messages = messages;
+            _consoleCommands = consoleCommands;
+            _playerCommands = playerCommands;
+            _followUps = followUps;
+        }
+
+        /**
+         * The task type that rendered the actions; if it has since been
+         * reloaded, the actions are rendered again.
+         */
+        final TaskType _taskType;
+
+        /**
+         * The map from variable name to value, for the async-safe actions.
+         */
+        final HashMap<String, String> _replacements;
+
+        /**
+         * The time of rendering in milliseconds since Epoch.
+         */
+        final long _now;
+
+        /**
+         * The rendered broadcasts.
+         */
+        final List<String> _broadcasts;
+
+        /**
+         * The rendered messages.
+         */
+        final List<String> _messages;
+
+        /**
+         * The rendered console commands.
+         */
+        final List<String> _consoleCommands;
+
+        /**
+         * The rendered player commands.
+         */
+        final List<String> _playerCommands;
+
+        /**
+         * The follow-up tasks.
+         */
+        final List<Task> _followUps;
+    } // class Rendering
 
 } // class TaskType
\ No newline at end of file
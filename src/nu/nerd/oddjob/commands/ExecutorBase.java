@@ -3,8 +3,10 @@ package nu.nerd.oddjob.commands;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.NavigableSet;
 import java.util.stream.Collectors;
 
+import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -80,6 +82,52 @@ public abstract class ExecutorBase implements CommandExecutor, TabCompleter {
     }
 
     // ------------------------------------------------------------------------
+    /**
+     * Return up to {@link #MAX_COMPLETIONS} strings from a sorted set that
+     * start with the specified prefix.
+     * 
+     * Only the matching range of the set is visited, so the cost is
+     * independent of the size of the set.
+     * 
+     * @param sorted the set of candidate completions, in ascending order.
+     * @param prefix the prefix typed so far.
+     * @return the matching completions, in ascending order.
+     */
+    protected static List<String> completePrefix(NavigableSet<String> sorted, String prefix) {
+        ArrayList<String> completions = new ArrayList<String>();
+        for (String candidate : sorted.tailSet(prefix, true)) {
+            if (!candidate.startsWith(prefix) || completions.size() >= MAX_COMPLETIONS) {
+                break;
+            }
+            completions.add(candidate);
+        }
+        return completions;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return up to {@link #MAX_COMPLETIONS} names of online players that start
+     * with the specified prefix, ignoring case.
+     * 
+     * @param prefix the prefix typed so far.
+     * @return the matching player names.
+     */
+    protected static List<String> completePlayerName(String prefix) {
+        String lowerPrefix = prefix.toLowerCase();
+        return Bukkit.getOnlinePlayers().stream()
+        .map(Player::getName)
+        .filter(name -> name.toLowerCase().startsWith(lowerPrefix))
+        .sorted(String.CASE_INSENSITIVE_ORDER)
+        .limit(MAX_COMPLETIONS)
+        .collect(Collectors.toList());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The maximum number of tab completions returned for a single argument.
+     */
+    protected static final int MAX_COMPLETIONS = 50;
+
     /**
      * The name of this command, without the /.
      */
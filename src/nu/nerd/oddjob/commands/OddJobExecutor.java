@@ -1,10 +1,31 @@
 package nu.nerd.oddjob.commands;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 
 import net.md_5.bungee.api.ChatColor;
 import nu.nerd.oddjob.OddJob;
+import nu.nerd.oddjob.OverdueArchive;
+import nu.nerd.oddjob.Task;
+import nu.nerd.oddjob.TaskType;
+import nu.nerd.oddjob.metrics.CommandProfiler;
+import nu.nerd.oddjob.metrics.CommandProfiler.CommandProfile;
+import nu.nerd.oddjob.metrics.Histogram;
+import nu.nerd.oddjob.metrics.SchedulerMetrics;
+import nu.nerd.oddjob.trace.TraceRecorder;
 
 // ----------------------------------------------------------------------------
 /**
@@ -13,7 +34,8 @@ import nu.nerd.oddjob.OddJob;
 public class OddJobExecutor extends ExecutorBase {
     // ------------------------------------------------------------------------
     public OddJobExecutor() {
-        super("oddjob", "help", "reload", "save-tasks", "load-tasks");
+        super("oddjob", "help", "reload", "save-tasks", "load-tasks", "import", "stats", "profile", "trace", "stress",
+              "restore");
     }
 
     // ------------------------------------------------------------------------
@@ -28,9 +50,7 @@ public class OddJobExecutor extends ExecutorBase {
         }
 
         if (args.length == 1 && args[0].equalsIgnoreCase("reload")) {
-            OddJob.CONFIG.reload();
-            OddJob.PLUGIN.loadTaskTypes();
-            sender.sendMessage(ChatColor.GOLD + OddJob.PLUGIN.getName() + " configuration reloaded.");
+            OddJob.PLUGIN.reloadConfiguration(sender);
             return true;
         }
 
@@ -46,7 +66,491 @@ public class OddJobExecutor extends ExecutorBase {
             return true;
         }
 
+        if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+            showStats(sender);
+            return true;
+        }
+
+        if (args.length >= 1 && args.length <= 2 && args[0].equalsIgnoreCase("profile")) {
+            if (args.length == 2 && args[1].equalsIgnoreCase("reset")) {
+                OddJob.PROFILER.reset();
+                sender.sendMessage(ChatColor.GOLD + "Command profiles reset.");
+                return true;
+            }
+
+            int count = DEFAULT_PROFILE_LINES;
+            if (args.length == 2) {
+                try {
+                    count = Math.max(1, Integer.parseInt(args[1]));
+                } catch (NumberFormatException ex) {
+                    sender.sendMessage(ChatColor.RED + "Expecting a number of lines or \"reset\".");
+                    return true;
+                }
+            }
+            showProfile(sender, count);
+            return true;
+        }
+
+        if (args.length == 2 && args[0].equalsIgnoreCase("import")) {
+            importTasks(sender, args[1]);
+            return true;
+        }
+
+        if (args.length >= 2 && args.length <= 3 && args[0].equalsIgnoreCase("trace")) {
+            if (args.length == 2 && args[1].equalsIgnoreCase("stop")) {
+                stopTrace(sender);
+                return true;
+            }
+            if (args[1].equalsIgnoreCase("start")) {
+                startTrace(sender, (args.length == 3) ? args[2] : "trace-" + System.currentTimeMillis() + ".odjt");
+                return true;
+            }
+        }
+
+        if (args.length >= 2 && args.length <= 5 && args[0].equalsIgnoreCase("stress")) {
+            if (args.length == 2 && args[1].equalsIgnoreCase("stop")) {
+                stopStress(sender);
+            } else {
+                startStress(sender, args);
+            }
+            return true;
+        }
+
+        if (args.length == 3 && args[0].equalsIgnoreCase("restore")) {
+            if (args[1].equalsIgnoreCase("task")) {
+                String id = args[2];
+                restoreTasks(sender, t -> t.getId().equals(id), "task " + id);
+                return true;
+            }
+            if (args[1].equalsIgnoreCase("player")) {
+                OfflinePlayer player;
+                try {
+                    player = Bukkit.getOfflinePlayer(UUID.fromString(args[2]));
+                } catch (IllegalArgumentException ex) {
+                    player = Bukkit.getOfflinePlayer(args[2]);
+                }
+                if (player == null) {
+                    sender.sendMessage(ChatColor.RED + "There is no player matching " + args[2] + ".");
+                    return true;
+                }
+                UUID playerUuid = player.getUniqueId();
+                restoreTasks(sender, t -> t.getPlayerUuid().equals(playerUuid), "player " + args[2]);
+                return true;
+            }
+        }
+
         sender.sendMessage(ChatColor.RED + "Invalid arguments. Try /" + command.getName() + " help.");
         return true;
     }
-} // class OddJobExecutor
\ No newline at end of file
+
+    // ------------------------------------------------------------------------
+    /**
+     * Restore archived overdue tasks matching a predicate, scheduling them to
+     * run now.
+     * 
+     * The archive is read and rewritten asynchronously; the restored tasks
+     * are then scheduled on the main thread. Tasks whose task type no longer
+     * exists are left in the archive.
+     * 
+     * @param sender the command sender, who is told the outcome.
+     * @param predicate selects the archived tasks to restore.
+     * @param description describes the selected tasks to the sender.
+     */
+    private void restoreTasks(CommandSender sender, Predicate<OverdueArchive.ArchivedTask> predicate,
+                              String description) {
+        OddJob.ARCHIVE.remove(t -> predicate.test(t) && OddJob.PLUGIN.getTaskType(t.getTaskTypeId()) != null,
+                              restored -> OddJob.PLATFORM.runGlobal(OddJob.PLUGIN,
+                                                                    () -> scheduleRestored(sender, restored, description)));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule tasks removed from the archive to run now, and tell the command
+     * sender how many were restored.
+     * 
+     * @param sender the command sender.
+     * @param restored the tasks removed from the archive, or null if the
+     *        archive could not be updated.
+     * @param description describes the selected tasks to the sender.
+     */
+    private void scheduleRestored(CommandSender sender, List<OverdueArchive.ArchivedTask> restored, String description) {
+        if (restored == null) {
+            sender.sendMessage(ChatColor.RED + "The archive could not be read or updated.");
+            return;
+        }
+
+        long now = OddJob.PLUGIN.currentTimeMillis();
+        ArrayList<Task> tasks = new ArrayList<>(restored.size());
+        for (OverdueArchive.ArchivedTask archived : restored) {
+            tasks.add(new Task(archived.getId(), archived.getTaskTypeId(),
+                               Bukkit.getOfflinePlayer(archived.getPlayerUuid()), now));
+        }
+        int scheduled = OddJob.PLUGIN.getTaskScheduler().scheduleAll(tasks);
+        sender.sendMessage(ChatColor.GOLD + "Restored " + ChatColor.YELLOW + scheduled +
+                           ChatColor.GOLD + " archived tasks for " + ChatColor.YELLOW + description + ChatColor.GOLD + ".");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start recording a scheduling trace to a file in the plugin's
+     * {@code traces} folder.
+     * 
+     * @param sender the command sender.
+     * @param fileArg the trace file name.
+     */
+    private void startTrace(CommandSender sender, String fileArg) {
+        File tracesFolder = new File(OddJob.PLUGIN.getDataFolder(), "traces");
+        File file = new File(tracesFolder, fileArg);
+        try {
+            if (!file.getCanonicalPath().startsWith(tracesFolder.getCanonicalPath() + File.separator)) {
+                sender.sendMessage(ChatColor.RED + "The file must be in the traces folder.");
+                return;
+            }
+            OddJob.TRACE.start(file, OddJob.CONFIG.TASK_PERIOD_TICKS, OddJob.PLUGIN.getTaskScheduler().getClock(),
+                               OddJob.PLUGIN.getLogger());
+        } catch (IOException ex) {
+            sender.sendMessage(ChatColor.RED + "Could not start the trace: " + ex.getMessage());
+            return;
+        }
+        sender.sendMessage(ChatColor.GOLD + "Recording scheduling trace to " + ChatColor.YELLOW + file.getPath() +
+                           ChatColor.GOLD + ".");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop recording the scheduling trace.
+     * 
+     * @param sender the command sender.
+     */
+    private void stopTrace(CommandSender sender) {
+        TraceRecorder trace = OddJob.TRACE;
+        if (!trace.isRecording()) {
+            sender.sendMessage(ChatColor.RED + "No trace is being recorded.");
+            return;
+        }
+        File file = trace.getFile();
+        long records = trace.getRecordCount();
+        trace.stop();
+        sender.sendMessage(ChatColor.GOLD + "Recorded " + ChatColor.YELLOW + records +
+                           ChatColor.GOLD + " events to " + ChatColor.YELLOW + file.getPath() + ChatColor.GOLD + ".");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start a stress test.
+     * 
+     * The arguments are {@code stress <count> [<spread-seconds>] [<players>]
+     * [<online-percent>]}.
+     * 
+     * @param sender the command sender.
+     * @param args the command arguments.
+     */
+    private void startStress(CommandSender sender, String[] args) {
+        int[] values = { 0, DEFAULT_STRESS_SPREAD_SECONDS, DEFAULT_STRESS_PLAYERS, DEFAULT_STRESS_ONLINE_PERCENT };
+        for (int i = 1; i < args.length; ++i) {
+            try {
+                values[i - 1] = Integer.parseInt(args[i]);
+            } catch (NumberFormatException ex) {
+                values[i - 1] = -1;
+            }
+            if (values[i - 1] < 0) {
+                sender.sendMessage(ChatColor.RED + "Expecting a non-negative integer, but got: " + args[i]);
+                return;
+            }
+        }
+        if (values[0] == 0 || values[0] > MAX_STRESS_TASKS) {
+            sender.sendMessage(ChatColor.RED + "The number of tasks must be between 1 and " + MAX_STRESS_TASKS + ".");
+            return;
+        }
+        if (values[3] > 100) {
+            sender.sendMessage(ChatColor.RED + "The online percentage must be between 0 and 100.");
+            return;
+        }
+
+        if (!OddJob.STRESS.start(sender, values[0], values[1], values[2], values[3])) {
+            sender.sendMessage(ChatColor.RED + "A stress test is already running. Use /oddjob stress stop to abandon it.");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Abandon the running stress test.
+     * 
+     * @param sender the command sender.
+     */
+    private void stopStress(CommandSender sender) {
+        if (!OddJob.STRESS.isRunning()) {
+            sender.sendMessage(ChatColor.RED + "No stress test is running.");
+            return;
+        }
+        int cancelled = OddJob.STRESS.stop();
+        sender.sendMessage(ChatColor.GOLD + "Stress test abandoned; cancelled " + ChatColor.YELLOW + cancelled +
+                           ChatColor.GOLD + " stress tasks.");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show scheduler metrics to the command sender.
+     * 
+     * @param sender the command sender.
+     */
+    private void showStats(CommandSender sender) {
+        SchedulerMetrics metrics = OddJob.METRICS;
+        metrics.updateGauges(OddJob.PLUGIN.getTaskScheduler());
+        sender.sendMessage(ChatColor.GOLD + "Pending tasks: " + ChatColor.YELLOW + metrics.getPendingTasks() +
+                           ChatColor.GOLD + ", overdue tasks: " + ChatColor.YELLOW + metrics.getOverdueTasks() +
+                           ChatColor.GOLD + " for " + ChatColor.YELLOW + metrics.getOverduePlayers() +
+                           ChatColor.GOLD + " players (at most " + ChatColor.YELLOW + metrics.getMaxOverdueTasksPerPlayer() +
+                           ChatColor.GOLD + " per player), cold tasks: " + ChatColor.YELLOW + OddJob.COLD.getTaskCount());
+        sender.sendMessage(ChatColor.GOLD + "Scheduled: " + ChatColor.YELLOW + metrics.getTasksScheduled() +
+                           ChatColor.GOLD + ", cancelled: " + ChatColor.YELLOW + metrics.getTasksCancelled() +
+                           ChatColor.GOLD + ", executed: " + ChatColor.YELLOW + metrics.getTasksExecuted() +
+                           ChatColor.GOLD + " (" + ChatColor.YELLOW + metrics.getOverdueTasksExecuted() +
+                           ChatColor.GOLD + " on login), deferred: " + ChatColor.YELLOW + metrics.getTasksDeferred() +
+                           ChatColor.GOLD + ", permission failures: " + ChatColor.YELLOW + metrics.getPermissionFailures());
+        sendHistogram(sender, "Lateness", metrics.getLateness(), "ms");
+        sendHistogram(sender, "Queue run time", metrics.getDrainMicros(), "us");
+        sendHistogram(sender, "Tasks per queue run", metrics.getDrainTasks(), "");
+        sendHistogram(sender, "Execution time", metrics.getExecuteMicros(), "us");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Send a one-line summary of a histogram to the command sender.
+     * 
+     * @param sender the command sender.
+     * @param title the title of the histogram.
+     * @param histogram the histogram.
+     * @param units the units of the recorded values.
+     */
+    private void sendHistogram(CommandSender sender, String title, Histogram histogram, String units) {
+        sender.sendMessage(ChatColor.GOLD + title + ": " +
+                           ChatColor.YELLOW + histogram.getCount() + ChatColor.GOLD + " samples, p50 " +
+                           ChatColor.YELLOW + histogram.getPercentile(50) + units + ChatColor.GOLD + ", p95 " +
+                           ChatColor.YELLOW + histogram.getPercentile(95) + units + ChatColor.GOLD + ", p99 " +
+                           ChatColor.YELLOW + histogram.getPercentile(99) + units + ChatColor.GOLD + ", max " +
+                           ChatColor.YELLOW + histogram.getMax() + units);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show the most expensive task type command lines to the command sender.
+     * 
+     * @param sender the command sender.
+     * @param count the maximum number of command lines to show.
+     */
+    private void showProfile(CommandSender sender, int count) {
+        CommandProfiler profiler = OddJob.PROFILER;
+        if (!profiler.isEnabled()) {
+            sender.sendMessage(ChatColor.GOLD + "The command profiler is disabled; set " +
+                               ChatColor.YELLOW + "profiler.enabled" + ChatColor.GOLD + " to enable it.");
+        }
+
+        List<CommandProfile> top = profiler.getTop(count);
+        sender.sendMessage(ChatColor.GOLD + "Top " + ChatColor.YELLOW + top.size() +
+                           ChatColor.GOLD + " command lines by total sampled time (sample rate " +
+                           ChatColor.YELLOW + profiler.getSampleRate() + ChatColor.GOLD + "):");
+        for (CommandProfile profile : top) {
+            sender.sendMessage(ChatColor.YELLOW + profile.getTaskTypeId() + " " + profile.getDescription() +
+                               ChatColor.GOLD + ": " + ChatColor.YELLOW + profile.getCount() +
+                               ChatColor.GOLD + " samples, total " + ChatColor.YELLOW + formatMillis(profile.getTotalNanos()) +
+                               ChatColor.GOLD + ", mean " + ChatColor.YELLOW + formatMillis(profile.getMeanNanos()) +
+                               ChatColor.GOLD + ", p50 " + ChatColor.YELLOW + formatMillis(profile.getPercentile(50)) +
+                               ChatColor.GOLD + ", p95 " + ChatColor.YELLOW + formatMillis(profile.getPercentile(95)) +
+                               ChatColor.GOLD + ", p99 " + ChatColor.YELLOW + formatMillis(profile.getPercentile(99)) +
+                               ChatColor.GOLD + ", max " + ChatColor.YELLOW + formatMillis(profile.getMaxNanos()));
+            sender.sendMessage(ChatColor.GRAY + "  " + profile.getTemplate());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format a duration in nanoseconds as milliseconds.
+     * 
+     * @param nanos the duration in nanoseconds.
+     * @return the formatted duration, e.g. "1.234ms".
+     */
+    private static String formatMillis(long nanos) {
+        return String.format("%.3fms", nanos / 1e6);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule all tasks listed in a file in the plugin's data folder.
+     * 
+     * Each line of the file has the same arguments as {@code /task run}:
+     * {@code <task-id> <task-type> <player> [<time>]}. Blank lines and lines
+     * starting with '#' are ignored. Lines that cannot be parsed are reported
+     * and skipped; the rest are scheduled as a single batch.
+     * 
+     * The file is read and parsed asynchronously, since looking up players by
+     * name may block; the parsed tasks are then scheduled on the main thread.
+     * 
+     * @param sender the command sender, to whom errors are reported.
+     * @param fileArg the path of the file, relative to the data folder.
+     */
+    private void importTasks(CommandSender sender, String fileArg) {
+        File dataFolder = OddJob.PLUGIN.getDataFolder();
+        File file = new File(dataFolder, fileArg);
+        try {
+            if (!file.getCanonicalPath().startsWith(dataFolder.getCanonicalPath() + File.separator)) {
+                sender.sendMessage(ChatColor.RED + "The file must be in the " + OddJob.PLUGIN.getName() + " folder.");
+                return;
+            }
+        } catch (IOException ex) {
+            sender.sendMessage(ChatColor.RED + "Invalid file name: " + fileArg);
+            return;
+        }
+
+        long now = OddJob.PLUGIN.currentTimeMillis();
+        OddJob.PLATFORM.runAsync(OddJob.PLUGIN, () -> {
+            ArrayList<Task> tasks = new ArrayList<>();
+            ArrayList<String> errors = new ArrayList<>();
+            int errorCount = readTasks(file, fileArg, now, tasks, errors);
+            OddJob.PLATFORM.runGlobal(OddJob.PLUGIN, () -> {
+                for (String error : errors) {
+                    sender.sendMessage(ChatColor.RED + error);
+                }
+                if (errorCount < 0) {
+                    return;
+                }
+                int scheduled = OddJob.PLUGIN.getTaskScheduler().scheduleAll(tasks);
+                sender.sendMessage(ChatColor.GOLD + "Imported " + ChatColor.YELLOW + scheduled +
+                                   ChatColor.GOLD + " tasks from " + ChatColor.YELLOW + fileArg +
+                                   ChatColor.GOLD + " with " + ChatColor.YELLOW + errorCount +
+                                   ChatColor.GOLD + " invalid lines.");
+            });
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read and parse the tasks in an import file, line by line.
+     * 
+     * This method runs asynchronously. Players named in the file are looked
+     * up once per distinct name.
+     * 
+     * @param file the file.
+     * @param fileArg the file name, as shown in error messages.
+     * @param now the current time in milliseconds since Epoch.
+     * @param tasks the list to which parsed tasks are added.
+     * @param errors the list to which up to {@link #MAX_REPORTED_ERRORS}
+     *        error messages are added.
+     * @return the number of lines that could not be parsed, or -1 if the file
+     *         could not be read.
+     */
+    private int readTasks(File file, String fileArg, long now, List<Task> tasks, List<String> errors) {
+        HashMap<String, String> replacements = new HashMap<String, String>();
+        replacements.put("now-seconds", Long.toString(now / 1000));
+        replacements.put("now-ms", Long.toString(now));
+        HashMap<String, OfflinePlayer> players = new HashMap<>();
+
+        int errorCount = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ++lineNumber;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                Object parsed = parseTask(line.split("\\s+"), now, replacements, players);
+                if (parsed instanceof Task) {
+                    tasks.add((Task) parsed);
+                } else {
+                    if (++errorCount <= MAX_REPORTED_ERRORS) {
+                        errors.add(fileArg + " line " + lineNumber + ": " + parsed);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            errors.add(ex.getClass().getSimpleName() + " reading " + fileArg + ": " + ex.getMessage());
+            return -1;
+        }
+        return errorCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Parse one line of an import file as a {@link Task}.
+     * 
+     * @param parts the whitespace-separated parts of the line.
+     * @param now the current time in milliseconds since Epoch.
+     * @param replacements a map from variable name to value, substituted into
+     *        the task ID.
+     * @param players a cache of the players already looked up, by the name or
+     *        UUID given in the file.
+     * @return either the parsed Task or a string error message.
+     */
+    private Object parseTask(String[] parts, long now, HashMap<String, String> replacements,
+                             HashMap<String, OfflinePlayer> players) {
+        if (parts.length != 3 && parts.length != 4) {
+            return "expecting <task-id> <task-type> <player> [<time>]";
+        }
+
+        String taskId = TaskType.replace(parts[0], replacements);
+        String taskTypeId = parts[1];
+        if (OddJob.PLUGIN.getTaskType(taskTypeId) == null) {
+            return "There is no task type named " + taskTypeId + ".";
+        }
+
+        OfflinePlayer player = null;
+        if (!parts[2].equals("null")) {
+            player = players.computeIfAbsent(parts[2], name -> {
+                try {
+                    return Bukkit.getOfflinePlayer(UUID.fromString(name));
+                } catch (IllegalArgumentException ex) {
+                    return Bukkit.getOfflinePlayer(name);
+                }
+            });
+            if (player == null) {
+                return "There is no player matching " + parts[2] + ".";
+            }
+        }
+
+        long time = now;
+        if (parts.length == 4) {
+            Object parsedTime = TaskExecutor.parseTime(parts[3]);
+            if (!(parsedTime instanceof Long)) {
+                return parsedTime;
+            }
+            time = (Long) parsedTime;
+        }
+        return new Task(taskId, taskTypeId, player, time);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The maximum number of invalid import lines reported to the command
+     * sender individually.
+     */
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    /**
+     * The default number of command lines shown by {@code /oddjob profile}.
+     */
+    private static final int DEFAULT_PROFILE_LINES = 10;
+
+    /**
+     * The maximum number of tasks generated by {@code /oddjob stress}.
+     */
+    private static final int MAX_STRESS_TASKS = 1_000_000;
+
+    /**
+     * The default period, in seconds, over which stress tasks fall due.
+     */
+    private static final int DEFAULT_STRESS_SPREAD_SECONDS = 60;
+
+    /**
+     * The default number of synthetic target players of stress tasks.
+     */
+    private static final int DEFAULT_STRESS_PLAYERS = 1000;
+
+    /**
+     * The default percentage of stress tasks that require their target player
+     * to be online.
+     */
+    private static final int DEFAULT_STRESS_ONLINE_PERCENT = 50;
+} // class OddJobExecutor
@@ -1,6 +1,9 @@
 package nu.nerd.oddjob.commands;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.regex.Pattern;
@@ -17,6 +20,7 @@ import com.google.common.collect.ImmutableMap;
 import net.md_5.bungee.api.ChatColor;
 import nu.nerd.oddjob.OddJob;
 import nu.nerd.oddjob.Task;
+import nu.nerd.oddjob.TaskScheduler;
 import nu.nerd.oddjob.TaskType;
 
 // ----------------------------------------------------------------------------
@@ -29,7 +33,7 @@ public class TaskExecutor extends ExecutorBase {
      * Constructor.
      */
     public TaskExecutor() {
-        super("task", "help", "types", "describe", "run", "cancel");
+        super("task", "help", "types", "describe", "run", "cancel", "cancel-player", "list");
     }
 
     // ------------------------------------------------------------------------
@@ -62,7 +66,7 @@ public class TaskExecutor extends ExecutorBase {
         }
 
         if ((args.length == 4 || args.length == 5) && args[0].equalsIgnoreCase("run")) {
-            long now = System.currentTimeMillis();
+            long now = OddJob.PLUGIN.currentTimeMillis();
             HashMap<String, String> replacements = new HashMap<String, String>();
             replacements.put("now-seconds", Long.toString(now / 1000));
             replacements.put("now-ms", Long.toString(now));
@@ -82,11 +86,7 @@ public class TaskExecutor extends ExecutorBase {
             if (playerArg.equals("null")) {
                 player = null;
             } else {
-                try {
-                    player = Bukkit.getOfflinePlayer(UUID.fromString(playerArg));
-                } catch (IllegalArgumentException ex) {
-                    player = Bukkit.getOfflinePlayer(playerArg);
-                }
+                player = lookUpPlayer(playerArg);
                 if (player == null) {
                     sender.sendMessage(ChatColor.RED + "There is no player matching " + playerArg + ".");
                     return true;
@@ -132,10 +132,175 @@ public class TaskExecutor extends ExecutorBase {
             return true;
         }
 
+        if (args.length == 2 && args[0].equalsIgnoreCase("cancel-player")) {
+            String playerArg = args[1];
+            OfflinePlayer player = lookUpPlayer(playerArg);
+            if (player == null) {
+                sender.sendMessage(ChatColor.RED + "There is no player matching " + playerArg + ".");
+                return true;
+            }
+            int cancelled = OddJob.PLUGIN.getTaskScheduler().cancelTasksFor(player.getUniqueId());
+            sender.sendMessage(ChatColor.GOLD + "Cancelled " + ChatColor.YELLOW + cancelled +
+                               ChatColor.GOLD + " tasks targeting " + ChatColor.YELLOW + player.getName() +
+                               ChatColor.GOLD + ".");
+            return true;
+        }
+
+        if (args.length >= 1 && args[0].equalsIgnoreCase("list")) {
+            listTasks(sender, Arrays.copyOfRange(args, 1, args.length));
+            return true;
+        }
+
         sender.sendMessage(ChatColor.RED + "Invalid arguments. Try /" + command.getName() + " help.");
         return true;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Complete task IDs, task types and player names in the arguments of
+     * {@code /task run}, {@code /task cancel}, {@code /task cancel-player} and
+     * {@code /task describe}.
+     * 
+     * @see nu.nerd.oddjob.commands.ExecutorBase#onTabComplete(org.bukkit.command.CommandSender,
+     *      org.bukkit.command.Command, java.lang.String, java.lang.String[])
+     */
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (args.length <= 1) {
+            return super.onTabComplete(sender, command, alias, args);
+        }
+
+        String subcommand = args[0].toLowerCase();
+        String prefix = args[args.length - 1];
+        if (subcommand.equals("run")) {
+            switch (args.length) {
+            case 2:
+                return OddJob.PLUGIN.getTaskScheduler().getTaskIdsStartingWith(prefix, MAX_COMPLETIONS);
+            case 3:
+                return completePrefix(OddJob.PLUGIN.getTaskTypeIds(), prefix);
+            case 4:
+                return completePlayerName(prefix);
+            }
+        } else if (args.length == 2) {
+            if (subcommand.equals("cancel")) {
+                return OddJob.PLUGIN.getTaskScheduler().getTaskIdsStartingWith(prefix, MAX_COMPLETIONS);
+            } else if (subcommand.equals("describe")) {
+                return completePrefix(OddJob.PLUGIN.getTaskTypeIds(), prefix);
+            } else if (subcommand.equals("cancel-player")) {
+                return completePlayerName(prefix);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle {@code /task list [player:X] [type:Y] [before:T] [after:T] [page:N]}.
+     * 
+     * @param sender the command sender.
+     * @param filters the arguments after "list".
+     */
+    private void listTasks(CommandSender sender, String[] filters) {
+        UUID playerUuid = null;
+        String taskTypeId = null;
+        Long before = null;
+        Long after = null;
+        int page = 1;
+        for (String filter : filters) {
+            int colon = filter.indexOf(':');
+            String key = (colon < 0) ? filter : filter.substring(0, colon).toLowerCase();
+            String value = (colon < 0) ? "" : filter.substring(colon + 1);
+            if (key.equals("player")) {
+                OfflinePlayer player = lookUpPlayer(value);
+                if (player == null) {
+                    sender.sendMessage(ChatColor.RED + "There is no player matching " + value + ".");
+                    return;
+                }
+                playerUuid = player.getUniqueId();
+            } else if (key.equals("type")) {
+                taskTypeId = value;
+            } else if (key.equals("before") || key.equals("after")) {
+                Object parsedTime = parseTime(value);
+                if (!(parsedTime instanceof Long)) {
+                    sender.sendMessage(ChatColor.RED + (String) parsedTime);
+                    return;
+                }
+                if (key.equals("before")) {
+                    before = (Long) parsedTime;
+                } else {
+                    after = (Long) parsedTime;
+                }
+            } else if (key.equals("page")) {
+                try {
+                    page = Math.max(1, Integer.parseInt(value));
+                } catch (NumberFormatException ex) {
+                    sender.sendMessage(ChatColor.RED + "The page must be an integer.");
+                    return;
+                }
+            } else {
+                sender.sendMessage(ChatColor.RED + "Invalid filter: " + filter + ". Try /task help.");
+                return;
+            }
+        }
+
+        TaskScheduler scheduler = OddJob.PLUGIN.getTaskScheduler();
+        int count = scheduler.countTasks(playerUuid, taskTypeId, after, before);
+        int pages = Math.max(1, (count + PAGE_SIZE - 1) / PAGE_SIZE);
+        page = Math.min(page, pages);
+        List<Task> pageTasks = scheduler.findTasks(playerUuid, taskTypeId, after, before,
+                                                   (page - 1) * PAGE_SIZE, PAGE_SIZE);
+        sender.sendMessage(ChatColor.GOLD + "Matching tasks: " + ChatColor.YELLOW + count +
+                           ChatColor.GOLD + " (page " + ChatColor.YELLOW + page +
+                           ChatColor.GOLD + " of " + ChatColor.YELLOW + pages + ChatColor.GOLD + ")");
+
+        long now = scheduler.getClock().millis();
+        for (Task task : pageTasks) {
+            String target = (task.getOfflinePlayer() == null) ? "-" : task.getPlayerName();
+            String when = (task.getTime() > now) ? "in " + formatDuration(task.getTime() - now)
+                                                 : formatDuration(now - task.getTime()) + " ago";
+            sender.sendMessage(ChatColor.YELLOW + task.getId() +
+                               ChatColor.WHITE + " " + task.getTaskTypeId() +
+                               ChatColor.GOLD + " on " + ChatColor.YELLOW + target +
+                               ChatColor.GOLD + " " + when);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the OfflinePlayer with the specified UUID or name.
+     * 
+     * @param playerArg the UUID or name.
+     * @return the OfflinePlayer, or null if not found.
+     */
+    private static OfflinePlayer lookUpPlayer(String playerArg) {
+        try {
+            return Bukkit.getOfflinePlayer(UUID.fromString(playerArg));
+        } catch (IllegalArgumentException ex) {
+            return Bukkit.getOfflinePlayer(playerArg);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format a duration in milliseconds in the same style as relative times,
+     * e.g. "1h2m3s".
+     * 
+     * @param millis the duration in milliseconds.
+     * @return the formatted duration.
+     */
+    private static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        StringBuilder s = new StringBuilder();
+        if (seconds >= 3600) {
+            s.append(seconds / 3600).append('h');
+        }
+        if (seconds >= 60) {
+            s.append((seconds / 60) % 60).append('m');
+        }
+        s.append(seconds % 60).append('s');
+        return s.toString();
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return the task time, parsed from a command line argument.
@@ -144,7 +309,7 @@ public class TaskExecutor extends ExecutorBase {
      * @return either the number of milliseconds since epoch, as a long, or a
      *         string error message.
      */
-    private Object parseTime(String timeArg) {
+    public static Object parseTime(String timeArg) {
         if (timeArg.startsWith("@")) {
             try {
                 return 1000 * Long.valueOf(timeArg.substring(1));
@@ -153,8 +318,7 @@ public class TaskExecutor extends ExecutorBase {
             }
         } else if (timeArg.startsWith("+")) {
             String suffix = timeArg.substring(1).toLowerCase();
-            Pattern expected = Pattern.compile("^(\\d+[hms])+$");
-            if (!expected.matcher(suffix).matches()) {
+            if (!RELATIVE_TIME.matcher(suffix).matches()) {
                 return "Invalid relative time: expecting '+' then a sequence of integers followed by 'h', 'm' or 's'.";
             }
 
@@ -170,7 +334,7 @@ public class TaskExecutor extends ExecutorBase {
                     num = 0;
                 }
             }
-            return 1000 * seconds + System.currentTimeMillis();
+            return 1000 * seconds + OddJob.PLUGIN.currentTimeMillis();
         } else {
             return "Time arguments must begin with '@' or '+'.";
         }
@@ -181,5 +345,15 @@ public class TaskExecutor extends ExecutorBase {
      * Map from single letter suffix in relative times to corresponding number
      * of seconds.
      */
-    private final Map<Character, Integer> UNITS_TO_S = ImmutableMap.of('h', 3600, 'm', 60, 's', 1);
+    private static final Map<Character, Integer> UNITS_TO_S = ImmutableMap.of('h', 3600, 'm', 60, 's', 1);
+
+    /**
+     * Pattern matching a relative time after the leading '+'.
+     */
+    private static final Pattern RELATIVE_TIME = Pattern.compile("^(\\d+[hms])+$");
+
+    /**
+     * The number of tasks listed per page by {@code /task list}.
+     */
+    private static final int PAGE_SIZE = 10;
 } // class TaskExecutor
\ No newline at end of file
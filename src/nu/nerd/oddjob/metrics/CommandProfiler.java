@@ -0,0 +1,359 @@
+package nu.nerd.oddjob.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import nu.nerd.oddjob.TaskType;
+
+// ----------------------------------------------------------------------------
+/**
+ * Measures the time taken to dispatch each console and player command line of
+ * each {@link TaskType}.
+ * 
+ * The profiler is disabled by default. When enabled, only a configurable
+ * fraction of command dispatches are timed, so that it is cheap enough to
+ * leave on in production. For each command line it keeps totals and a rolling
+ * window of the most recent samples, from which percentiles are computed on
+ * demand.
+ * 
+ * On Folia, commands are dispatched from several region threads, so the
+ * methods that access the profiles are synchronized.
+ */
+public class CommandProfiler {
+    // ------------------------------------------------------------------------
+    /**
+     * The number of recent samples of each command line kept for computing
+     * percentiles.
+     */
+    public static final int WINDOW = 256;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Configure the profiler.
+     * 
+     * @param enabled true if commands should be profiled.
+     * @param sampleRate the fraction of command dispatches to time, in the
+     *        range [0, 1].
+     */
+    public void configure(boolean enabled, double sampleRate) {
+        _enabled = enabled;
+        _sampleRate = Math.max(0.0, Math.min(1.0, sampleRate));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the next command dispatch should be timed.
+     * 
+     * @return true if the next command dispatch should be timed.
+     */
+    public boolean shouldSample() {
+        return _enabled && (_sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < _sampleRate);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the time taken to dispatch one command line of a task type.
+     * 
+     * @param type the task type.
+     * @param line the index of the command line, counting all console
+     *        commands followed by all player commands.
+     * @param nanos the time taken in nanoseconds.
+     */
+    public synchronized void record(TaskType type, int line, long nanos) {
+        TypeProfile profile = _profiles.get(type.getId());
+        if (profile == null || profile._type != type) {
+            // New task type, or redefined by a reload.
+            profile = new TypeProfile(type);
+            _profiles.put(type.getId(), profile);
+        }
+        if (line < profile._lines.length) {
+            profile._lines[line].record(nanos);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return snapshots of the profiles of the command lines with the greatest
+     * total sampled time, in descending order of that time.
+     * 
+     * The returned profiles are copies, so callers can read them without
+     * holding the lock while commands continue to be recorded.
+     * 
+     * @param count the maximum number of profiles to return.
+     * @return the profiles.
+     */
+    public synchronized List<CommandProfile> getTop(int count) {
+        ArrayList<CommandProfile> all = new ArrayList<>();
+        for (TypeProfile profile : _profiles.values()) {
+            for (CommandProfile line : profile._lines) {
+                if (line.getCount() > 0) {
+                    all.add(line);
+                }
+            }
+        }
+        all.sort(Comparator.comparingLong(CommandProfile::getTotalNanos).reversed());
+        ArrayList<CommandProfile> top = new ArrayList<>();
+        for (CommandProfile line : all.subList(0, Math.min(count, all.size()))) {
+            top.add(line.copy());
+        }
+        return top;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard all samples.
+     */
+    public synchronized void reset() {
+        _profiles.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the profiler is enabled.
+     * 
+     * @return true if the profiler is enabled.
+     */
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the fraction of command dispatches that are timed.
+     * 
+     * @return the sample rate.
+     */
+    public double getSampleRate() {
+        return _sampleRate;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Timing statistics of a single command line of a task type.
+     */
+    public static class CommandProfile {
+        // --------------------------------------------------------------------
+        /**
+         * Constructor.
+         * 
+         * @param taskTypeId the task type ID.
+         * @param description a short description of the line, e.g.
+         *        "console #1".
+         * @param template the command template, before variable substitution.
+         */
+        CommandProfile(String taskTypeId, String description, String template) {
+            _taskTypeId = taskTypeId;
+            _description = description;
+            _template = template;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Record one sample.
+         * 
+         * @param nanos the time taken in nanoseconds.
+         */
+        void record(long nanos) {
+            _window[(int) (_count % WINDOW)] = nanos;
+            ++_count;
+            _totalNanos += nanos;
+            if (nanos > _maxNanos) {
+                _maxNanos = nanos;
+            }
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return a copy of this profile.
+         * 
+         * @return a copy of this profile.
+         */
+        CommandProfile copy() {
+            CommandProfile copy = new CommandProfile(_taskTypeId, _description, _template);
+            System.arraycopy(_window, 0, copy._window, 0, WINDOW);
+            copy._count = _count;
+            copy._totalNanos = _totalNanos;
+            copy._maxNanos = _maxNanos;
+            return copy;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the specified percentile of the samples in the rolling
+         * window.
+         * 
+         * @param percentile the percentile, in the range [0, 100].
+         * @return the percentile, in nanoseconds.
+         */
+        public long getPercentile(double percentile) {
+            int size = (int) Math.min(_count, WINDOW);
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(_window, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(size * percentile / 100.0) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the task type ID.
+         * 
+         * @return the task type ID.
+         */
+        public String getTaskTypeId() {
+            return _taskTypeId;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return a short description of the command line, e.g. "console #1".
+         * 
+         * @return the description.
+         */
+        public String getDescription() {
+            return _description;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the command template, before variable substitution.
+         * 
+         * @return the command template.
+         */
+        public String getTemplate() {
+            return _template;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the number of samples.
+         * 
+         * @return the number of samples.
+         */
+        public long getCount() {
+            return _count;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the total time of all samples, in nanoseconds.
+         * 
+         * @return the total time of all samples, in nanoseconds.
+         */
+        public long getTotalNanos() {
+            return _totalNanos;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the mean time of all samples, in nanoseconds.
+         * 
+         * @return the mean time of all samples, in nanoseconds.
+         */
+        public long getMeanNanos() {
+            return (_count == 0) ? 0 : _totalNanos / _count;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the largest sample, in nanoseconds.
+         * 
+         * @return the largest sample, in nanoseconds.
+         */
+        public long getMaxNanos() {
+            return _maxNanos;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * The task type ID.
+         */
+        private final String _taskTypeId;
+
+        /**
+         * A short description of the command line.
+         */
+        private final String _description;
+
+        /**
+         * The command template.
+         */
+        private final String _template;
+
+        /**
+         * The most recent samples, as a ring buffer.
+         */
+        private final long[] _window = new long[WINDOW];
+
+        /**
+         * The number of samples.
+         */
+        private long _count;
+
+        /**
+         * The total time of all samples.
+         */
+        private long _totalNanos;
+
+        /**
+         * The largest sample.
+         */
+        private long _maxNanos;
+    } // class CommandProfile
+
+    // ------------------------------------------------------------------------
+    /**
+     * The command line profiles of one task type.
+     */
+    private static final class TypeProfile {
+        /**
+         * Constructor.
+         * 
+         * @param type the task type.
+         */
+        TypeProfile(TaskType type) {
+            _type = type;
+            List<String> console = type.getConsoleCommands();
+            List<String> player = type.getPlayerCommands();
+            _lines = new CommandProfile[console.size() + player.size()];
+            for (int i = 0; i < console.size(); ++i) {
+                _lines[i] = new CommandProfile(type.getId(), "console #" + (i + 1), console.get(i));
+            }
+            for (int i = 0; i < player.size(); ++i) {
+                _lines[console.size() + i] = new CommandProfile(type.getId(), "player #" + (i + 1), player.get(i));
+            }
+        }
+
+        /**
+         * The task type, used to detect redefinition on reload.
+         */
+        final TaskType _type;
+
+        /**
+         * Profiles of console commands, followed by player commands.
+         */
+        final CommandProfile[] _lines;
+    } // class TypeProfile
+
+    // ------------------------------------------------------------------------
+    /**
+     * True if commands should be profiled.
+     */
+    private boolean _enabled;
+
+    /**
+     * The fraction of command dispatches that are timed.
+     */
+    private double _sampleRate;
+
+    /**
+     * Map from task type ID to profiles of its command lines.
+     */
+    private final HashMap<String, TypeProfile> _profiles = new HashMap<>();
+} // class CommandProfiler
@@ -0,0 +1,198 @@
+package nu.nerd.oddjob.metrics;
+
+import java.util.Arrays;
+
+// ----------------------------------------------------------------------------
+/**
+ * A histogram of non-negative long values with power-of-two bucket sizes.
+ * 
+ * Bucket 0 counts values of 0; bucket i (i &gt; 0) counts values in the range
+ * [2^(i-1), 2^i - 1]. Recording a value is a handful of arithmetic operations
+ * and does not allocate.
+ * 
+ * Histograms are not thread-safe. On Folia, they may be updated from several
+ * region threads, so callers must synchronize all updates and reads of a
+ * shared histogram on a common lock, as {@link SchedulerMetrics} does, and
+ * should hand other threads a {@link #copy()} taken under that lock.
+ */
+public class Histogram {
+    // ------------------------------------------------------------------------
+    /**
+     * The number of buckets.
+     */
+    public static final int BUCKETS = 64;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record a value.
+     * 
+     * @param value the value; negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+        ++_buckets[bucket];
+        ++_count;
+        _sum += value;
+        if (value > _max) {
+            _max = value;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of values recorded.
+     * 
+     * @return the number of values recorded.
+     */
+    public long getCount() {
+        return _count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the sum of all values recorded.
+     * 
+     * @return the sum of all values recorded.
+     */
+    public long getSum() {
+        return _sum;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the largest value recorded.
+     * 
+     * @return the largest value recorded, or 0 if none.
+     */
+    public long getMax() {
+        return _max;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the mean of all values recorded.
+     * 
+     * @return the mean, or 0 if no values have been recorded.
+     */
+    public double getMean() {
+        return (_count == 0) ? 0 : (double) _sum / _count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an upper bound on the specified percentile of recorded values.
+     * 
+     * The result is the upper bound of the bucket containing the percentile,
+     * limited to the largest recorded value.
+     * 
+     * @param percentile the percentile, in the range [0, 100].
+     * @return the estimated percentile, or 0 if no values have been recorded.
+     */
+    public long getPercentile(double percentile) {
+        long rank = (long) Math.ceil(_count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += _buckets[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(getUpperBound(i), _max);
+            }
+        }
+        return _max;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of values recorded in the specified bucket.
+     * 
+     * @param bucket the bucket index, in the range [0, {@link #BUCKETS}).
+     * @return the number of values in the bucket.
+     */
+    public long getBucketCount(int bucket) {
+        return _buckets[bucket];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the largest value counted by the specified bucket.
+     * 
+     * @param bucket the bucket index, in the range [0, {@link #BUCKETS}).
+     * @return the inclusive upper bound of the bucket.
+     */
+    public static long getUpperBound(int bucket) {
+        return (bucket >= BUCKETS - 1) ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a copy of this histogram.
+     * 
+     * @return the copy.
+     */
+    public Histogram copy() {
+        Histogram copy = new Histogram();
+        System.arraycopy(_buckets, 0, copy._buckets, 0, BUCKETS);
+        copy._count = _count;
+        copy._sum = _sum;
+        copy._max = _max;
+        return copy;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a histogram of the values recorded in this histogram since it was
+     * copied.
+     * 
+     * The maximum of the result is estimated as the upper bound of its highest
+     * non-empty bucket, limited to the maximum of this histogram.
+     * 
+     * @param earlier an earlier copy of this histogram.
+     * @return the values recorded since the copy.
+     */
+    public Histogram since(Histogram earlier) {
+        Histogram since = new Histogram();
+        for (int i = 0; i < BUCKETS; ++i) {
+            since._buckets[i] = _buckets[i] - earlier._buckets[i];
+            if (since._buckets[i] > 0) {
+                since._max = Math.min(getUpperBound(i), _max);
+            }
+        }
+        since._count = _count - earlier._count;
+        since._sum = _sum - earlier._sum;
+        return since;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard all recorded values.
+     */
+    public void reset() {
+        Arrays.fill(_buckets, 0);
+        _count = 0;
+        _sum = 0;
+        _max = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Counts of values in each bucket.
+     */
+    private final long[] _buckets = new long[BUCKETS];
+
+    /**
+     * The number of values recorded.
+     */
+    private long _count;
+
+    /**
+     * The sum of values recorded.
+     */
+    private long _sum;
+
+    /**
+     * The largest value recorded.
+     */
+    private long _max;
+} // class Histogram
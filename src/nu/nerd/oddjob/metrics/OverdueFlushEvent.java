@@ -0,0 +1,46 @@
+package nu.nerd.oddjob.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// ----------------------------------------------------------------------------
+/**
+ * Java Flight Recorder event emitted when a player's overdue tasks are run on
+ * login.
+ * 
+ * Disabled by default; enable {@code nu.nerd.oddjob.OverdueFlush} in the JFR
+ * settings to record it.
+ */
+@Name("nu.nerd.oddjob.OverdueFlush")
+@Label("Overdue Flush")
+@Category("OddJob")
+@Description("Execution of a player's overdue OddJob tasks when they log in.")
+@Enabled(false)
+@StackTrace(false)
+public class OverdueFlushEvent extends Event {
+    /**
+     * The name of the player.
+     */
+    @Label("Player")
+    public String player;
+
+    /**
+     * The number of overdue tasks.
+     */
+    @Label("Tasks")
+    public int tasks;
+
+    /**
+     * Milliseconds from the scheduled time of the oldest overdue task until
+     * the player logged in.
+     */
+    @Label("Maximum Lateness")
+    @Timespan(Timespan.MILLISECONDS)
+    public long lateness;
+} // class OverdueFlushEvent
@@ -0,0 +1,540 @@
+package nu.nerd.oddjob.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import nu.nerd.oddjob.TaskScheduler;
+
+// ----------------------------------------------------------------------------
+/**
+ * Counters, gauges and histograms describing the behaviour of the
+ * {@link TaskScheduler}.
+ * 
+ * Counters and histograms are updated as tasks are scheduled and executed,
+ * without allocating. On Folia, tasks execute on several region threads, so
+ * all updates and reads of counters and histograms are synchronized on this
+ * object; histograms are returned as copies. Gauges, which describe the size
+ * of the task queues, are sampled by {@link #updateGauges(TaskScheduler)} on
+ * the main thread, and are volatile so that they can be read safely from
+ * other threads such as JMX clients.
+ */
+public class SchedulerMetrics implements SchedulerMetricsMBean {
+    // ------------------------------------------------------------------------
+    /**
+     * The JMX object name under which these metrics are registered.
+     */
+    public static final String OBJECT_NAME = "nu.nerd.oddjob:type=SchedulerMetrics";
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a task was scheduled.
+     */
+    public synchronized void taskScheduled() {
+        ++_tasksScheduled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a task was cancelled.
+     */
+    public synchronized void taskCancelled() {
+        ++_tasksCancelled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a task fell due but was deferred until its target player is
+     * online.
+     */
+    public synchronized void taskDeferred() {
+        ++_tasksDeferred;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a task did nothing because its target player lacked the
+     * required permission.
+     */
+    public synchronized void permissionFailed() {
+        ++_permissionFailures;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that an idempotent console command was skipped because an
+     * identical command had already run in the same drain or window.
+     */
+    public synchronized void commandDeduplicated() {
+        ++_commandsDeduplicated;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a task is about to execute.
+     * 
+     * @param lateness the number of milliseconds between the task's scheduled
+     *        time and now.
+     * @param overdue true if the task was deferred until its target player
+     *        logged in.
+     */
+    public synchronized void taskStarted(long lateness, boolean overdue) {
+        _lateness.record(lateness);
+        if (overdue) {
+            ++_overdueTasksExecuted;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the time taken to perform the actions of a task.
+     * 
+     * @param nanos the execution time in nanoseconds.
+     */
+    public synchronized void taskExecuted(long nanos) {
+        ++_tasksExecuted;
+        _executeMicros.record(nanos / 1000);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the time taken by one call to
+     * {@link TaskScheduler#runPendingTasks()}.
+     * 
+     * @param nanos the duration in nanoseconds.
+     * @param tasks the number of due tasks processed.
+     */
+    public synchronized void drained(long nanos, int tasks) {
+        ++_drains;
+        _drainMicros.record(nanos / 1000);
+        _drainTasks.record(tasks);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Sample the sizes of the scheduler's task queues.
+     * 
+     * This must be called from the main thread. It is not synchronized, since
+     * the scheduler updates these metrics while holding its own lock.
+     * 
+     * @param scheduler the scheduler.
+     */
+    public void updateGauges(TaskScheduler scheduler) {
+        _pendingTasks = scheduler.getPendingTaskCount();
+        _overdueTasks = scheduler.getTaskCount() - _pendingTasks;
+        _overduePlayers = scheduler.getOverduePlayerCount();
+        _maxOverdueTasksPerPlayer = scheduler.getMaxOverdueTasksPerPlayer();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Register these metrics as a JMX MBean, or unregister them.
+     * 
+     * @param enabled true to register; false to unregister.
+     * @param logger a logger for reporting errors.
+     */
+    public void setJmxEnabled(boolean enabled, Logger logger) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (enabled && !server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            } else if (!enabled && server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ex) {
+            logger.warning(ex.getClass().getSimpleName() + " updating JMX registration: " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return all metrics in the Prometheus text exposition format.
+     * 
+     * @return the metrics as text.
+     */
+    public synchronized String toPrometheusText() {
+        StringBuilder s = new StringBuilder(4096);
+        appendMetric(s, "oddjob_tasks_scheduled_total", "counter", "Tasks scheduled.", _tasksScheduled);
+        appendMetric(s, "oddjob_tasks_cancelled_total", "counter", "Tasks cancelled.", _tasksCancelled);
+        appendMetric(s, "oddjob_tasks_executed_total", "counter", "Tasks executed.", _tasksExecuted);
+        appendMetric(s, "oddjob_tasks_deferred_total", "counter", "Due tasks deferred until the player is online.", _tasksDeferred);
+        appendMetric(s, "oddjob_overdue_tasks_executed_total", "counter", "Deferred tasks executed on login.", _overdueTasksExecuted);
+        appendMetric(s, "oddjob_permission_failures_total", "counter", "Tasks skipped for lack of permission.", _permissionFailures);
+        appendMetric(s, "oddjob_commands_deduplicated_total", "counter", "Idempotent console commands skipped as duplicates.", _commandsDeduplicated);
+        appendMetric(s, "oddjob_pending_tasks", "gauge", "Tasks waiting for their scheduled time.", _pendingTasks);
+        appendMetric(s, "oddjob_overdue_tasks", "gauge", "Due tasks waiting for their player to log in.", _overdueTasks);
+        appendMetric(s, "oddjob_overdue_players", "gauge", "Players with overdue tasks.", _overduePlayers);
+        appendMetric(s, "oddjob_max_overdue_tasks_per_player", "gauge", "The largest number of overdue tasks for one player.", _maxOverdueTasksPerPlayer);
+        appendHistogram(s, "oddjob_task_lateness_milliseconds", "Time from scheduled time to execution.", _lateness);
+        appendHistogram(s, "oddjob_drain_duration_microseconds", "Duration of each run of the task queue.", _drainMicros);
+        appendHistogram(s, "oddjob_drain_tasks", "Due tasks processed by each run of the task queue.", _drainTasks);
+        appendHistogram(s, "oddjob_task_execute_duration_microseconds", "Time taken to perform a task's actions.", _executeMicros);
+        return s.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a copy of the histogram of task lateness in milliseconds.
+     * 
+     * @return a copy of the histogram of task lateness in milliseconds.
+     */
+    public synchronized Histogram getLateness() {
+        return _lateness.copy();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a copy of the histogram of queue run durations in
+     * microseconds.
+     * 
+     * @return a copy of the histogram of queue run durations in
+     *         microseconds.
+     */
+    public synchronized Histogram getDrainMicros() {
+        return _drainMicros.copy();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a copy of the histogram of the number of tasks processed per
+     * queue run.
+     * 
+     * @return a copy of the histogram of the number of tasks processed per
+     *         queue run.
+     */
+    public synchronized Histogram getDrainTasks() {
+        return _drainTasks.copy();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a copy of the histogram of task execution times in
+     * microseconds.
+     * 
+     * @return a copy of the histogram of task execution times in
+     *         microseconds.
+     */
+    public synchronized Histogram getExecuteMicros() {
+        return _executeMicros.copy();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getTasksScheduled()
+     */
+    @Override
+    public synchronized long getTasksScheduled() {
+        return _tasksScheduled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getTasksCancelled()
+     */
+    @Override
+    public synchronized long getTasksCancelled() {
+        return _tasksCancelled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getTasksExecuted()
+     */
+    @Override
+    public synchronized long getTasksExecuted() {
+        return _tasksExecuted;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getTasksDeferred()
+     */
+    @Override
+    public synchronized long getTasksDeferred() {
+        return _tasksDeferred;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getOverdueTasksExecuted()
+     */
+    @Override
+    public synchronized long getOverdueTasksExecuted() {
+        return _overdueTasksExecuted;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getPermissionFailures()
+     */
+    @Override
+    public synchronized long getPermissionFailures() {
+        return _permissionFailures;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getCommandsDeduplicated()
+     */
+    @Override
+    public synchronized long getCommandsDeduplicated() {
+        return _commandsDeduplicated;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getDrains()
+     */
+    @Override
+    public synchronized long getDrains() {
+        return _drains;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getPendingTasks()
+     */
+    @Override
+    public int getPendingTasks() {
+        return _pendingTasks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getOverdueTasks()
+     */
+    @Override
+    public int getOverdueTasks() {
+        return _overdueTasks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getOverduePlayers()
+     */
+    @Override
+    public int getOverduePlayers() {
+        return _overduePlayers;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getMaxOverdueTasksPerPlayer()
+     */
+    @Override
+    public int getMaxOverdueTasksPerPlayer() {
+        return _maxOverdueTasksPerPlayer;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getLatenessMillisP50()
+     */
+    @Override
+    public synchronized long getLatenessMillisP50() {
+        return _lateness.getPercentile(50);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getLatenessMillisP99()
+     */
+    @Override
+    public synchronized long getLatenessMillisP99() {
+        return _lateness.getPercentile(99);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getLatenessMillisMax()
+     */
+    @Override
+    public synchronized long getLatenessMillisMax() {
+        return _lateness.getMax();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getDrainMicrosP50()
+     */
+    @Override
+    public synchronized long getDrainMicrosP50() {
+        return _drainMicros.getPercentile(50);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getDrainMicrosP99()
+     */
+    @Override
+    public synchronized long getDrainMicrosP99() {
+        return _drainMicros.getPercentile(99);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getDrainMicrosMax()
+     */
+    @Override
+    public synchronized long getDrainMicrosMax() {
+        return _drainMicros.getMax();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getExecuteMicrosP50()
+     */
+    @Override
+    public synchronized long getExecuteMicrosP50() {
+        return _executeMicros.getPercentile(50);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getExecuteMicrosP99()
+     */
+    @Override
+    public synchronized long getExecuteMicrosP99() {
+        return _executeMicros.getPercentile(99);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.oddjob.metrics.SchedulerMetricsMBean#getExecuteMicrosMax()
+     */
+    @Override
+    public synchronized long getExecuteMicrosMax() {
+        return _executeMicros.getMax();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a single-valued metric in Prometheus text format.
+     * 
+     * @param s the buffer to append to.
+     * @param name the metric name.
+     * @param type the metric type: "counter" or "gauge".
+     * @param help the help text.
+     * @param value the value.
+     */
+    private static void appendMetric(StringBuilder s, String name, String type, String help, long value) {
+        s.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        s.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        s.append(name).append(' ').append(value).append('\n');
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a histogram in Prometheus text format.
+     * 
+     * Only buckets up to the one containing the maximum value are written,
+     * followed by the mandatory "+Inf" bucket.
+     * 
+     * @param s the buffer to append to.
+     * @param name the metric name.
+     * @param help the help text.
+     * @param histogram the histogram.
+     */
+    private static void appendHistogram(StringBuilder s, String name, String help, Histogram histogram) {
+        s.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        s.append("# TYPE ").append(name).append(" histogram\n");
+        long cumulative = 0;
+        for (int i = 0; i < Histogram.BUCKETS - 1; ++i) {
+            cumulative += histogram.getBucketCount(i);
+            s.append(name).append("_bucket{le=\"").append(Histogram.getUpperBound(i)).append("\"} ")
+            .append(cumulative).append('\n');
+            if (Histogram.getUpperBound(i) >= histogram.getMax()) {
+                break;
+            }
+        }
+        s.append(name).append("_bucket{le=\"+Inf\"} ").append(histogram.getCount()).append('\n');
+        s.append(name).append("_sum ").append(histogram.getSum()).append('\n');
+        s.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of tasks scheduled.
+     */
+    private long _tasksScheduled;
+
+    /**
+     * Number of tasks cancelled.
+     */
+    private long _tasksCancelled;
+
+    /**
+     * Number of tasks executed.
+     */
+    private long _tasksExecuted;
+
+    /**
+     * Number of due tasks deferred until their player is online.
+     */
+    private long _tasksDeferred;
+
+    /**
+     * Number of deferred tasks executed when their player logged in.
+     */
+    private long _overdueTasksExecuted;
+
+    /**
+     * Number of tasks that did nothing for lack of permission.
+     */
+    private long _permissionFailures;
+
+    /**
+     * Number of idempotent console commands skipped as duplicates.
+     */
+    private long _commandsDeduplicated;
+
+    /**
+     * Number of runs of the pending task queue.
+     */
+    private long _drains;
+
+    /**
+     * Sampled number of pending tasks.
+     */
+    private volatile int _pendingTasks;
+
+    /**
+     * Sampled number of overdue tasks.
+     */
+    private volatile int _overdueTasks;
+
+    /**
+     * Sampled number of players with overdue tasks.
+     */
+    private volatile int _overduePlayers;
+
+    /**
+     * Sampled largest number of overdue tasks for one player.
+     */
+    private volatile int _maxOverdueTasksPerPlayer;
+
+    /**
+     * Milliseconds between each executed task's scheduled time and the time
+     * it started executing.
+     */
+    private final Histogram _lateness = new Histogram();
+
+    /**
+     * Duration of each run of the pending task queue, in microseconds.
+     */
+    private final Histogram _drainMicros = new Histogram();
+
+    /**
+     * Number of due tasks processed by each run of the pending task queue.
+     */
+    private final Histogram _drainTasks = new Histogram();
+
+    /**
+     * Time taken to perform the actions of each task, in microseconds.
+     */
+    private final Histogram _executeMicros = new Histogram();
+} // class SchedulerMetrics
@@ -0,0 +1,51 @@
+package nu.nerd.oddjob.metrics;
+
+// ----------------------------------------------------------------------------
+/**
+ * JMX management interface of {@link SchedulerMetrics}.
+ * 
+ * Times are in the units given by each attribute name.
+ */
+public interface SchedulerMetricsMBean {
+    public long getTasksScheduled();
+
+    public long getTasksCancelled();
+
+    public long getTasksExecuted();
+
+    public long getTasksDeferred();
+
+    public long getOverdueTasksExecuted();
+
+    public long getPermissionFailures();
+
+    public long getCommandsDeduplicated();
+
+    public long getDrains();
+
+    public int getPendingTasks();
+
+    public int getOverdueTasks();
+
+    public int getOverduePlayers();
+
+    public int getMaxOverdueTasksPerPlayer();
+
+    public long getLatenessMillisP50();
+
+    public long getLatenessMillisP99();
+
+    public long getLatenessMillisMax();
+
+    public long getDrainMicrosP50();
+
+    public long getDrainMicrosP99();
+
+    public long getDrainMicrosMax();
+
+    public long getExecuteMicrosP50();
+
+    public long getExecuteMicrosP99();
+
+    public long getExecuteMicrosMax();
+} // class SchedulerMetricsMBean
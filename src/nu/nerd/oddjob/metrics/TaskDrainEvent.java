@@ -0,0 +1,39 @@
+package nu.nerd.oddjob.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// ----------------------------------------------------------------------------
+/**
+ * Java Flight Recorder event emitted for each run of the pending task queue.
+ * 
+ * Disabled by default; enable {@code nu.nerd.oddjob.TaskDrain} in the JFR
+ * settings to record it.
+ */
+@Name("nu.nerd.oddjob.TaskDrain")
+@Label("Task Drain")
+@Category("OddJob")
+@Description("A run of the OddJob pending task queue.")
+@Enabled(false)
+@StackTrace(false)
+public class TaskDrainEvent extends Event {
+    /**
+     * The number of due tasks processed.
+     */
+    @Label("Tasks")
+    public int tasks;
+
+    /**
+     * Milliseconds from the scheduled time of the earliest due task until the
+     * start of the run.
+     */
+    @Label("Maximum Lateness")
+    @Timespan(Timespan.MILLISECONDS)
+    public long lateness;
+} // class TaskDrainEvent
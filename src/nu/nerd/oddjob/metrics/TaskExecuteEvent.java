@@ -0,0 +1,56 @@
+package nu.nerd.oddjob.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// ----------------------------------------------------------------------------
+/**
+ * Java Flight Recorder event emitted for each task execution.
+ * 
+ * Disabled by default; enable {@code nu.nerd.oddjob.TaskExecute} in the JFR
+ * settings to record it.
+ */
+@Name("nu.nerd.oddjob.TaskExecute")
+@Label("Task Execute")
+@Category("OddJob")
+@Description("Execution of one OddJob task.")
+@Enabled(false)
+@StackTrace(false)
+public class TaskExecuteEvent extends Event {
+    /**
+     * The unique ID of the task.
+     */
+    @Label("Task ID")
+    public String taskId;
+
+    /**
+     * The ID of the task type.
+     */
+    @Label("Task Type")
+    public String taskType;
+
+    /**
+     * The name of the target player, or null.
+     */
+    @Label("Player")
+    public String player;
+
+    /**
+     * Milliseconds from the task's scheduled time until it started executing.
+     */
+    @Label("Lateness")
+    @Timespan(Timespan.MILLISECONDS)
+    public long lateness;
+
+    /**
+     * True if the task was deferred until its target player logged in.
+     */
+    @Label("Overdue")
+    public boolean overdue;
+} // class TaskExecuteEvent
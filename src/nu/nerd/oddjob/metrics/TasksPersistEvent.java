@@ -0,0 +1,37 @@
+package nu.nerd.oddjob.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// ----------------------------------------------------------------------------
+/**
+ * Java Flight Recorder event emitted when tasks are saved to or loaded from
+ * {@code tasks.yml}.
+ * 
+ * Disabled by default; enable {@code nu.nerd.oddjob.TasksPersist} in the JFR
+ * settings to record it.
+ */
+@Name("nu.nerd.oddjob.TasksPersist")
+@Label("Tasks Save/Load")
+@Category("OddJob")
+@Description("Saving or loading of all OddJob tasks.")
+@Enabled(false)
+@StackTrace(false)
+public class TasksPersistEvent extends Event {
+    /**
+     * "save" or "load".
+     */
+    @Label("Operation")
+    public String operation;
+
+    /**
+     * The number of tasks saved or loaded.
+     */
+    @Label("Tasks")
+    public int tasks;
+} // class TasksPersistEvent
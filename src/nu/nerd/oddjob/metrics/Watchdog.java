@@ -0,0 +1,268 @@
+package nu.nerd.oddjob.metrics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import nu.nerd.oddjob.Task;
+
+// ----------------------------------------------------------------------------
+/**
+ * Detects runs of the task queue and individual task executions that take
+ * longer than configured limits, and logs the task responsible.
+ * 
+ * The main thread records what it is doing by calling
+ * {@link #beginDrain(String)}, {@link #beginTask(Task)},
+ * {@link #setCommand(String)}, {@link #endTask()} and {@link #endDrain()};
+ * these only write fields. Slow tasks and drains are logged when they finish.
+ * 
+ * If stack capture is enabled, a background thread also polls the main
+ * thread's progress and, the first time a task exceeds its limit, logs the
+ * main thread's stack while the task is still running.
+ */
+public class Watchdog {
+    // ------------------------------------------------------------------------
+    /**
+     * Configure the watchdog.
+     * 
+     * Must be called from the main thread.
+     * 
+     * @param taskMillis the maximum milliseconds a single task may take before
+     *        it is logged, or 0 to disable.
+     * @param drainMillis the maximum milliseconds a run of the task queue may
+     *        take before it is logged, or 0 to disable.
+     * @param captureStack if true, capture the main thread stack while a slow
+     *        task is still running.
+     * @param logger the logger.
+     */
+    public synchronized void configure(int taskMillis, int drainMillis, boolean captureStack, Logger logger) {
+        _mainThread = Thread.currentThread();
+        _logger = logger;
+        _taskLimitNanos = TimeUnit.MILLISECONDS.toNanos(taskMillis);
+        _drainLimitNanos = TimeUnit.MILLISECONDS.toNanos(drainMillis);
+
+        stop();
+        if (captureStack && taskMillis > 0) {
+            _monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "OddJob Watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(5, taskMillis / 2);
+            _monitor.scheduleAtFixedRate(this::poll, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop the background thread, if running.
+     */
+    public synchronized void stop() {
+        if (_monitor != null) {
+            _monitor.shutdownNow();
+            _monitor = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Signal the start of a run of a task queue.
+     * 
+     * @param description a description of the queue being run.
+     */
+    public void beginDrain(String description) {
+        if (_drainLimitNanos > 0) {
+            _drainDescription = description;
+            _slowestTask = null;
+            _slowestTaskNanos = 0;
+            _drainStartNanos = System.nanoTime();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Signal the end of a run of a task queue, logging it if it took too long.
+     */
+    public void endDrain() {
+        if (_drainLimitNanos > 0) {
+            long elapsed = System.nanoTime() - _drainStartNanos;
+            if (elapsed > _drainLimitNanos) {
+                _logger.warning("Running " + _drainDescription + " took " + formatMillis(elapsed) +
+                                " (limit " + formatMillis(_drainLimitNanos) + ")" +
+                                (_slowestTask != null ? "; slowest task: " + _slowestTask +
+                                                        " took " + formatMillis(_slowestTaskNanos)
+                                                      : "") + ".");
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Signal the start of a task's execution.
+     * 
+     * @param task the task.
+     */
+    public void beginTask(Task task) {
+        if (_taskLimitNanos > 0 || _drainLimitNanos > 0) {
+            _command = null;
+            _task = task;
+            _taskStartNanos = System.nanoTime();
+            ++_taskGeneration;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the command that the current task is about to dispatch.
+     * 
+     * @param command the command line.
+     */
+    public void setCommand(String command) {
+        _command = command;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Signal the end of a task's execution, logging it if it took too long.
+     */
+    public void endTask() {
+        Task task = _task;
+        if (task == null) {
+            return;
+        }
+        _task = null;
+
+        long elapsed = System.nanoTime() - _taskStartNanos;
+        if (_taskLimitNanos > 0 && elapsed > _taskLimitNanos) {
+            _logger.warning(describe(task, _command) + " took " + formatMillis(elapsed) +
+                            " (limit " + formatMillis(_taskLimitNanos) + ").");
+        }
+        if (elapsed > _slowestTaskNanos) {
+            _slowestTaskNanos = elapsed;
+            _slowestTask = task.getId();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Called periodically on the background thread to log the main thread
+     * stack if the current task has exceeded its limit.
+     */
+    private void poll() {
+        Task task = _task;
+        long generation = _taskGeneration;
+        if (task == null || generation == _reportedGeneration) {
+            return;
+        }
+
+        long elapsed = System.nanoTime() - _taskStartNanos;
+        if (elapsed > _taskLimitNanos && _task == task) {
+            _reportedGeneration = generation;
+            StringBuilder message = new StringBuilder();
+            message.append(describe(task, _command)).append(" has been running for ")
+            .append(formatMillis(elapsed)).append("; main thread stack:");
+            for (StackTraceElement frame : _mainThread.getStackTrace()) {
+                message.append("\n    at ").append(frame);
+            }
+            _logger.warning(message.toString());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a description of a task and the command it is running.
+     * 
+     * @param task the task.
+     * @param command the most recent command dispatched by the task, or null.
+     * @return the description.
+     */
+    private static String describe(Task task, String command) {
+        return "Task " + task.getId() + " of type " + task.getTaskTypeId() +
+               " on " + (task.getOfflinePlayer() == null ? "-" : task.getPlayerName()) +
+               (command != null ? " running \"" + command + "\"" : "");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format a duration in nanoseconds as milliseconds.
+     * 
+     * @param nanos the duration in nanoseconds.
+     * @return the formatted duration.
+     */
+    private static String formatMillis(long nanos) {
+        return String.format("%.1f ms", nanos / 1e6);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The main server thread.
+     */
+    private volatile Thread _mainThread;
+
+    /**
+     * The logger.
+     */
+    private volatile Logger _logger;
+
+    /**
+     * Limit on the duration of a task, in nanoseconds, or 0 if disabled.
+     */
+    private volatile long _taskLimitNanos;
+
+    /**
+     * Limit on the duration of a queue run, in nanoseconds, or 0 if disabled.
+     */
+    private volatile long _drainLimitNanos;
+
+    /**
+     * The background thread that captures stacks, or null.
+     */
+    private ScheduledExecutorService _monitor;
+
+    /**
+     * The task currently executing, or null.
+     */
+    private volatile Task _task;
+
+    /**
+     * The most recent command dispatched by the current task, or null.
+     */
+    private volatile String _command;
+
+    /**
+     * The System.nanoTime() when the current task started.
+     */
+    private volatile long _taskStartNanos;
+
+    /**
+     * Incremented at the start of each task, to tell executions apart.
+     */
+    private volatile long _taskGeneration;
+
+    /**
+     * The generation of the last task whose stack was logged by the
+     * background thread.
+     */
+    private long _reportedGeneration;
+
+    /**
+     * A description of the queue being run.
+     */
+    private String _drainDescription;
+
+    /**
+     * The System.nanoTime() when the current queue run started.
+     */
+    private long _drainStartNanos;
+
+    /**
+     * The ID of the slowest task in the current queue run, or null.
+     */
+    private String _slowestTask;
+
+    /**
+     * The duration of the slowest task in the current queue run.
+     */
+    private long _slowestTaskNanos;
+} // class Watchdog
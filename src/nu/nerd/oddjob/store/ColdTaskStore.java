@@ -0,0 +1,551 @@
+package nu.nerd.oddjob.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+
+import nu.nerd.oddjob.OddJob;
+import nu.nerd.oddjob.Task;
+
+// ----------------------------------------------------------------------------
+/**
+ * An on-disk tier for tasks that are due beyond the scheduler's horizon.
+ * 
+ * Cold tasks are held as compact index entries rather than {@link Task}
+ * instances, are absent from the scheduler's queues and secondary indexes,
+ * and are not written to {@code tasks.yml}. They are persisted in files
+ * partitioned by time, one per fixed-width window of due times, named after
+ * the window's start time in milliseconds since Epoch. Each file is an
+ * append-only log of task records and tombstones; the latest untombstoned
+ * record of each task ID is current. The index is rebuilt from the files when
+ * the store is first configured.
+ * 
+ * As a partition's window approaches, the scheduler pages its tasks into
+ * memory with {@link #pageIn(long)}. The partition file is then renamed, and
+ * deleted after the paged tasks are next saved to {@code tasks.yml} by
+ * {@link #deletePagedPartitions()}, so that a crash in between does not lose
+ * them.
+ * 
+ * File writes are buffered per partition and performed by the
+ * {@link nu.nerd.oddjob.AsyncActionExecutor}, keyed by partition so that they
+ * are applied in order. All other methods are called with the scheduler's
+ * lock held.
+ */
+public class ColdTaskStore {
+    // ------------------------------------------------------------------------
+    /**
+     * Configure the store, loading the index from the partition files on the
+     * first call.
+     * 
+     * The index is loaded even if the store is disabled, so that the
+     * scheduler can page in tasks left in the cold tier.
+     * 
+     * @param enabled true if tasks beyond the horizon should be stored here.
+     * @param directory the directory containing the partition files.
+     * @param partitionMillis the width of each partition's window.
+     * @param logger a logger for reporting errors.
+     */
+    public synchronized void configure(boolean enabled, File directory, long partitionMillis, Logger logger) {
+        _enabled = enabled;
+        _partitionMillis = Math.max(1, partitionMillis);
+        _logger = logger;
+        if (_directory == null) {
+            _directory = directory;
+            load();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if tasks beyond the horizon should be stored here.
+     * 
+     * @return true if the cold tier is enabled.
+     */
+    public synchronized boolean isEnabled() {
+        return _enabled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of cold tasks.
+     * 
+     * @return the number of cold tasks.
+     */
+    public synchronized int getTaskCount() {
+        return _entries.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a task, which must not already be in the store.
+     * 
+     * @param task the task.
+     */
+    public synchronized void add(Task task) {
+        long partition = Math.floorDiv(task.getTime(), _partitionMillis) * _partitionMillis;
+        UUID playerUuid = (task.getOfflinePlayer() != null) ? task.getOfflinePlayer().getUniqueId() : null;
+        ColdEntry entry = new ColdEntry(task.getTaskTypeId(), playerUuid, task.getTime(), ++_lastSeq, partition);
+        _entries.put(task.getId(), entry);
+        _partitions.computeIfAbsent(partition, k -> new HashSet<>()).add(task.getId());
+
+        try {
+            DataOutputStream out = getBuffer(partition);
+            out.writeByte(TASK_TAG);
+            out.writeLong(entry._seq);
+            out.writeUTF(task.getId());
+            out.writeUTF(entry._taskTypeId);
+            out.writeBoolean(playerUuid != null);
+            if (playerUuid != null) {
+                out.writeLong(playerUuid.getMostSignificantBits());
+                out.writeLong(playerUuid.getLeastSignificantBits());
+            }
+            out.writeLong(entry._time);
+        } catch (IOException ex) {
+            // Not thrown by in-memory streams.
+        }
+        scheduleWrite(partition);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a copy of the cold task with the specified ID.
+     * 
+     * This must be called on the main thread.
+     * 
+     * @param id the task ID.
+     * @return the task, or null if there is no cold task with that ID.
+     */
+    public synchronized Task getTask(String id) {
+        ColdEntry entry = _entries.get(id);
+        return (entry != null) ? entry.toTask(id) : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the cold task with the specified ID.
+     * 
+     * A tombstone is appended to the task's partition file, or the file is
+     * deleted if the partition is now empty.
+     * 
+     * This must be called on the main thread.
+     * 
+     * @param id the task ID.
+     * @return the removed task, or null if there was no cold task with that
+     *         ID.
+     */
+    public synchronized Task remove(String id) {
+        ColdEntry entry = _entries.remove(id);
+        if (entry == null) {
+            return null;
+        }
+        HashSet<String> ids = _partitions.get(entry._partition);
+        ids.remove(id);
+        if (ids.isEmpty()) {
+            // Nothing left in the partition, so its file can go.
+            _partitions.remove(entry._partition);
+            _buffers.remove(entry._partition);
+            File file = getFile(entry._partition);
+            OddJob.ASYNC_ACTIONS.submit(asyncKey(entry._partition), () -> file.delete());
+        } else {
+            try {
+                DataOutputStream out = getBuffer(entry._partition);
+                out.writeByte(TOMBSTONE_TAG);
+                out.writeLong(entry._seq);
+                out.writeUTF(id);
+            } catch (IOException ex) {
+                // Not thrown by in-memory streams.
+            }
+            scheduleWrite(entry._partition);
+        }
+        return entry.toTask(id);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the IDs of all cold tasks targeting the specified player.
+     * 
+     * This visits every cold task.
+     * 
+     * @param playerUuid the player's UUID.
+     * @return the task IDs.
+     */
+    public synchronized List<String> getTaskIdsFor(UUID playerUuid) {
+        ArrayList<String> ids = new ArrayList<>();
+        for (Map.Entry<String, ColdEntry> entry : _entries.entrySet()) {
+            if (playerUuid.equals(entry.getValue()._playerUuid)) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove and return all tasks in partitions that start before the
+     * specified time.
+     * 
+     * The partition files are renamed so that new tasks in the same windows
+     * start new files, and are deleted by the next call to
+     * {@link #deletePagedPartitions()}. This must be called on the main
+     * thread.
+     * 
+     * @param until the end of the paged period in milliseconds since Epoch.
+     * @return the paged tasks.
+     */
+    public synchronized List<Task> pageIn(long until) {
+        ArrayList<Task> tasks = new ArrayList<>();
+        Iterator<Map.Entry<Long, HashSet<String>>> it = _partitions.headMap(until, false).entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, HashSet<String>> partition = it.next();
+            for (String id : partition.getValue()) {
+                tasks.add(_entries.remove(id).toTask(id));
+            }
+            it.remove();
+
+            long start = partition.getKey();
+            _buffers.remove(start);
+            File file = getFile(start);
+            File paged = new File(_directory, start + "-" + _lastSeq + PAGED_SUFFIX);
+            _pagedPartitions.add(start);
+            OddJob.ASYNC_ACTIONS.submit(asyncKey(start), () -> {
+                if (file.exists() && !file.renameTo(paged)) {
+                    _logger.warning("Could not rename cold partition " + file.getName() + ".");
+                }
+            });
+        }
+        return tasks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Delete the files of partitions paged in since the last call, once their
+     * tasks have been saved to {@code tasks.yml}.
+     */
+    public synchronized void deletePagedPartitions() {
+        for (long start : _pagedPartitions) {
+            File directory = _directory;
+            String prefix = start + "-";
+            OddJob.ASYNC_ACTIONS.submit(asyncKey(start), () -> {
+                File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(PAGED_SUFFIX));
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+            });
+        }
+        _pagedPartitions.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the index from the partition files, including those paged in but
+     * not yet deleted.
+     */
+    private void load() {
+        File[] files = _directory.listFiles((dir, name) -> name.endsWith(COLD_SUFFIX) || name.endsWith(PAGED_SUFFIX));
+        if (files == null) {
+            return;
+        }
+
+        HashMap<String, ColdEntry> latest = new HashMap<>();
+        HashMap<String, Long> tombstones = new HashMap<>();
+        for (File file : files) {
+            long start;
+            try {
+                String name = file.getName();
+                int end = name.indexOf(name.endsWith(COLD_SUFFIX) ? COLD_SUFFIX : "-");
+                start = Long.parseLong(name.substring(0, end));
+            } catch (NumberFormatException ex) {
+                _logger.warning("Ignoring unrecognised cold partition file " + file.getName() + ".");
+                continue;
+            }
+            if (file.getName().endsWith(PAGED_SUFFIX)) {
+                _pagedPartitions.add(start);
+            }
+
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                for (;;) {
+                    int tag;
+                    try {
+                        tag = in.readUnsignedByte();
+                    } catch (EOFException ex) {
+                        break;
+                    }
+                    long seq = in.readLong();
+                    String id = in.readUTF();
+                    _lastSeq = Math.max(_lastSeq, seq);
+                    if (tag == TASK_TAG) {
+                        String taskTypeId = in.readUTF().intern();
+                        UUID playerUuid = in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+                        ColdEntry entry = new ColdEntry(taskTypeId, playerUuid, in.readLong(), seq, start);
+                        ColdEntry previous = latest.get(id);
+                        if (previous == null || previous._seq < seq) {
+                            latest.put(id, entry);
+                        }
+                    } else if (tag == TOMBSTONE_TAG) {
+                        tombstones.merge(id, seq, Math::max);
+                    } else {
+                        throw new IOException("corrupt record");
+                    }
+                }
+            } catch (IOException ex) {
+                _logger.severe("Error reading cold partition " + file.getName() + ": " + ex.getMessage());
+            }
+        }
+
+        for (Map.Entry<String, ColdEntry> entry : latest.entrySet()) {
+            Long tombstone = tombstones.get(entry.getKey());
+            if (tombstone == null || tombstone < entry.getValue()._seq) {
+                _entries.put(entry.getKey(), entry.getValue());
+                _partitions.computeIfAbsent(entry.getValue()._partition, k -> new HashSet<>()).add(entry.getKey());
+            }
+        }
+        _logger.info("Loaded " + _entries.size() + " cold tasks.");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the stream into which records for a partition are buffered.
+     * 
+     * @param partition the start time of the partition.
+     * @return the buffer stream.
+     */
+    private DataOutputStream getBuffer(long partition) {
+        return _buffers.computeIfAbsent(partition, k -> new PartitionBuffer())._out;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule a write of a partition's buffered records, if not already
+     * scheduled.
+     * 
+     * @param partition the start time of the partition.
+     */
+    private void scheduleWrite(long partition) {
+        PartitionBuffer buffer = _buffers.get(partition);
+        if (!buffer._scheduled) {
+            buffer._scheduled = true;
+            File file = getFile(partition);
+            OddJob.ASYNC_ACTIONS.submit(asyncKey(partition), () -> write(partition, buffer, file));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a partition's buffered records to its file.
+     * 
+     * The buffer is detached from the store first, so that records added
+     * afterwards go to a new buffer and a new write.
+     * 
+     * @param partition the start time of the partition.
+     * @param buffer the buffer.
+     * @param file the partition file.
+     */
+    private void write(long partition, PartitionBuffer buffer, File file) {
+        byte[] bytes;
+        synchronized (this) {
+            if (_buffers.get(partition) == buffer) {
+                _buffers.remove(partition);
+            }
+            bytes = buffer._bytes.toByteArray();
+        }
+        file.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(bytes);
+        } catch (IOException ex) {
+            _logger.severe("Could not write cold partition " + file.getName() + ": " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the file of a partition.
+     * 
+     * @param partition the start time of the partition.
+     * @return the file.
+     */
+    private File getFile(long partition) {
+        return new File(_directory, partition + COLD_SUFFIX);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link nu.nerd.oddjob.AsyncActionExecutor} key that orders
+     * writes to a partition.
+     * 
+     * @param partition the start time of the partition.
+     * @return the key.
+     */
+    private static String asyncKey(long partition) {
+        return "oddjob:cold:" + partition;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A cold task, less its ID, which is the key of the entry.
+     */
+    private static final class ColdEntry {
+        /**
+         * Constructor.
+         * 
+         * @param taskTypeId the task type ID.
+         * @param playerUuid the target player's UUID, or null.
+         * @param time the time the task is due.
+         * @param seq the sequence number of the record in the partition file.
+         * @param partition the start time of the partition.
+         */
+        ColdEntry(String taskTypeId, UUID playerUuid, long time, long seq, long partition) {
+            _taskTypeId = taskTypeId;
+            _playerUuid = playerUuid;
+            _time = time;
+            _seq = seq;
+            _partition = partition;
+        }
+
+        /**
+         * Return the task this entry represents.
+         * 
+         * @param id the task ID.
+         * @return a new task.
+         */
+        Task toTask(String id) {
+            return new Task(id, _taskTypeId, (_playerUuid != null) ? Bukkit.getOfflinePlayer(_playerUuid) : null, _time);
+        }
+
+        /**
+         * The task type ID.
+         */
+        final String _taskTypeId;
+
+        /**
+         * The target player's UUID, or null.
+         */
+        final UUID _playerUuid;
+
+        /**
+         * The time the task is due.
+         */
+        final long _time;
+
+        /**
+         * The sequence number of the task's record, which distinguishes it
+         * from earlier records of tasks with the same ID.
+         */
+        final long _seq;
+
+        /**
+         * The start time of the task's partition.
+         */
+        final long _partition;
+    } // class ColdEntry
+
+    // ------------------------------------------------------------------------
+    /**
+     * Records buffered for appending to a partition file.
+     */
+    private static final class PartitionBuffer {
+        /**
+         * The buffered bytes.
+         */
+        final ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+
+        /**
+         * The stream that writes records into the buffer.
+         */
+        final DataOutputStream _out = new DataOutputStream(_bytes);
+
+        /**
+         * True if a write of this buffer has been scheduled.
+         */
+        boolean _scheduled;
+    } // class PartitionBuffer
+
+    // ------------------------------------------------------------------------
+    /**
+     * The byte that begins a task record.
+     */
+    private static final int TASK_TAG = 1;
+
+    /**
+     * The byte that begins a tombstone, which removes the task record with the
+     * same ID and sequence number.
+     */
+    private static final int TOMBSTONE_TAG = 2;
+
+    /**
+     * The suffix of partition files.
+     */
+    private static final String COLD_SUFFIX = ".cold";
+
+    /**
+     * The suffix of partition files that have been paged in, which are
+     * deleted once their tasks are saved.
+     */
+    private static final String PAGED_SUFFIX = ".paged";
+
+    /**
+     * True if tasks beyond the horizon should be stored here.
+     */
+    private boolean _enabled;
+
+    /**
+     * The directory containing the partition files, or null if not yet
+     * configured.
+     */
+    private File _directory;
+
+    /**
+     * The width of each partition's window in milliseconds.
+     */
+    private long _partitionMillis = 1;
+
+    /**
+     * The largest sequence number assigned to a record.
+     */
+    private long _lastSeq;
+
+    /**
+     * Map from task ID to cold task.
+     */
+    private final HashMap<String, ColdEntry> _entries = new HashMap<>();
+
+    /**
+     * Map from partition start time to the IDs of the cold tasks in that
+     * partition, in ascending order by start time.
+     */
+    private final TreeMap<Long, HashSet<String>> _partitions = new TreeMap<>();
+
+    /**
+     * Map from partition start time to records not yet appended to its file.
+     */
+    private final HashMap<Long, PartitionBuffer> _buffers = new HashMap<>();
+
+    /**
+     * The start times of partitions paged in since their files were last
+     * deleted.
+     */
+    private final HashSet<Long> _pagedPartitions = new HashSet<>();
+
+    /**
+     * A logger for reporting errors.
+     */
+    private volatile Logger _logger = Logger.getLogger("OddJob");
+} // class ColdTaskStore
@@ -0,0 +1,556 @@
+package nu.nerd.oddjob.store;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import nu.nerd.oddjob.Task;
+
+// ----------------------------------------------------------------------------
+/**
+ * A store of overdue tasks shared by several servers through an SQLite
+ * database on a common filesystem.
+ * 
+ * When the store is open, a task that falls due while its target player is
+ * not online is published to the store rather than kept in the local overdue
+ * queue. Every server periodically claims the stored tasks of its online
+ * players, and claims a player's tasks as soon as they join. A claim takes a
+ * time-limited lease on the tasks, so that only one server executes them.
+ * After executing a claimed task, the server deletes it from the store. If a
+ * server stops before that, its leases expire and the tasks can be claimed
+ * again by whichever server has the player by then.
+ * 
+ * All database access happens on a single background thread, so the main
+ * thread never waits on the database. Operations are queued in order and
+ * each batch of queued operations is applied in one transaction.
+ */
+public class SharedTaskStore {
+    // ------------------------------------------------------------------------
+    /**
+     * A stored task claimed by this server.
+     * 
+     * Claims are returned as plain data, since {@link Task} instances refer to
+     * OfflinePlayer objects that must be looked up on the main thread.
+     */
+    public static final class Claim {
+        /**
+         * Constructor.
+         * 
+         * @param id the task ID.
+         * @param taskTypeId the task type ID.
+         * @param playerUuid the target player's UUID.
+         * @param time the time the task was due.
+         */
+        Claim(String id, String taskTypeId, UUID playerUuid, long time) {
+            _id = id;
+            _taskTypeId = taskTypeId;
+            _playerUuid = playerUuid;
+            _time = time;
+        }
+
+        /**
+         * Return the task ID.
+         * 
+         * @return the task ID.
+         */
+        public String getId() {
+            return _id;
+        }
+
+        /**
+         * Return the task type ID.
+         * 
+         * @return the task type ID.
+         */
+        public String getTaskTypeId() {
+            return _taskTypeId;
+        }
+
+        /**
+         * Return the target player's UUID.
+         * 
+         * @return the target player's UUID.
+         */
+        public UUID getPlayerUuid() {
+            return _playerUuid;
+        }
+
+        /**
+         * Return the time the task was due, in milliseconds since Epoch.
+         * 
+         * @return the time the task was due.
+         */
+        public long getTime() {
+            return _time;
+        }
+
+        /**
+         * The task ID.
+         */
+        private final String _id;
+
+        /**
+         * The task type ID.
+         */
+        private final String _taskTypeId;
+
+        /**
+         * The target player's UUID.
+         */
+        private final UUID _playerUuid;
+
+        /**
+         * The time the task was due.
+         */
+        private final long _time;
+    } // class Claim
+
+    // ------------------------------------------------------------------------
+    /**
+     * Configure the store, opening or closing it as necessary.
+     * 
+     * Any queued operations are applied before the configuration changes.
+     * 
+     * @param enabled true if the store should be open.
+     * @param file the SQLite database file.
+     * @param serverId the ID of this server in leases.
+     * @param leaseSeconds the duration of leases.
+     * @param logger a logger for reporting errors.
+     */
+    public synchronized void configure(boolean enabled, File file, String serverId, int leaseSeconds, Logger logger) {
+        if (enabled && _worker != null && file.equals(_file) &&
+            serverId.equals(_serverId) && leaseSeconds * 1000L == _leaseMillis) {
+            return;
+        }
+        close();
+        if (!enabled) {
+            return;
+        }
+
+        _file = file;
+        _serverId = serverId;
+        _leaseMillis = leaseSeconds * 1000L;
+        _logger = logger;
+        _running = true;
+        _worker = new Thread(this::runWorker, "OddJob Shared Store");
+        _worker.setDaemon(true);
+        _worker.start();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply all queued operations and close the store.
+     */
+    public synchronized void close() {
+        Thread worker = _worker;
+        if (worker != null) {
+            _running = false;
+            _queue.add(connection -> {
+                // Wake the worker.
+            });
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            _worker = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the store is open.
+     * 
+     * @return true if the store is open.
+     */
+    public boolean isOpen() {
+        return _worker != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the ID of this server in leases.
+     * 
+     * @return the server ID.
+     */
+    public String getServerId() {
+        return _serverId;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add an overdue task to the store, replacing any stored task with the
+     * same ID.
+     * 
+     * @param task the task, which must have a target player.
+     */
+    public void publish(Task task) {
+        String id = task.getId();
+        String taskTypeId = task.getTaskTypeId();
+        String playerUuid = task.getOfflinePlayer().getUniqueId().toString();
+        long time = task.getTime();
+        enqueue(connection -> {
+            try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT OR REPLACE INTO tasks (id, task_type, player_uuid, time, lease_owner, lease_until) " +
+                "VALUES (?, ?, ?, ?, NULL, 0)")) {
+                insert.setString(1, id);
+                insert.setString(2, taskTypeId);
+                insert.setString(3, playerUuid);
+                insert.setLong(4, time);
+                insert.executeUpdate();
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the stored task with the specified ID, if any.
+     * 
+     * @param id the task ID.
+     */
+    public void remove(String id) {
+        enqueue(connection -> {
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM tasks WHERE id = ?")) {
+                delete.setString(1, id);
+                delete.executeUpdate();
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all stored tasks targeting the specified player.
+     * 
+     * @param playerUuid the player's UUID.
+     */
+    public void removeFor(UUID playerUuid) {
+        enqueue(connection -> {
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM tasks WHERE player_uuid = ?")) {
+                delete.setString(1, playerUuid.toString());
+                delete.executeUpdate();
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Claim the stored tasks of the specified players that are not leased by
+     * another server.
+     * 
+     * The claimed tasks are passed to the callback on the store's thread,
+     * after the leases are committed. The callback is not called if no tasks
+     * were claimed. Each claimed task must then be passed to
+     * {@link #complete(String)} or {@link #release(String)}.
+     * 
+     * @param playerUuids the UUIDs of the players, e.g. all online players.
+     * @param callback called with the claimed tasks.
+     */
+    public void claim(Collection<UUID> playerUuids, Consumer<List<Claim>> callback) {
+        if (playerUuids.isEmpty()) {
+            return;
+        }
+        ArrayList<UUID> players = new ArrayList<>(playerUuids);
+        enqueue(connection -> {
+            long now = System.currentTimeMillis();
+            ArrayList<Claim> claims = new ArrayList<>();
+            try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id, task_type, time FROM tasks WHERE player_uuid = ? AND lease_until < ? ORDER BY time");
+                 PreparedStatement lease = connection.prepareStatement(
+                     "UPDATE tasks SET lease_owner = ?, lease_until = ? WHERE id = ?")) {
+                for (UUID player : players) {
+                    select.setString(1, player.toString());
+                    select.setLong(2, now);
+                    try (ResultSet results = select.executeQuery()) {
+                        while (results.next()) {
+                            claims.add(new Claim(results.getString(1), results.getString(2), player, results.getLong(3)));
+                        }
+                    }
+                }
+                for (Claim claim : claims) {
+                    lease.setString(1, _serverId);
+                    lease.setLong(2, now + _leaseMillis);
+                    lease.setString(3, claim.getId());
+                    lease.addBatch();
+                }
+                lease.executeBatch();
+            }
+            if (!claims.isEmpty()) {
+                _afterCommit.add(() -> callback.accept(claims));
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Delete a claimed task after it has been executed.
+     * 
+     * @param id the task ID.
+     */
+    public void complete(String id) {
+        enqueue(connection -> {
+            try (PreparedStatement delete = connection.prepareStatement(
+                "DELETE FROM tasks WHERE id = ? AND lease_owner = ?")) {
+                delete.setString(1, id);
+                delete.setString(2, _serverId);
+                delete.executeUpdate();
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Release the lease on a claimed task that this server could not execute,
+     * e.g. because the player has left, so that another server can claim it.
+     * 
+     * @param id the task ID.
+     */
+    public void release(String id) {
+        enqueue(connection -> {
+            try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE tasks SET lease_owner = NULL, lease_until = 0 WHERE id = ? AND lease_owner = ?")) {
+                update.setString(1, id);
+                update.setString(2, _serverId);
+                update.executeUpdate();
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Queue an operation for the store's thread, if the store is open.
+     * 
+     * @param operation the operation.
+     */
+    private void enqueue(Operation operation) {
+        if (_worker != null) {
+            _queue.add(operation);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Open the database, then apply queued operations in batches until the
+     * store is closed.
+     */
+    private void runWorker() {
+        Connection connection;
+        try {
+            File parent = _file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            connection = DriverManager.getConnection("jdbc:sqlite:" + _file.getPath());
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS);
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS tasks (" +
+                                        "id TEXT PRIMARY KEY, " +
+                                        "task_type TEXT NOT NULL, " +
+                                        "player_uuid TEXT NOT NULL, " +
+                                        "time INTEGER NOT NULL, " +
+                                        "lease_owner TEXT, " +
+                                        "lease_until INTEGER NOT NULL DEFAULT 0)");
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS tasks_by_player ON tasks (player_uuid)");
+            }
+        } catch (SQLException ex) {
+            _logger.severe("Could not open the shared task store " + _file + ": " + ex.getMessage());
+            _worker = null;
+            _queue.clear();
+            return;
+        }
+
+        ArrayList<Operation> batch = new ArrayList<>();
+        try {
+            while (_running || !_queue.isEmpty()) {
+                batch.add(_queue.take());
+                _queue.drainTo(batch);
+                try {
+                    applyWithRetry(connection, batch);
+                } catch (RuntimeException ex) {
+                    _logger.severe(ex.getClass().getSimpleName() + " in the shared task store, " + batch.size() +
+                                   " operations lost: " + ex.getMessage());
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (_worker == Thread.currentThread()) {
+                // Stop queueing operations that would never be applied.
+                _worker = null;
+                _queue.clear();
+            }
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                _logger.warning("Error closing the shared task store: " + ex.getMessage());
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply a batch of operations, retrying if the transaction fails, e.g.
+     * because another server held the write lock for longer than the busy
+     * timeout.
+     * 
+     * Overdue tasks published to the store have already been removed from the
+     * scheduler, so the batch is only given up after {@link #MAX_ATTEMPTS}
+     * attempts. Its operations are then applied one at a time, so that a
+     * single failing operation loses only itself.
+     * 
+     * @param connection the database connection.
+     * @param batch the operations.
+     * @throws InterruptedException if interrupted while waiting to retry.
+     */
+    private void applyWithRetry(Connection connection, List<Operation> batch) throws InterruptedException {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; ++attempt) {
+            try {
+                apply(connection, batch);
+                return;
+            } catch (SQLException ex) {
+                _logger.warning("Shared task store error (attempt " + attempt + " of " + MAX_ATTEMPTS + "): " +
+                                ex.getMessage());
+            }
+            if (attempt < MAX_ATTEMPTS) {
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            }
+        }
+
+        int lost = 0;
+        for (Operation operation : batch) {
+            try {
+                apply(connection, Collections.singletonList(operation));
+            } catch (SQLException ex) {
+                ++lost;
+            }
+        }
+        if (lost > 0) {
+            _logger.severe("Shared task store error, " + lost + " of " + batch.size() + " operations lost.");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply a batch of operations in one transaction, then run the callbacks
+     * they registered.
+     * 
+     * The transaction is begun immediately, taking the database's write lock,
+     * so that two servers cannot lease the same task. If any operation fails,
+     * including with an unchecked exception, the transaction is rolled back
+     * and no callbacks are run.
+     * 
+     * @param connection the database connection.
+     * @param batch the operations.
+     * @throws SQLException if the transaction fails.
+     */
+    private void apply(Connection connection, List<Operation> batch) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("BEGIN IMMEDIATE");
+            try {
+                for (Operation operation : batch) {
+                    operation.apply(connection);
+                }
+                statement.execute("COMMIT");
+            } catch (SQLException | RuntimeException ex) {
+                _afterCommit.clear();
+                statement.execute("ROLLBACK");
+                throw (ex instanceof SQLException) ? (SQLException) ex : new SQLException(ex);
+            }
+        }
+
+        for (Runnable callback : _afterCommit) {
+            try {
+                callback.run();
+            } catch (Exception ex) {
+                _logger.severe(ex.getClass().getSimpleName() + " handling claimed tasks: " + ex.getMessage());
+            }
+        }
+        _afterCommit.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An operation on the database, applied on the store's thread.
+     */
+    private interface Operation {
+        /**
+         * Apply the operation.
+         * 
+         * @param connection the database connection.
+         * @throws SQLException if the operation fails.
+         */
+        void apply(Connection connection) throws SQLException;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The number of milliseconds to wait for another server's write lock.
+     */
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * The number of times a failed batch of operations is attempted before it
+     * is given up.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * The delay before the first retry of a failed batch, in milliseconds;
+     * later retries wait proportionately longer.
+     */
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    /**
+     * A logger for reporting errors.
+     */
+    private Logger _logger = Logger.getLogger("OddJob");
+
+    /**
+     * The SQLite database file.
+     */
+    private File _file;
+
+    /**
+     * The ID of this server in leases.
+     */
+    private String _serverId;
+
+    /**
+     * The duration of leases in milliseconds.
+     */
+    private long _leaseMillis;
+
+    /**
+     * The thread that applies operations, or null if the store is closed.
+     */
+    private volatile Thread _worker;
+
+    /**
+     * True until the store is closed.
+     */
+    private volatile boolean _running;
+
+    /**
+     * Operations waiting to be applied.
+     */
+    private final LinkedBlockingQueue<Operation> _queue = new LinkedBlockingQueue<>();
+
+    /**
+     * Callbacks registered by operations in the current transaction, run after
+     * it commits. Only accessed on the store's thread.
+     */
+    private final ArrayList<Runnable> _afterCommit = new ArrayList<>();
+} // class SharedTaskStore
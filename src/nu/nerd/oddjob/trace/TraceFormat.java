@@ -0,0 +1,112 @@
+package nu.nerd.oddjob.trace;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// ----------------------------------------------------------------------------
+/**
+ * Constants and encoding helpers shared by {@link TraceRecorder} and
+ * {@link TraceReplayer}.
+ * 
+ * A trace file is a gzipped stream consisting of a header followed by
+ * records. The header is the magic number, the format version, the scheduler
+ * period in ticks and the time the recording started, in milliseconds since
+ * Epoch. Each record starts with its kind and the number of milliseconds since
+ * the previous record (or the start time), then:
+ * <ul>
+ * <li>{@link #SCHEDULE}: the task time relative to the record time, flags, the
+ * task ID, the task type ID and, if {@link #FLAG_PLAYER} is set, the player
+ * UUID and name.</li>
+ * <li>{@link #CANCEL}: the task ID.</li>
+ * <li>{@link #JOIN}, {@link #QUIT}: the player UUID and name.</li>
+ * </ul>
+ * 
+ * Relative times are written as zig-zag encoded variable length integers, so
+ * that a typical record occupies a few tens of bytes before compression.
+ */
+final class TraceFormat {
+    /**
+     * The magic number at the start of the file: "ODJT".
+     */
+    static final int MAGIC = 0x4F444A54;
+
+    /**
+     * The format version.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Record kind: a task was scheduled.
+     */
+    static final int SCHEDULE = 1;
+
+    /**
+     * Record kind: a task was cancelled.
+     */
+    static final int CANCEL = 2;
+
+    /**
+     * Record kind: a player joined.
+     */
+    static final int JOIN = 3;
+
+    /**
+     * Record kind: a player quit.
+     */
+    static final int QUIT = 4;
+
+    /**
+     * Schedule flag: the task type requires the player to be online.
+     */
+    static final int FLAG_ONLINE = 1;
+
+    /**
+     * Schedule flag: the task has a target player.
+     */
+    static final int FLAG_PLAYER = 2;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a signed value as a zig-zag encoded variable length integer.
+     * 
+     * @param out the output.
+     * @param value the value.
+     * @throws IOException on error.
+     */
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a value written by {@link #writeVarLong(DataOutput, long)}.
+     * 
+     * @param in the input.
+     * @return the value.
+     * @throws IOException on error, or if the encoding is too long.
+     */
+    static long readVarLong(DataInput in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("malformed variable length integer");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Not instantiable.
+     */
+    private TraceFormat() {
+    }
+} // class TraceFormat
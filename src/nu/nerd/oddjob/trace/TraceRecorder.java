@@ -0,0 +1,334 @@
+package nu.nerd.oddjob.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Clock;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import nu.nerd.oddjob.Task;
+import nu.nerd.oddjob.TaskType;
+
+// ----------------------------------------------------------------------------
+/**
+ * Records task scheduling, cancellation and player join and quit events to a
+ * trace file, for later replay by {@link TraceReplayer}.
+ * 
+ * Records are encoded on the calling thread into an in-memory buffer. Full
+ * buffers are compressed and written to the file by a background thread, so
+ * the server never waits on the disk. Public methods are synchronized, since
+ * on Folia, players join and leave on their region threads.
+ * 
+ * @see TraceFormat
+ */
+public class TraceRecorder {
+    // ------------------------------------------------------------------------
+    /**
+     * Start recording to the specified file, stopping any recording in
+     * progress.
+     * 
+     * @param file the trace file, which is overwritten.
+     * @param periodTicks the period of the scheduler, in ticks.
+     * @param clock the scheduler's clock, which times the records.
+     * @param logger a logger for reporting errors.
+     * @throws IOException if the file could not be created.
+     */
+    public synchronized void start(File file, int periodTicks, Clock clock, Logger logger) throws IOException {
+        stop();
+        File parent = file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        _stream = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+        _file = file;
+        _clock = clock;
+        _logger = logger;
+        _records = 0;
+        _lastTime = clock.millis();
+        _buffer.reset();
+        _out.writeInt(TraceFormat.MAGIC);
+        _out.writeShort(TraceFormat.VERSION);
+        _out.writeInt(periodTicks);
+        _out.writeLong(_lastTime);
+        _writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "OddJob Trace Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write any buffered records and close the trace file.
+     * 
+     * This method does nothing if not recording.
+     */
+    public synchronized void stop() {
+        if (_writer == null) {
+            return;
+        }
+        flush();
+        final DataOutputStream stream = _stream;
+        _writer.execute(() -> {
+            try {
+                stream.close();
+            } catch (IOException ex) {
+                _logger.severe("Error closing trace file " + _file + ": " + ex.getMessage());
+            }
+        });
+        _writer.shutdown();
+        try {
+            _writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        _writer = null;
+        _stream = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if recording.
+     * 
+     * @return true if recording.
+     */
+    public synchronized boolean isRecording() {
+        return _writer != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the file being recorded, or null if not recording.
+     * 
+     * @return the trace file.
+     */
+    public synchronized File getFile() {
+        return isRecording() ? _file : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of records written since recording started.
+     * 
+     * @return the number of records.
+     */
+    public synchronized long getRecordCount() {
+        return _records;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the scheduling of a task.
+     * 
+     * @param task the task.
+     */
+    public synchronized void recordSchedule(Task task) {
+        if (_writer == null) {
+            return;
+        }
+        try {
+            long now = beginRecord(TraceFormat.SCHEDULE);
+            TraceFormat.writeVarLong(_out, task.getTime() - now);
+            TaskType taskType = task.getTaskType();
+            OfflinePlayer player = task.getOfflinePlayer();
+            int flags = (taskType != null && taskType.isOnline() ? TraceFormat.FLAG_ONLINE : 0) |
+                        (player != null ? TraceFormat.FLAG_PLAYER : 0);
+            _out.writeByte(flags);
+            _out.writeUTF(task.getId());
+            _out.writeUTF(task.getTaskTypeId());
+            if (player != null) {
+                writePlayer(player.getUniqueId(), player.getName());
+            }
+            endRecord();
+        } catch (IOException ex) {
+            // Not possible when writing to memory.
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the cancellation of a task.
+     * 
+     * @param id the ID of the cancelled task.
+     */
+    public synchronized void recordCancel(String id) {
+        if (_writer == null) {
+            return;
+        }
+        try {
+            beginRecord(TraceFormat.CANCEL);
+            _out.writeUTF(id);
+            endRecord();
+        } catch (IOException ex) {
+            // Not possible when writing to memory.
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record a player joining the server.
+     * 
+     * @param player the player.
+     */
+    public synchronized void recordJoin(Player player) {
+        recordPlayer(TraceFormat.JOIN, player);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record a player leaving the server.
+     * 
+     * @param player the player.
+     */
+    public synchronized void recordQuit(Player player) {
+        recordPlayer(TraceFormat.QUIT, player);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record a player join or quit.
+     * 
+     * @param kind the record kind.
+     * @param player the player.
+     */
+    private void recordPlayer(int kind, Player player) {
+        if (_writer == null) {
+            return;
+        }
+        try {
+            beginRecord(kind);
+            writePlayer(player.getUniqueId(), player.getName());
+            endRecord();
+        } catch (IOException ex) {
+            // Not possible when writing to memory.
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the kind and relative time of a new record.
+     * 
+     * @param kind the record kind.
+     * @return the current time, in milliseconds since Epoch.
+     * @throws IOException on error.
+     */
+    private long beginRecord(int kind) throws IOException {
+        long now = _clock.millis();
+        _out.writeByte(kind);
+        TraceFormat.writeVarLong(_out, now - _lastTime);
+        _lastTime = now;
+        return now;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count a completed record and hand the buffer to the writer thread if it
+     * is full.
+     */
+    private void endRecord() {
+        ++_records;
+        if (_buffer.size() >= FLUSH_BYTES) {
+            flush();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a player's UUID and name.
+     * 
+     * @param uuid the UUID.
+     * @param name the name, or null if not known.
+     * @throws IOException on error.
+     */
+    private void writePlayer(UUID uuid, String name) throws IOException {
+        _out.writeLong(uuid.getMostSignificantBits());
+        _out.writeLong(uuid.getLeastSignificantBits());
+        _out.writeUTF(name != null ? name : "");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Hand the buffered records to the writer thread.
+     */
+    private void flush() {
+        if (_buffer.size() == 0) {
+            return;
+        }
+        final byte[] bytes = _buffer.toByteArray();
+        final OutputStream stream = _stream;
+        _buffer.reset();
+        _writer.execute(() -> {
+            try {
+                stream.write(bytes);
+            } catch (IOException ex) {
+                _logger.severe("Error writing trace file " + _file + ": " + ex.getMessage());
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The buffer size, in bytes, at which records are handed to the writer
+     * thread.
+     */
+    private static final int FLUSH_BYTES = 64 * 1024;
+
+    /**
+     * Records not yet handed to the writer thread.
+     */
+    private final ByteArrayOutputStream _buffer = new ByteArrayOutputStream(FLUSH_BYTES + 1024);
+
+    /**
+     * Encodes records into {@link #_buffer}.
+     */
+    private final DataOutputStream _out = new DataOutputStream(_buffer);
+
+    /**
+     * The compressed file stream, accessed only by the writer thread once
+     * recording starts.
+     */
+    private DataOutputStream _stream;
+
+    /**
+     * The writer thread, or null if not recording.
+     */
+    private ExecutorService _writer;
+
+    /**
+     * The trace file.
+     */
+    private File _file;
+
+    /**
+     * The scheduler's clock, so that record times are comparable with task
+     * times.
+     */
+    private Clock _clock;
+
+    /**
+     * A logger for reporting errors.
+     */
+    private Logger _logger;
+
+    /**
+     * The time of the most recent record.
+     */
+    private long _lastTime;
+
+    /**
+     * The number of records since recording started.
+     */
+    private long _records;
+} // class TraceRecorder
@@ -0,0 +1,499 @@
+package nu.nerd.oddjob.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import nu.nerd.oddjob.SimulatedClock;
+import nu.nerd.oddjob.Task;
+import nu.nerd.oddjob.TaskScheduler;
+import nu.nerd.oddjob.metrics.Histogram;
+
+// ----------------------------------------------------------------------------
+/**
+ * Replays a trace recorded by {@link TraceRecorder} through a
+ * {@link TaskScheduler}, offline and as fast as possible.
+ * 
+ * Time is simulated: the scheduler is drained once per recorded scheduler
+ * period, and tasks are not executed but simply counted, along with their
+ * lateness. Players are online exactly when the trace says they are, and
+ * always have the permissions that tasks require. Every scheduling, join and
+ * quit can be replicated to simulate a multiple of the recorded load.
+ * 
+ * The output is CSV, one row per reporting interval, containing the queue
+ * depths at the end of the interval, the work done during it and the
+ * lateness of the tasks executed.
+ * 
+ * Usage, with the plugin and Spigot API on the classpath:
+ * 
+ * <pre>
+ * java nu.nerd.oddjob.trace.TraceReplayer &lt;trace&gt; [--scale N] [--interval-seconds S]
+ * </pre>
+ */
+public class TraceReplayer {
+    // ------------------------------------------------------------------------
+    /**
+     * Program entry point.
+     * 
+     * @param args command line arguments.
+     */
+    public static void main(String[] args) {
+        File file = null;
+        int scale = 1;
+        int intervalSeconds = 60;
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                if (args[i].equals("--scale") && i + 1 < args.length) {
+                    scale = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--interval-seconds") && i + 1 < args.length) {
+                    intervalSeconds = Integer.parseInt(args[++i]);
+                } else if (file == null && !args[i].startsWith("--")) {
+                    file = new File(args[i]);
+                } else {
+                    file = null;
+                    break;
+                }
+            }
+        } catch (NumberFormatException ex) {
+            file = null;
+        }
+        if (file == null || scale < 1 || intervalSeconds < 1) {
+            System.err.println("Usage: TraceReplayer <trace> [--scale N] [--interval-seconds S]");
+            System.exit(1);
+            return;
+        }
+
+        try {
+            new TraceReplayer(scale, intervalSeconds * 1000L).replay(file, System.out);
+        } catch (IOException ex) {
+            System.err.println("Error replaying " + file + ": " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     * 
+     * @param scale the number of copies of each recorded scheduling, join and
+     *        quit.
+     * @param intervalMillis the reporting interval, in simulated milliseconds.
+     */
+    public TraceReplayer(int scale, long intervalMillis) {
+        _scale = scale;
+        _intervalMillis = intervalMillis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replay a trace file.
+     * 
+     * @param file the trace file.
+     * @param out the destination of the CSV report.
+     * @throws IOException if the file could not be read or is not a trace.
+     */
+    public void replay(File file, PrintStream out) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != TraceFormat.MAGIC) {
+                throw new IOException("not a trace file");
+            }
+            int version = in.readUnsignedShort();
+            if (version != TraceFormat.VERSION) {
+                throw new IOException("unsupported trace version " + version);
+            }
+            _periodMillis = Math.max(1, in.readInt()) * 50L;
+            _startTime = in.readLong();
+            _nextDrain = _startTime + _periodMillis;
+            _nextReport = _startTime + _intervalMillis;
+
+            out.println("elapsed_s,pending,overdue,scheduled,cancelled,executed," +
+                        "lateness_p50_ms,lateness_p99_ms,lateness_max_ms,max_tasks_per_tick,max_drain_us");
+            long wallStart = System.nanoTime();
+            long time = _startTime;
+            long records = 0;
+            for (;;) {
+                int kind;
+                try {
+                    kind = in.readUnsignedByte();
+                } catch (EOFException ex) {
+                    break;
+                }
+                time += TraceFormat.readVarLong(in);
+                advance(time, out);
+                replayRecord(kind, time, in);
+                ++records;
+            }
+
+            // Finish the interval containing the last record.
+            advance(_nextReport, out);
+            long wallMillis = (System.nanoTime() - wallStart) / 1_000_000;
+            System.err.println("Replayed " + records + " records spanning " + (time - _startTime) / 1000 +
+                               " s at scale " + _scale + " in " + wallMillis + " ms.");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply one record from the trace, replicated according to the scale.
+     * 
+     * @param kind the record kind.
+     * @param time the record time.
+     * @param in the input, positioned after the record time.
+     * @throws IOException on error.
+     */
+    private void replayRecord(int kind, long time, DataInputStream in) throws IOException {
+        switch (kind) {
+        case TraceFormat.SCHEDULE: {
+            long taskTime = time + TraceFormat.readVarLong(in);
+            int flags = in.readUnsignedByte();
+            String id = in.readUTF();
+            String taskTypeId = in.readUTF();
+            UUID uuid = null;
+            String name = null;
+            if ((flags & TraceFormat.FLAG_PLAYER) != 0) {
+                uuid = new UUID(in.readLong(), in.readLong());
+                name = in.readUTF();
+            }
+            for (int copy = 0; copy < _scale; ++copy) {
+                Player player = (uuid != null) ? getPlayer(uuid, name, copy) : null;
+                _scheduler.scheduleTask(new ReplayTask(copyId(id, copy), taskTypeId, player, taskTime,
+                                                       (flags & TraceFormat.FLAG_ONLINE) != 0));
+                ++_scheduled;
+            }
+            break;
+        }
+
+        case TraceFormat.CANCEL: {
+            String id = in.readUTF();
+            for (int copy = 0; copy < _scale; ++copy) {
+                if (_scheduler.cancelTask(copyId(id, copy))) {
+                    ++_cancelled;
+                }
+            }
+            break;
+        }
+
+        case TraceFormat.JOIN:
+        case TraceFormat.QUIT: {
+            UUID uuid = new UUID(in.readLong(), in.readLong());
+            String name = in.readUTF();
+            for (int copy = 0; copy < _scale; ++copy) {
+                Player player = getPlayer(uuid, name, copy);
+                if (kind == TraceFormat.JOIN) {
+                    _scheduler._online.add(player.getUniqueId());
+                    _scheduler.executeOverdueTasksFor(player);
+                } else {
+                    _scheduler._online.remove(player.getUniqueId());
+                }
+            }
+            break;
+        }
+
+        default:
+            throw new IOException("unknown record kind " + kind);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Drain the scheduler once per period up to and including the specified
+     * time, reporting at the end of each interval.
+     * 
+     * @param time the simulated time.
+     * @param out the destination of the CSV report.
+     */
+    private void advance(long time, PrintStream out) {
+        while (_nextDrain <= time) {
+            _clock.setMillis(_nextDrain);
+            long executedBefore = _executed;
+            long start = System.nanoTime();
+            _scheduler.runPendingTasks();
+            long nanos = System.nanoTime() - start;
+            _maxTasksPerTick = Math.max(_maxTasksPerTick, _executed - executedBefore);
+            _maxDrainNanos = Math.max(_maxDrainNanos, nanos);
+
+            if (_nextDrain >= _nextReport) {
+                report(out);
+                _nextReport += _intervalMillis;
+            }
+            _nextDrain += _periodMillis;
+        }
+        _clock.setMillis(time);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write one row of the report and reset the per-interval statistics.
+     * 
+     * @param out the destination of the CSV report.
+     */
+    private void report(PrintStream out) {
+        int pending = _scheduler.getPendingTaskCount();
+        out.println((_nextReport - _startTime) / 1000 + "," +
+                    pending + "," +
+                    (_scheduler.getTaskCount() - pending) + "," +
+                    _scheduled + "," +
+                    _cancelled + "," +
+                    _executed + "," +
+                    _lateness.getPercentile(50) + "," +
+                    _lateness.getPercentile(99) + "," +
+                    _lateness.getMax() + "," +
+                    _maxTasksPerTick + "," +
+                    _maxDrainNanos / 1000);
+        _scheduled = 0;
+        _cancelled = 0;
+        _executed = 0;
+        _maxTasksPerTick = 0;
+        _maxDrainNanos = 0;
+        _lateness.reset();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the ID of a copy of a task.
+     * 
+     * @param id the recorded task ID.
+     * @param copy the copy number; 0 is the original.
+     * @return the ID of the copy.
+     */
+    private static String copyId(String id, int copy) {
+        return (copy == 0) ? id : id + "#" + copy;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the stub player representing a copy of a recorded player.
+     * 
+     * @param uuid the recorded player UUID.
+     * @param name the recorded player name.
+     * @param copy the copy number; 0 is the original.
+     * @return the stub player.
+     */
+    private Player getPlayer(UUID uuid, String name, int copy) {
+        UUID copyUuid = (copy == 0) ? uuid : new UUID(uuid.getMostSignificantBits() ^ copy, uuid.getLeastSignificantBits());
+        Player player = _players.get(copyUuid);
+        if (player == null) {
+            player = stubPlayer(copyUuid, (copy == 0) ? name : name + "#" + copy);
+            _players.put(copyUuid, player);
+        }
+        return player;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a stub player that only knows its UUID and name.
+     * 
+     * All other methods return null, false or zero.
+     * 
+     * @param uuid the UUID.
+     * @param name the name.
+     * @return the stub player.
+     */
+    private static Player stubPlayer(UUID uuid, String name) {
+        return (Player) Proxy.newProxyInstance(TraceReplayer.class.getClassLoader(), new Class<?>[] { Player.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "getUniqueId":
+                    return uuid;
+                case "getName":
+                case "getDisplayName":
+                case "toString":
+                    return name;
+                case "hashCode":
+                    return uuid.hashCode();
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    Class<?> type = method.getReturnType();
+                    if (type == boolean.class) {
+                        return false;
+                    } else if (type == char.class) {
+                        return '\0';
+                    } else if (type == byte.class) {
+                        return (byte) 0;
+                    } else if (type == short.class) {
+                        return (short) 0;
+                    } else if (type == int.class) {
+                        return 0;
+                    } else if (type == long.class) {
+                        return 0L;
+                    } else if (type == float.class) {
+                        return 0.0f;
+                    } else if (type == double.class) {
+                        return 0.0;
+                    }
+                    return null;
+                }
+            });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A task that records whether its type required the player to be online,
+     * since the replayer has no task types.
+     */
+    private static final class ReplayTask extends Task {
+        /**
+         * Constructor.
+         * 
+         * @param id the unique ID of this task instance.
+         * @param taskTypeId the unique ID of the task type.
+         * @param player the target player (can be null).
+         * @param time the time at which this task is due to execute.
+         * @param online true if the task type requires the player to be
+         *        online.
+         */
+        ReplayTask(String id, String taskTypeId, OfflinePlayer player, long time, boolean online) {
+            super(id, taskTypeId, player, time);
+            _online = online;
+        }
+
+        /**
+         * True if the task type requires the player to be online.
+         */
+        final boolean _online;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A scheduler with simulated time and players that counts executed tasks
+     * rather than executing them.
+     */
+    private final class ReplayScheduler extends TaskScheduler {
+        /**
+         * Constructor.
+         */
+        ReplayScheduler() {
+            setClock(_clock);
+        }
+
+        /**
+         * @see nu.nerd.oddjob.TaskScheduler#isOnlineSatisfied(nu.nerd.oddjob.Task)
+         */
+        @Override
+        protected boolean isOnlineSatisfied(Task task) {
+            return !((ReplayTask) task)._online ||
+                   task.getOfflinePlayer() == null ||
+                   _online.contains(task.getOfflinePlayer().getUniqueId());
+        }
+
+        /**
+         * @see nu.nerd.oddjob.TaskScheduler#isPermissionSatisfied(nu.nerd.oddjob.Task)
+         */
+        @Override
+        protected boolean isPermissionSatisfied(Task task) {
+            return true;
+        }
+
+        /**
+         * @see nu.nerd.oddjob.TaskScheduler#prepareTask(nu.nerd.oddjob.Task,
+         *      java.lang.String, long)
+         */
+        @Override
+        protected void prepareTask(Task task, String playerName, long now) {
+            // Replayed tasks are counted, not executed.
+        }
+
+        /**
+         * @see nu.nerd.oddjob.TaskScheduler#executeTask(nu.nerd.oddjob.Task,
+         *      boolean)
+         */
+        @Override
+        protected void executeTask(Task task, boolean overdue) {
+            ++_executed;
+            _lateness.record(_clock.millis() - task.getTime());
+        }
+
+        /**
+         * The UUIDs of online players.
+         */
+        final HashSet<UUID> _online = new HashSet<>();
+    }
+
+    /**
+     * The number of copies of each recorded scheduling, join and quit.
+     */
+    private final int _scale;
+
+    /**
+     * The reporting interval, in simulated milliseconds.
+     */
+    private final long _intervalMillis;
+
+    /**
+     * The simulated clock of the scheduler.
+     */
+    private final SimulatedClock _clock = new SimulatedClock(0);
+
+    /**
+     * The scheduler under test.
+     */
+    private final ReplayScheduler _scheduler = new ReplayScheduler();
+
+    /**
+     * Stub players by UUID.
+     */
+    private final HashMap<UUID, Player> _players = new HashMap<>();
+
+    /**
+     * Lateness of tasks executed in the current interval, in milliseconds.
+     */
+    private final Histogram _lateness = new Histogram();
+
+    /**
+     * The recorded scheduler period, in milliseconds.
+     */
+    private long _periodMillis;
+
+    /**
+     * The time recording started.
+     */
+    private long _startTime;
+
+    /**
+     * The time of the next scheduler drain.
+     */
+    private long _nextDrain;
+
+    /**
+     * The end of the current reporting interval.
+     */
+    private long _nextReport;
+
+    /**
+     * Tasks scheduled in the current interval.
+     */
+    private long _scheduled;
+
+    /**
+     * Tasks cancelled in the current interval.
+     */
+    private long _cancelled;
+
+    /**
+     * Tasks executed in the current interval.
+     */
+    private long _executed;
+
+    /**
+     * The most tasks executed by one drain in the current interval.
+     */
+    private long _maxTasksPerTick;
+
+    /**
+     * The longest drain in the current interval, in nanoseconds.
+     */
+    private long _maxDrainNanos;
+} // class TraceReplayer